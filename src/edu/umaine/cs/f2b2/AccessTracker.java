@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers when content was last used. Writing the time to the database on
+ * every read would turn each read into a write, so the times are kept in
+ * memory and written in one batch by {@link #flush(Connection)}.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class AccessTracker {
+
+	/**
+	 * Singleton pattern; all reads are tracked in one place.
+	 */
+	private static AccessTracker accessTracker;
+
+	/**
+	 * The time each content hash was last used that hasn't been written to the
+	 * database yet.
+	 */
+	private Map<String, Long> pending = new HashMap<String, Long>();
+
+	/**
+	 * The last time any content was used. (milliseconds)
+	 */
+	private volatile long lastAccess = System.currentTimeMillis();
+
+	/**
+	 * Singleton pattern.
+	 * 
+	 * @return The access tracker. (Never null)
+	 */
+	public static synchronized AccessTracker getAccessTracker() {
+		if (accessTracker == null) {
+			accessTracker = new AccessTracker();
+		}
+		return accessTracker;
+	}
+
+	/**
+	 * Records that the content with the given hash was just used.
+	 * 
+	 * @param hash
+	 *            The hash of an image's content. (Not null)
+	 */
+	public void touch(String hash) {
+
+		long now = System.currentTimeMillis();
+
+		synchronized (pending) {
+			pending.put(hash, now);
+		}
+
+		lastAccess = now;
+	}
+
+	/**
+	 * Returns the last time any content was used.
+	 * 
+	 * @return The time in milliseconds.
+	 */
+	public long getLastAccess() {
+		return lastAccess;
+	}
+
+	/**
+	 * Writes the recorded times to the database. The caller is responsible for
+	 * committing.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @return The number of content hashes that were written.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database. The times
+	 *             are kept to be written again.
+	 */
+	public int flush(Connection conn) throws SQLException {
+
+		Map<String, Long> times;
+
+		synchronized (pending) {
+			if (pending.isEmpty()) {
+				return 0;
+			}
+
+			times = pending;
+			pending = new HashMap<String, Long>();
+		}
+
+		try {
+			PreparedStatement ps = conn.prepareStatement("UPDATE content "
+					+ "SET lastaccessed = ? WHERE contenthash = ?");
+
+			for (Map.Entry<String, Long> entry : times.entrySet()) {
+				ps.setTimestamp(1, new Timestamp(entry.getValue()));
+				ps.setString(2, entry.getKey());
+				ps.addBatch();
+			}
+
+			ps.executeBatch();
+			ps.close();
+
+		} catch (SQLException e) {
+
+			// Newer times recorded in the meantime win.
+			synchronized (pending) {
+				for (Map.Entry<String, Long> entry : times.entrySet()) {
+					Long newer = pending.get(entry.getKey());
+
+					if (newer == null || newer < entry.getValue()) {
+						pending.put(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+
+			throw e;
+		}
+
+		return times.size();
+	}
+}
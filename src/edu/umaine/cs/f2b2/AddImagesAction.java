@@ -90,7 +90,7 @@ public class AddImagesAction extends AbstractAction {
 
 			// We'll add the files in the background so that the rest of the
 			// application doesn't lock up.
-			new Thread(new Runnable() {
+			TaskExecutors.run(TaskExecutors.io(), new Runnable() {
 
 				public void run() {
 					addFilesToList(fileChooser.getSelectedFiles());
@@ -101,7 +101,7 @@ public class AddImagesAction extends AbstractAction {
 					}
 
 				}
-			}).start();
+			});
 		}
 	}
 
@@ -163,7 +163,10 @@ public class AddImagesAction extends AbstractAction {
 			int depth, int maxDepth) {
 
 		for (File f : files) {
-			if (f.isFile() && imageFilter.accept(f)) {
+			// Check the content of the file as well, so that files that only
+			// pretend to be images are rejected before trying to load them.
+			if (f.isFile() && imageFilter.accept(f)
+					&& ImageFormat.detect(f) != null) {
 				result.add(f);
 			} else if (f.isDirectory() && depth < maxDepth) {
 				getImageFiles(result, f.listFiles(), depth + 1, maxDepth);
@@ -211,25 +214,8 @@ public class AddImagesAction extends AbstractAction {
 				return true;
 			}
 
-			String[] split = f.getName().split("[.]");
-
-			if (split.length > 0) {
-				String extension = split[split.length - 1];
-
-				if (extension != null) {
-					if (extension.equalsIgnoreCase("gif")
-							|| extension.equalsIgnoreCase("jpeg")
-							|| extension.equalsIgnoreCase("jpg")
-							|| extension.equalsIgnoreCase("png")) {
-						return true;
-					} else {
-						return false;
-					}
-				}
-			}
-
-			// The file was not an accepted image file
-			return false;
+			// The file is an accepted image file iff it has an image extension
+			return ImageFormat.forFileName(f.getName()) != null;
 		}
 
 		/*
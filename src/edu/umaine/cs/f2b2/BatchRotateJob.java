@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.swing.ImageIcon;
+
+/**
+ * Rotates a selection of images as a single job. Icons that are in memory are
+ * rotated from there; the icons of the other images are read from the
+ * database with one query. The icons are rotated in parallel on the CPU
+ * threads, and the list is told about all of the changes with one event.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class BatchRotateJob implements Runnable {
+
+	/**
+	 * Held while a job runs, so that jobs started by quick clicks rotate the
+	 * images in the order they were started.
+	 */
+	private static final Object lock = new Object();
+
+	/**
+	 * The list containing the images.
+	 */
+	private ImageJListModel model;
+
+	/**
+	 * The images to rotate.
+	 */
+	private List<ImageFile> files;
+
+	/**
+	 * The number of degrees to rotate each image clockwise.
+	 */
+	private int degrees;
+
+	/**
+	 * Create a job that rotates the given images.
+	 * 
+	 * @param model
+	 *            The list containing the images. (Not null)
+	 * @param files
+	 *            The images to rotate. (Not null)
+	 * @param degrees
+	 *            The number of degrees to rotate each image clockwise; -90
+	 *            rotates them to the left.
+	 */
+	public BatchRotateJob(ImageJListModel model, List<ImageFile> files,
+			int degrees) {
+		this.model = model;
+		this.files = files;
+		this.degrees = degrees;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		synchronized (lock) {
+			rotateAll();
+		}
+	}
+
+	/**
+	 * Rotates all of the images and waits until their icons are rotated.
+	 */
+	private void rotateAll() {
+
+		List<Future<?>> rotations = new ArrayList<Future<?>>();
+		Map<String, ImageFile> notInMemory = new HashMap<String, ImageFile>();
+
+		for (ImageFile file : files) {
+
+			int target = file.getRotation() + degrees;
+
+			if (file.getRotationInMemory() >= 0) {
+				rotations.add(rotate(file, target));
+			} else {
+				file.setRotation(target);
+				notInMemory.put(file.getAbsolutePath(), file);
+			}
+		}
+
+		if (!notInMemory.isEmpty()) {
+			rotations.addAll(rotateFromDatabase(notInMemory));
+		}
+
+		try {
+			for (Future<?> rotation : rotations) {
+				rotation.get();
+			}
+		} catch (InterruptedException e) {
+			for (Future<?> rotation : rotations) {
+				rotation.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Already reported by the task
+		}
+
+		model.fireAllContentChanged();
+	}
+
+	/**
+	 * Reads the icons of the given images with one query and rotates them.
+	 * Images whose icons aren't in the database are given to the
+	 * {@link IconLoader}, which creates their icons rotated.
+	 * 
+	 * @param notInMemory
+	 *            The images keyed by path, already set to their new rotation.
+	 *            (Not null)
+	 * @return The futures of the rotations. (Never null)
+	 */
+	private List<Future<?>> rotateFromDatabase(
+			final Map<String, ImageFile> notInMemory) {
+
+		final List<Future<?>> result = new ArrayList<Future<?>>();
+
+		try {
+			Connection conn = DBManager.getDerbyConnection();
+			conn.setAutoCommit(false);
+
+			DBManager.getIcons(conn, new ArrayList<String>(notInMemory
+					.keySet()), new DBManager.IconHandler() {
+				@Override
+				public void iconLoaded(String filePath, final ImageIcon icon,
+						final int originalWidth, final int originalHeight) {
+
+					final ImageFile file = notInMemory.remove(filePath);
+
+					result.add(TaskExecutors.run(TaskExecutors.cpu(),
+							new Runnable() {
+								@Override
+								public void run() {
+									file.setIcon(icon, originalWidth,
+											originalHeight);
+								}
+							}));
+				}
+			});
+
+			conn.commit();
+			conn.close();
+
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+
+		for (ImageFile file : notInMemory.values()) {
+			IconLoader.requestIcon(file);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Starts rotating the given image on a CPU thread from the icon of it that
+	 * is in memory.
+	 * 
+	 * @param file
+	 *            The image to rotate. (Not null)
+	 * @param target
+	 *            The new rotation of the image.
+	 * @return The future of the rotation. (Never null)
+	 */
+	private Future<?> rotate(final ImageFile file, final int target) {
+
+		return TaskExecutors.run(TaskExecutors.cpu(), new Runnable() {
+			@Override
+			public void run() {
+				// The icon may have been evicted since it was found.
+				if (!file.rotateInMemory(target)) {
+					try {
+						file.rotate(target);
+					} catch (SQLException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		});
+	}
+}
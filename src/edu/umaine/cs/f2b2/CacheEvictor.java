@@ -0,0 +1,319 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.io.File;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the database within a disk budget. Times recorded by the
+ * {@link AccessTracker} are written periodically, and when the program has
+ * been idle for a while and the database is larger than the budget, the least
+ * recently used content is removed and the tables are compressed so that
+ * Derby gives the space back to the file system. Everything removed can be
+ * created again from the image files.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class CacheEvictor implements Runnable {
+
+	/**
+	 * The default size of the database. (megabytes)
+	 */
+	static final long DEFAULTBUDGETMB = 512;
+
+	/**
+	 * How often access times are written and the budget is checked.
+	 * (milliseconds)
+	 */
+	static long INTERVAL = 30000;
+
+	/**
+	 * How long no content must have been used before content is removed.
+	 * (milliseconds)
+	 */
+	static long IDLETIME = 120000;
+
+	/**
+	 * The number of content rows considered in each transaction.
+	 */
+	static int BATCHSIZE = 100;
+
+	/**
+	 * The fraction of the budget that is freed down to, so that eviction
+	 * doesn't run again as soon as a few new icons are stored.
+	 */
+	static final double LOWWATERMARK = 0.9;
+
+	/**
+	 * The tables that are compressed after content was removed.
+	 */
+	private static final String[] TABLES = { "ICONS", "RESIZED", "PYRAMID",
+			"RENDITIONS", "CONTENT", "IMAGES" };
+
+	/**
+	 * The number of bytes the database may use.
+	 */
+	private long budget;
+
+	/**
+	 * Create an evictor for the given budget.
+	 * 
+	 * @param budget
+	 *            The number of bytes the database may use.
+	 */
+	public CacheEvictor(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Starts keeping the database within budget on a low priority background
+	 * thread. The budget can be given in megabytes by the system property
+	 * f2b2.cacheBudgetMB.
+	 * 
+	 * @return The future of the work, which can be canceled. (Never null)
+	 */
+	public static Future<?> startInBackground() {
+		long budget = Long.getLong("f2b2.cacheBudgetMB", DEFAULTBUDGETMB)
+				* 1024 * 1024;
+
+		return TaskExecutors.run(TaskExecutors.background(),
+				new CacheEvictor(budget));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+
+		AccessTracker tracker = AccessTracker.getAccessTracker();
+
+		// Check once after starting, then again after each busy period.
+		long checked = -1;
+
+		while (!Thread.currentThread().isInterrupted()) {
+
+			try {
+				Thread.sleep(INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			try {
+				Connection conn = DBManager.getDerbyConnection();
+				conn.setAutoCommit(false);
+
+				tracker.flush(conn);
+				conn.commit();
+
+				long lastAccess = tracker.getLastAccess();
+
+				if (lastAccess != checked
+						&& System.currentTimeMillis() - lastAccess > IDLETIME) {
+					evict(conn);
+					checked = lastAccess;
+				}
+
+				conn.close();
+
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Removes the least recently used content until the database fits in the
+	 * budget and then compresses the tables.
+	 * 
+	 * @param conn
+	 *            A connection to the database. The connection should not be in
+	 *            auto commit mode. (Not null)
+	 * @return The number of content rows that were removed.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public int evict(Connection conn) throws SQLException {
+
+		long used = getDatabaseSize();
+
+		if (used <= budget) {
+			return 0;
+		}
+
+		// Derby only gives space back when the tables are compressed, so the
+		// bytes to free are counted from the removed rows.
+		long toFree = used - (long) (budget * LOWWATERMARK);
+		int removed = 0;
+
+		while (toFree > 0 && !Thread.currentThread().isInterrupted()) {
+
+			List<String> hashes = new ArrayList<String>();
+			List<Long> sizes = new ArrayList<Long>();
+
+			leastRecentlyUsed(conn, hashes, sizes);
+
+			if (hashes.isEmpty()) {
+				break;
+			}
+
+			for (int i = 0; i < hashes.size() && toFree > 0; i++) {
+				DBManager.removeContent(conn, hashes.get(i));
+				toFree -= sizes.get(i);
+				removed++;
+			}
+
+			conn.commit();
+		}
+
+		if (removed > 0) {
+			DBManager.compactThumbnailPack(conn);
+			conn.commit();
+
+			compressTables(conn);
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Finds the least recently used content and the number of bytes stored
+	 * for each. Content that has never been used since it was recorded comes
+	 * first.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param hashes
+	 *            The content hashes found are added here. (Not null)
+	 * @param sizes
+	 *            The number of bytes of each content is added here. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	void leastRecentlyUsed(Connection conn, List<String> hashes,
+			List<Long> sizes) throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT c.contenthash, "
+				+ "COALESCE(LENGTH(i.icon), 0) + COALESCE(LENGTH(r.img), 0) "
+				+ "+ COALESCE((SELECT SUM(LENGTH(p.img)) FROM pyramid p "
+				+ "WHERE p.contenthash = c.contenthash), 0) "
+				+ "+ COALESCE((SELECT SUM(LENGTH(e.img)) FROM renditions e "
+				+ "WHERE e.contenthash = c.contenthash), 0) "
+				+ "FROM content c "
+				+ "LEFT JOIN icons i ON i.contenthash = c.contenthash "
+				+ "LEFT JOIN resized r ON r.contenthash = c.contenthash "
+				+ "ORDER BY c.lastaccessed NULLS FIRST FETCH FIRST "
+				+ BATCHSIZE + " ROWS ONLY");
+
+		try {
+			ResultSet rs = ps.executeQuery();
+
+			try {
+				while (rs.next()) {
+					hashes.add(rs.getString(1));
+					sizes.add(rs.getLong(2));
+				}
+			} finally {
+				rs.close();
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	/**
+	 * Compresses the tables so that the space of removed rows is given back to
+	 * the file system.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	static void compressTables(Connection conn) throws SQLException {
+
+		String schema;
+
+		Statement st = conn.createStatement();
+
+		try {
+			ResultSet rs = st.executeQuery("VALUES CURRENT SCHEMA");
+			rs.next();
+			schema = rs.getString(1);
+			rs.close();
+		} finally {
+			st.close();
+		}
+
+		CallableStatement cs = conn
+				.prepareCall("CALL SYSCS_UTIL.SYSCS_COMPRESS_TABLE(?, ?, 1)");
+
+		try {
+			for (String table : TABLES) {
+				cs.setString(1, schema);
+				cs.setString(2, table);
+				cs.execute();
+				conn.commit();
+			}
+		} finally {
+			cs.close();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes the database uses on disk.
+	 * 
+	 * @return The size of the database directory.
+	 */
+	static long getDatabaseSize() {
+		return sizeOf(new File(DBManager.getDatabaseLocation()));
+	}
+
+	/**
+	 * Returns the combined size of the given file and the files below it.
+	 */
+	private static long sizeOf(File file) {
+
+		File[] files = file.listFiles();
+
+		if (files == null) {
+			return file.length();
+		}
+
+		long result = 0;
+
+		for (File f : files) {
+			result += sizeOf(f);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Computes hashes of file contents so that copies of the same image in
+ * different places on the file system can share the data stored in the
+ * database.
+ *
+ * @author Mark Royer
+ *
+ */
+public class ContentHasher {
+
+	/**
+	 * The number of characters in a hash returned by this class.
+	 */
+	public static final int HASHLENGTH = 64;
+
+	/**
+	 * The largest part of a file that is mapped into memory at once.
+	 */
+	private static final long MAPSIZE = 16 * 1024 * 1024;
+
+	/**
+	 * The maximum number of hashes that are remembered.
+	 */
+	private static final int MAXCACHEDHASHES = 1024;
+
+	/**
+	 * Digits used to print the hash.
+	 */
+	private static final char[] HEXDIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Recently computed hashes keyed by the fully qualified file path. This
+	 * keeps a file from being read again when its hash is needed more than
+	 * once while it is being loaded.
+	 */
+	private static final Map<String, CachedHash> hashes = Collections
+			.synchronizedMap(new LinkedHashMap<String, CachedHash>(16, 0.75f,
+					true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, CachedHash> eldest) {
+					return size() > MAXCACHEDHASHES;
+				}
+			});
+
+	/**
+	 * Returns the SHA-256 hash of the content of the given file.
+	 *
+	 * @param file
+	 *            The file to hash. (Not null)
+	 * @return The hash as a lower case hexadecimal string of
+	 *         {@link #HASHLENGTH} characters. (Never null)
+	 * @throws IOException
+	 *             Thrown if there is a problem reading the file.
+	 */
+	public static String hash(File file) throws IOException {
+
+		String path = file.getAbsolutePath();
+		long modified = file.lastModified();
+		long length = file.length();
+
+		CachedHash cached = hashes.get(path);
+
+		if (cached != null && cached.modified == modified
+				&& cached.length == length) {
+			return cached.hash;
+		}
+
+		String result = computeHash(file);
+
+		hashes.put(path, new CachedHash(result, modified, length));
+
+		return result;
+	}
+
+	/**
+	 * Reads the whole file through memory mapped windows and digests it.
+	 *
+	 * @param file
+	 *            The file to hash. (Not null)
+	 * @return The hash of the file's content. (Never null)
+	 * @throws IOException
+	 *             Thrown if there is a problem reading the file.
+	 */
+	private static String computeHash(File file) throws IOException {
+
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256.
+			throw new IOException(e);
+		}
+
+		FileInputStream in = new FileInputStream(file);
+
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+
+			for (long position = 0; position < size; position += MAPSIZE) {
+				MappedByteBuffer buffer = channel.map(
+						FileChannel.MapMode.READ_ONLY, position,
+						Math.min(MAPSIZE, size - position));
+				digest.update(buffer);
+			}
+		} finally {
+			in.close();
+		}
+
+		byte[] bytes = digest.digest();
+		char[] result = new char[bytes.length * 2];
+
+		for (int i = 0; i < bytes.length; i++) {
+			result[2 * i] = HEXDIGITS[(bytes[i] >> 4) & 0xF];
+			result[2 * i + 1] = HEXDIGITS[bytes[i] & 0xF];
+		}
+
+		return new String(result);
+	}
+
+	/**
+	 * A hash along with the properties of the file it was computed for.
+	 */
+	private static class CachedHash {
+
+		/**
+		 * The hash of the file's content.
+		 */
+		final String hash;
+
+		/**
+		 * Modification date of the file when it was hashed.
+		 */
+		final long modified;
+
+		/**
+		 * Size of the file when it was hashed.
+		 */
+		final long length;
+
+		CachedHash(String hash, long modified, long length) {
+			this.hash = hash;
+			this.modified = modified;
+			this.length = length;
+		}
+	}
+}
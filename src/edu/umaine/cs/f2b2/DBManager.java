@@ -25,10 +25,10 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -36,8 +36,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
-import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 
 /**
@@ -71,6 +74,42 @@ public class DBManager {
 	 */
 	final static String driver = "org.apache.derby.jdbc.EmbeddedDriver";
 
+	/**
+	 * The version of the layout of the database's tables.
+	 */
+	static final int SCHEMAVERSION = 7;
+
+	/**
+	 * How opaque levels of the {@link ThumbnailPyramid} are written. Resized
+	 * images and the images written with each {@link ExportProfile} are made
+	 * from the levels, so the quality matches the best built in profile and
+	 * the color is kept at full resolution.
+	 */
+	static final ImageEncoder.Settings PYRAMIDSETTINGS = new ImageEncoder.Settings(
+			0.92f, false, false, true);
+
+	/**
+	 * The number of paths looked up by each query of
+	 * {@link #getIcons(Connection, Collection, IconHandler)}.
+	 */
+	static final int ICONBATCHSIZE = 500;
+
+	/**
+	 * When true, the stored modification date and size of a file are compared
+	 * to the file on disk each time its data is read from the database. Data
+	 * of files that have changed is removed, so that it is created again. This
+	 * keeps the database correct without having to scan it at start up.
+	 */
+	public static boolean validateOnRead = !"false".equals(System
+			.getProperty("f2b2.validateOnRead"));
+
+	/**
+	 * When true, icons are stored in the memory mapped {@link ThumbnailPack}
+	 * instead of the content table, which then only holds their metadata.
+	 */
+	public static boolean useThumbnailPack = "true".equals(System
+			.getProperty("f2b2.thumbnailPack"));
+
 	/**
 	 * Create a new connection to the Derby database.
 	 * 
@@ -106,6 +145,25 @@ public class DBManager {
 		return DriverManager.getConnection(connectionURL);
 	}
 
+	/**
+	 * Shuts down the Derby database so that its files are no longer in use.
+	 * Connections obtained before the shutdown can no longer be used.
+	 */
+	public static void shutdownDatabase() {
+		try {
+			DriverManager.getConnection("jdbc:derby:" + dbLocation
+					+ ";shutdown=true");
+		} catch (SQLException e) {
+			/*
+			 * Derby always reports a successful shutdown by throwing an
+			 * exception with the state 08006.
+			 */
+			if (!"08006".equals(e.getSQLState())) {
+				e.printStackTrace();
+			}
+		}
+	}
+
 	/**
 	 * If the tables do not exist create them.
 	 * 
@@ -116,30 +174,278 @@ public class DBManager {
 	 */
 	public static void createTables(Connection conn) throws SQLException {
 
-		Statement st1 = conn.createStatement();
-		ResultSet rs = st1.executeQuery("SELECT tablename FROM sys.systables "
-				+ "WHERE tablename='IMAGES'");
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
 
-		if (!rs.next()) {
+		Statement st = conn.createStatement();
+
+		boolean newDatabase = !tableExists(conn, "IMAGES");
+
+		if (!tableExists(conn, "CHECKPOINTS")) {
+
+			/*
+			 * Positions that long running background tasks have reached, so
+			 * that they can continue where they left off.
+			 */
+			st.execute("CREATE TABLE checkpoints "
+					+ "(name VARCHAR(128) PRIMARY KEY, "
+					+ "position VARCHAR(32672) NOT NULL)");
+		}
 
-			Statement st = conn.createStatement();
+		if (!tableExists(conn, "SCHEMA_VERSION")) {
+			st.execute("CREATE TABLE schema_version "
+					+ "(version INTEGER NOT NULL)");
 
 			/*
-			 * The database is really simple. Just one table containing a path
-			 * to the original file, when it was last modified, its width and
-			 * height, byte code for the icon, and byte code for the smaller
-			 * image.
+			 * Databases with an images table but no version are version 1,
+			 * or version 0 if the icons are still kept in the images table
+			 * itself.
 			 */
-			st.execute("CREATE TABLE images "
-					+ "(imgpath VARCHAR(32672) PRIMARY KEY, "
-					+ "moddate TIMESTAMP NOT NULL, "
-					+ "originalWidth INTEGER NOT NULL, "
-					+ "originalHeight INTEGER NOT NULL,"
-					+ "icon BLOB(100K) NOT NULL, img BLOB(1M))");
+			int version = SCHEMAVERSION;
+
+			if (!newDatabase) {
+				version = columnExists(conn, "IMAGES", "CONTENTHASH") ? 1 : 0;
+			}
+
+			st.execute("INSERT INTO schema_version VALUES (" + version + ")");
+		}
+
+		if (newDatabase) {
 
+			createImageTables(st);
+			createBlobTables(st);
+			createPyramidTable(st);
+			createRenditionsTable(st);
+			createProjectTables(st);
+
+		} else {
+
+			// The rows are brought over later by the SchemaMigrator.
+			SchemaMigrator.alterTables(conn);
 		}
 
+		st.close();
+
+		conn.commit();
+		conn.setAutoCommit(autoCommit);
+	}
+
+	/**
+	 * Creates the table mapping the paths of image files to the hash of their
+	 * content, and the table holding the metadata of each content.
+	 * 
+	 * @param st
+	 *            A statement of the database connection. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	static void createImageTables(Statement st) throws SQLException {
+
+		/*
+		 * Maps the path to an original file, and when it was last modified,
+		 * to the hash of its content. Copies of the same image share a single
+		 * entry in the content table.
+		 */
+		st.execute("CREATE TABLE images "
+				+ "(imgpath VARCHAR(32672) PRIMARY KEY, "
+				+ "moddate TIMESTAMP NOT NULL, filesize BIGINT, "
+				+ "contenthash CHAR(64) NOT NULL)");
+		st.execute("CREATE INDEX images_contenthash "
+				+ "ON images (contenthash)");
+
+		/*
+		 * The metadata of an image's content, its width and height. The large
+		 * icon and resized image are kept in their own tables so that they
+		 * are only read when they are needed.
+		 */
+		st.execute("CREATE TABLE content "
+				+ "(contenthash CHAR(64) PRIMARY KEY, "
+				+ "originalWidth INTEGER NOT NULL, "
+				+ "originalHeight INTEGER NOT NULL, "
+				+ "lastaccessed TIMESTAMP)");
+		createLastAccessedIndex(st);
+	}
+
+	/**
+	 * Creates the tables holding the byte code of the icons and of the
+	 * smaller images, keyed by the hash of the content they were created
+	 * from.
+	 * 
+	 * @param st
+	 *            A statement of the database connection. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	static void createBlobTables(Statement st) throws SQLException {
+		st.execute("CREATE TABLE icons "
+				+ "(contenthash CHAR(64) PRIMARY KEY, "
+				+ "icon BLOB(100K) NOT NULL)");
+		st.execute("CREATE TABLE resized "
+				+ "(contenthash CHAR(64) PRIMARY KEY, "
+				+ "img BLOB(1M) NOT NULL)");
+	}
+
+	/**
+	 * Creates the table holding the levels of each content's
+	 * {@link ThumbnailPyramid}.
+	 * 
+	 * @param st
+	 *            A statement of the database connection. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	static void createPyramidTable(Statement st) throws SQLException {
+		st.execute("CREATE TABLE pyramid "
+				+ "(contenthash CHAR(64) NOT NULL, level INTEGER NOT NULL, "
+				+ "img BLOB(16M) NOT NULL, PRIMARY KEY (contenthash, level))");
+	}
+
+	/**
+	 * Creates the table holding images written with an {@link ExportProfile}.
+	 * 
+	 * @param st
+	 *            A statement of the database connection. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	static void createRenditionsTable(Statement st) throws SQLException {
+		st.execute("CREATE TABLE renditions "
+				+ "(contenthash CHAR(64) NOT NULL, "
+				+ "profile VARCHAR(255) NOT NULL, rotation INTEGER NOT NULL, "
+				+ "img BLOB(16M) NOT NULL, "
+				+ "PRIMARY KEY (contenthash, profile, rotation))");
+	}
+
+	/**
+	 * Creates the tables holding saved lists of images. A project remembers
+	 * the export profile it was zipped with, and for each image in its list
+	 * its position, zip file name and rotation.
+	 * 
+	 * @param st
+	 *            A statement of the database connection. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	static void createProjectTables(Statement st) throws SQLException {
+		st.execute("CREATE TABLE projects "
+				+ "(name VARCHAR(255) PRIMARY KEY, profile VARCHAR(255), "
+				+ "saved TIMESTAMP NOT NULL)");
+		st.execute("CREATE TABLE project_items "
+				+ "(project VARCHAR(255) NOT NULL, "
+				+ "position INTEGER NOT NULL, "
+				+ "imgpath VARCHAR(32672) NOT NULL, "
+				+ "zipname VARCHAR(32672) NOT NULL, "
+				+ "rotation INTEGER NOT NULL, "
+				+ "PRIMARY KEY (project, position))");
+	}
+
+	/**
+	 * Creates the index used to find the least recently used content.
+	 * 
+	 * @param st
+	 *            A statement of the database connection. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	static void createLastAccessedIndex(Statement st) throws SQLException {
+		st.execute("CREATE INDEX content_lastaccessed "
+				+ "ON content (lastaccessed)");
+	}
+
+	/**
+	 * Returns the version of the layout of the database.
+	 * 
+	 * @param conn
+	 *            The connection to the database. (Not null)
+	 * @return The version or 0 if it hasn't been recorded.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static int getSchemaVersion(Connection conn) throws SQLException {
+
+		Statement st = conn.createStatement();
+		ResultSet rs = st.executeQuery("SELECT version FROM schema_version");
+
+		int result = rs.next() ? rs.getInt(1) : 0;
+
+		rs.close();
+		st.close();
+
+		return result;
+	}
+
+	/**
+	 * Records the version of the layout of the database.
+	 * 
+	 * @param conn
+	 *            The connection to the database. (Not null)
+	 * @param version
+	 *            The version of the layout.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	static void setSchemaVersion(Connection conn, int version)
+			throws SQLException {
+
+		PreparedStatement ps = conn
+				.prepareStatement("UPDATE schema_version SET version = ?");
+		ps.setInt(1, version);
+		ps.executeUpdate();
+	}
+
+	/**
+	 * Returns true iff a table with the given name exists.
+	 * 
+	 * @param conn
+	 *            The connection to the database. (Not null)
+	 * @param tableName
+	 *            The name of the table in upper case. (Not null)
+	 * @return true iff the table exists.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	static boolean tableExists(Connection conn, String tableName)
+			throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT tablename "
+				+ "FROM sys.systables WHERE tablename = ?");
+		ps.setString(1, tableName);
+
+		ResultSet rs = ps.executeQuery();
+		boolean result = rs.next();
+		rs.close();
+
+		return result;
+	}
+
+	/**
+	 * Returns true iff the given table has a column with the given name.
+	 * 
+	 * @param conn
+	 *            The connection to the database. (Not null)
+	 * @param tableName
+	 *            The name of the table in upper case. (Not null)
+	 * @param columnName
+	 *            The name of the column in upper case. (Not null)
+	 * @return true iff the column exists.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	static boolean columnExists(Connection conn, String tableName,
+			String columnName) throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT c.columnname "
+				+ "FROM sys.syscolumns c, sys.systables t "
+				+ "WHERE c.referenceid = t.tableid AND t.tablename = ? "
+				+ "AND c.columnname = ?");
+		ps.setString(1, tableName);
+		ps.setString(2, columnName);
+
+		ResultSet rs = ps.executeQuery();
+		boolean result = rs.next();
 		rs.close();
+
+		return result;
 	}
 
 	/**
@@ -166,35 +472,41 @@ public class DBManager {
 			Timestamp moddate, ImageIcon icon, int originalWidth,
 			int originalHeight) throws SQLException {
 
-		boolean exists = fileIsInDB(conn, filePath);
+		String hash = hashFile(filePath);
 
-		PreparedStatement ps;
+		mapPathToContent(conn, filePath, moddate, hash);
 
-		if (exists) {
-			ps = conn
-					.prepareStatement("UPDATE images SET icon=?,moddate=?,"
-							+ "originalWidth=?,originalHeight=? "
-							+ "WHERE imgpath = ?");
+		saveContent(conn, hash, originalWidth, originalHeight);
 
-		} else {
-			ps = conn.prepareStatement("INSERT INTO images "
-					+ "(icon,moddate,originalWidth, originalHeight,imgpath) "
-					+ "VALUES (?,?,?,?,?)");
-		}
+		saveIcon(conn, hash, icon);
+	}
 
-		ps.setTimestamp(2, moddate);
-		ps.setInt(3, originalWidth);
-		ps.setInt(4, originalHeight);
-		ps.setString(5, filePath);
+	/**
+	 * Saves the icon of the content with the given hash in the thumbnail pack
+	 * or in the icons table.
+	 * 
+	 * @param conn
+	 *            The database connection. (Not null)
+	 * @param hash
+	 *            The hash of the image's content. (Not null)
+	 * @param icon
+	 *            The icon that will be saved. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem saving the icon.
+	 */
+	private static void saveIcon(Connection conn, String hash, ImageIcon icon)
+			throws SQLException {
 
 		try {
 
-			ByteArrayInputStream bin = toByteArrayInputStream(icon);
-			ps.setBinaryStream(1, bin);
-
-			ps.executeUpdate();
+			if (useThumbnailPack) {
+				ThumbnailPack.getThumbnailPack().put(hash, icon);
+			} else {
+				saveBlob(conn, "icons", "icon", hash,
+						toByteArrayInputStream(icon));
+			}
 
-		} catch (Exception e) {
+		} catch (IOException e) {
 			throw new SQLException(e);
 		}
 	}
@@ -215,33 +527,167 @@ public class DBManager {
 	public static ImageIcon getIcon(Connection conn, String filePath)
 			throws SQLException {
 
-		PreparedStatement ps = conn.prepareStatement("SELECT icon FROM images "
-				+ "WHERE imgpath = ?");
+		String hash = getCurrentContentHash(conn, filePath);
 
-		ps.setString(1, filePath);
+		if (hash == null) {
+			return null;
+		}
 
 		try {
 
-			ResultSet rs = ps.executeQuery();
+			ImageIcon result = null;
+
+			if (useThumbnailPack) {
+				result = ThumbnailPack.getThumbnailPack().get(hash);
+			}
 
-			if (rs.next()) {
+			// Icons stored before the pack was used are still in the icons
+			// table.
+			if (result == null) {
+				PreparedStatement ps = conn.prepareStatement("SELECT icon "
+						+ "FROM icons WHERE contenthash = ?");
+				ps.setString(1, hash);
 
-				ObjectInputStream os = new ObjectInputStream(
-						rs.getBinaryStream("icon"));
+				ResultSet rs = ps.executeQuery();
 
-				ImageIcon result = (ImageIcon) os.readObject();
+				if (rs.next()) {
+					ObjectInputStream os = new ObjectInputStream(
+							rs.getBinaryStream(1));
+					result = (ImageIcon) os.readObject();
+				}
 
 				rs.close();
+			}
 
-				return result;
+			if (result != null) {
+				AccessTracker.getAccessTracker().touch(hash);
 			}
 
+			return result;
+
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new SQLException(e);
 		}
+	}
+
+	/**
+	 * Receives the icons read by {@link DBManager#getIcons}.
+	 */
+	public interface IconHandler {
+
+		/**
+		 * Called for each image whose icon is in the database.
+		 * 
+		 * @param filePath
+		 *            The fully qualified path to the image file. (Not null)
+		 * @param icon
+		 *            The icon of the image. (Not null)
+		 * @param originalWidth
+		 *            The original width of the image in pixels.
+		 * @param originalHeight
+		 *            The original height of the image in pixels.
+		 */
+		void iconLoaded(String filePath, ImageIcon icon, int originalWidth,
+				int originalHeight);
+	}
+
+	/**
+	 * Reads the icons and original dimensions of many images at once. The
+	 * paths are looked up {@link #ICONBATCHSIZE} at a time, each group with
+	 * a single query, and every icon that is found is given to the handler as
+	 * soon as it is read. Images that aren't in the database, or whose files
+	 * have changed, are skipped; the data of changed files is removed.
+	 * 
+	 * @param conn
+	 *            The connection to the database. (Not null)
+	 * @param filePaths
+	 *            Fully qualified paths to the image files. (Not null)
+	 * @param handler
+	 *            Receives the icons that are found. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static void getIcons(Connection conn, Collection<String> filePaths,
+			IconHandler handler) throws SQLException {
+
+		List<String> paths = new ArrayList<String>(filePaths);
+
+		for (int start = 0; start < paths.size(); start += ICONBATCHSIZE) {
+
+			List<String> group = paths.subList(start,
+					Math.min(start + ICONBATCHSIZE, paths.size()));
+
+			StringBuilder sql = new StringBuilder("SELECT i.imgpath, "
+					+ "i.moddate, i.filesize, i.contenthash, "
+					+ "c.originalWidth, c.originalHeight, ic.icon "
+					+ "FROM images i "
+					+ "JOIN content c ON c.contenthash = i.contenthash "
+					+ "LEFT JOIN icons ic ON ic.contenthash = i.contenthash "
+					+ "WHERE i.imgpath IN (?");
+
+			for (int i = 1; i < group.size(); i++) {
+				sql.append(",?");
+			}
+			sql.append(")");
+
+			PreparedStatement ps = conn.prepareStatement(sql.toString());
+
+			for (int i = 0; i < group.size(); i++) {
+				ps.setString(i + 1, group.get(i));
+			}
+
+			ResultSet rs = ps.executeQuery();
+
+			// Removed after the rows are read, which needs the result set
+			// to be closed.
+			List<String> changed = new ArrayList<String>();
+
+			try {
+				while (rs.next()) {
+
+					String filePath = rs.getString(1);
+
+					if (!matchesFile(filePath, rs)) {
+						changed.add(filePath);
+						continue;
+					}
+
+					String hash = rs.getString(4);
+					ImageIcon icon = null;
+
+					if (useThumbnailPack) {
+						icon = ThumbnailPack.getThumbnailPack().get(hash);
+					}
+
+					if (icon == null) {
+						InputStream in = rs.getBinaryStream(7);
+
+						if (in != null) {
+							icon = (ImageIcon) new ObjectInputStream(in)
+									.readObject();
+						}
+					}
+
+					if (icon != null) {
+						AccessTracker.getAccessTracker().touch(hash);
+						handler.iconLoaded(filePath, icon, rs.getInt(5),
+								rs.getInt(6));
+					}
+				}
+			} catch (IOException e) {
+				throw new SQLException(e);
+			} catch (ClassNotFoundException e) {
+				throw new SQLException(e);
+			} finally {
+				rs.close();
+				ps.close();
+			}
 
-		return null;
+			for (String filePath : changed) {
+				removeImageFile(conn, filePath);
+			}
+		}
 	}
 
 	/**
@@ -272,47 +718,22 @@ public class DBManager {
 			BufferedImage image, int originalWidth, int originalHeight)
 			throws SQLException {
 
-		boolean exists = fileIsInDB(conn, filePath);
-
-		PreparedStatement ps;
-
-		try {
-
-			if (exists) {
-				ps = conn.prepareStatement("UPDATE images SET "
-						+ "img=?,moddate=?,originalWidth=?,originalHeight=? "
-						+ "WHERE imgpath = ?");
+		String hash = hashFile(filePath);
 
-				ByteArrayInputStream bin = toByteArrayInputStream(image,
-						extension);
-				ps.setBinaryStream(1, bin);
-				ps.setTimestamp(2, moddate);
-				ps.setInt(3, originalWidth);
-				ps.setInt(4, originalHeight);
-				ps.setString(5, filePath);
+		boolean newContent = !contentIsInDB(conn, hash);
 
-				ps.executeUpdate();
-
-			} else {
-				ps = conn.prepareStatement("INSERT INTO images "
-						+ "(imgpath,moddate,originalWidth,"
-						+ "originalHeight,icon,img) " + "VALUES (?,?,?,?,?,?)");
-
-				ps.setString(1, filePath);
-				ps.setTimestamp(2, moddate);
-				ps.setInt(3, originalWidth);
-				ps.setInt(4, originalHeight);
+		mapPathToContent(conn, filePath, moddate, hash);
 
-				ByteArrayInputStream bin = toByteArrayInputStream(icon);
-				ps.setBinaryStream(5, bin);
+		saveContent(conn, hash, originalWidth, originalHeight);
 
-				ByteArrayInputStream bin2 = toByteArrayInputStream(image,
-						extension);
-				ps.setBinaryStream(6, bin2);
+		if (newContent) {
+			saveIcon(conn, hash, icon);
+		}
 
-				ps.executeUpdate();
+		try {
 
-			}
+			saveBlob(conn, "resized", "img", hash,
+					toByteArrayInputStream(image, extension));
 
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -337,60 +758,270 @@ public class DBManager {
 	public static BufferedImage getResizedImage(Connection conn, String filePath)
 			throws SQLException {
 
-		PreparedStatement ps = conn.prepareStatement("SELECT img FROM images "
-				+ "WHERE imgpath = ?");
+		String hash = getCurrentContentHash(conn, filePath);
 
-		ps.setString(1, filePath);
+		if (hash == null) {
+			return null;
+		}
 
-		ResultSet rs = null;
+		PreparedStatement ps = conn.prepareStatement("SELECT img "
+				+ "FROM resized WHERE contenthash = ?");
 
-		try {
+		ps.setString(1, hash);
 
-			rs = ps.executeQuery();
+		ResultSet rs = ps.executeQuery();
 
-			// There should be only 1 unique result for the resized image.
-			if (rs.next()) {
+		try {
 
-				BufferedImage result = ImageIO.read(rs.getBinaryStream("img"));
+			// There should be only 1 unique result for the resized image.
+			if (!rs.next()) {
+				return null;
+			}
 
-				rs.close();
+			AccessTracker.getAccessTracker().touch(hash);
 
-				return result;
-			}
+			return ImageDecoder.read(rs.getBinaryStream(1));
 
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw new SQLException(e);
-		}
-
-		if (rs != null) {
+		} finally {
 			rs.close();
 		}
-
-		return null;
 	}
 
 	/**
-	 * Creates and writes the serializable object to the returned stream.
+	 * Saves the levels of the {@link ThumbnailPyramid} of the given file.
+	 * Opaque levels are written as JPEG with {@link #PYRAMIDSETTINGS}; levels
+	 * with transparency are written as PNG.
 	 * 
-	 * @param obj
-	 *            A serializable object to be written to the stream. (Not null)
-	 * @return A ByteArrayInputStream that the given object has been written to.
-	 *         (Never null)
-	 * @throws IOException
-	 *             Thrown if there is a problem writing the serializable object
-	 *             to the stream.
+	 * @param conn
+	 *            The connection to the database. (Not null)
+	 * @param filePath
+	 *            The fully qualified path to the image file. (Not null)
+	 * @param moddate
+	 *            The last time the image file was modified. (Not null)
+	 * @param levels
+	 *            The image at each level. (Not null)
+	 * @param originalWidth
+	 *            The width of the unmodified image.
+	 * @param originalHeight
+	 *            The height of the unmodified image.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
 	 */
-	private static ByteArrayInputStream toByteArrayInputStream(Serializable obj)
-			throws IOException {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		ObjectOutputStream os = new ObjectOutputStream(bos);
+	public static void savePyramid(Connection conn, String filePath,
+			Timestamp moddate, Map<Integer, BufferedImage> levels,
+			int originalWidth, int originalHeight) throws SQLException {
 
-		os.writeObject(obj);
+		String hash = hashFile(filePath);
 
-		ByteArrayInputStream bin = new ByteArrayInputStream(bos.toByteArray());
-		return bin;
-	}
+		mapPathToContent(conn, filePath, moddate, hash);
+
+		saveContent(conn, hash, originalWidth, originalHeight);
+
+		PreparedStatement ps = conn
+				.prepareStatement("DELETE FROM pyramid WHERE contenthash = ?");
+		ps.setString(1, hash);
+		ps.executeUpdate();
+
+		ps = conn.prepareStatement("INSERT INTO pyramid "
+				+ "(contenthash, level, img) VALUES (?,?,?)");
+
+		try {
+
+			for (Map.Entry<Integer, BufferedImage> level : levels.entrySet()) {
+
+				BufferedImage image = level.getValue();
+
+				String format = image.getColorModel().hasAlpha() ? "png"
+						: "jpg";
+
+				ps.setString(1, hash);
+				ps.setInt(2, level.getKey());
+				ps.setBinaryStream(3, new ByteArrayInputStream(ImageEncoder
+						.encode(image, format, PYRAMIDSETTINGS)));
+
+				ps.executeUpdate();
+			}
+
+		} catch (IOException e) {
+			throw new SQLException(e);
+		}
+	}
+
+	/**
+	 * Returns the smallest stored level of the given file's
+	 * {@link ThumbnailPyramid} that is at least the given size.
+	 * 
+	 * @param conn
+	 *            The connection to the database. (Not null)
+	 * @param filePath
+	 *            The fully qualified path to the image file. (Not null)
+	 * @param level
+	 *            The smallest level that will do.
+	 * @param reuseBuffer
+	 *            True iff the image may be decoded into the thread's buffer
+	 *            (see {@link ImageDecoder#readInto(InputStream)}), because it
+	 *            is only needed until the next image is read.
+	 * @return The image at the level or null if the pyramid isn't stored.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static BufferedImage getPyramidLevel(Connection conn,
+			String filePath, int level, boolean reuseBuffer)
+			throws SQLException {
+
+		String hash = getCurrentContentHash(conn, filePath);
+
+		if (hash == null) {
+			return null;
+		}
+
+		PreparedStatement ps = conn.prepareStatement("SELECT img "
+				+ "FROM pyramid WHERE contenthash = ? AND level >= ? "
+				+ "ORDER BY level FETCH FIRST 1 ROWS ONLY");
+		ps.setString(1, hash);
+		ps.setInt(2, level);
+
+		ResultSet rs = ps.executeQuery();
+
+		try {
+
+			if (!rs.next()) {
+				return null;
+			}
+
+			AccessTracker.getAccessTracker().touch(hash);
+
+			InputStream in = rs.getBinaryStream(1);
+
+			return reuseBuffer ? ImageDecoder.readInto(in) : ImageDecoder
+					.read(in);
+
+		} catch (IOException e) {
+			throw new SQLException(e);
+		} finally {
+			rs.close();
+		}
+	}
+
+	/**
+	 * Saves an image of the given file written with an {@link ExportProfile}.
+	 * 
+	 * @param conn
+	 *            The connection to the database. (Not null)
+	 * @param filePath
+	 *            The fully qualified path to the image file. (Not null)
+	 * @param moddate
+	 *            The last time the image file was modified. (Not null)
+	 * @param profile
+	 *            The cache key of the profile. (Not null)
+	 * @param rotation
+	 *            The number of degrees the image was rotated.
+	 * @param data
+	 *            The bytes of the written image. (Not null)
+	 * @param originalWidth
+	 *            The width of the unmodified image.
+	 * @param originalHeight
+	 *            The height of the unmodified image.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static void saveRendition(Connection conn, String filePath,
+			Timestamp moddate, String profile, int rotation, byte[] data,
+			int originalWidth, int originalHeight) throws SQLException {
+
+		String hash = hashFile(filePath);
+
+		mapPathToContent(conn, filePath, moddate, hash);
+
+		saveContent(conn, hash, originalWidth, originalHeight);
+
+		PreparedStatement ps = conn.prepareStatement("DELETE FROM renditions "
+				+ "WHERE contenthash = ? AND profile = ? AND rotation = ?");
+		ps.setString(1, hash);
+		ps.setString(2, profile);
+		ps.setInt(3, rotation);
+		ps.executeUpdate();
+
+		ps = conn.prepareStatement("INSERT INTO renditions "
+				+ "(contenthash, profile, rotation, img) VALUES (?,?,?,?)");
+		ps.setString(1, hash);
+		ps.setString(2, profile);
+		ps.setInt(3, rotation);
+		ps.setBytes(4, data);
+
+		ps.executeUpdate();
+	}
+
+	/**
+	 * Returns the image of the given file written with an
+	 * {@link ExportProfile}.
+	 * 
+	 * @param conn
+	 *            The connection to the database. (Not null)
+	 * @param filePath
+	 *            The fully qualified path to the image file. (Not null)
+	 * @param profile
+	 *            The cache key of the profile. (Not null)
+	 * @param rotation
+	 *            The number of degrees the image was rotated.
+	 * @return The bytes of the written image or null if it isn't stored.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static byte[] getRendition(Connection conn, String filePath,
+			String profile, int rotation) throws SQLException {
+
+		String hash = getCurrentContentHash(conn, filePath);
+
+		if (hash == null) {
+			return null;
+		}
+
+		PreparedStatement ps = conn.prepareStatement("SELECT img "
+				+ "FROM renditions WHERE contenthash = ? AND profile = ? "
+				+ "AND rotation = ?");
+		ps.setString(1, hash);
+		ps.setString(2, profile);
+		ps.setInt(3, rotation);
+
+		ResultSet rs = ps.executeQuery();
+
+		byte[] result = null;
+
+		if (rs.next()) {
+			result = rs.getBytes(1);
+			AccessTracker.getAccessTracker().touch(hash);
+		}
+
+		rs.close();
+
+		return result;
+	}
+
+	/**
+	 * Creates and writes the serializable object to the returned stream.
+	 * 
+	 * @param obj
+	 *            A serializable object to be written to the stream. (Not null)
+	 * @return A ByteArrayInputStream that the given object has been written to.
+	 *         (Never null)
+	 * @throws IOException
+	 *             Thrown if there is a problem writing the serializable object
+	 *             to the stream.
+	 */
+	private static ByteArrayInputStream toByteArrayInputStream(Serializable obj)
+			throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream os = new ObjectOutputStream(bos);
+
+		os.writeObject(obj);
+
+		ByteArrayInputStream bin = new ByteArrayInputStream(bos.toByteArray());
+		return bin;
+	}
 
 	/**
 	 * Creates and writes the given image to the returned input stream.
@@ -405,11 +1036,8 @@ public class DBManager {
 	 */
 	private static ByteArrayInputStream toByteArrayInputStream(
 			RenderedImage image, String extension) throws IOException {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-		ImageIO.write(image, extension, bos);
-
-		return new ByteArrayInputStream(bos.toByteArray());
+		return new ByteArrayInputStream(ImageEncoder.encode(image, extension,
+				ImageEncoder.DEFAULT));
 	}
 
 	/**
@@ -426,18 +1054,18 @@ public class DBManager {
 	public static boolean fileIsInDB(Connection conn, String filePath)
 			throws SQLException {
 
-		PreparedStatement ps = conn.prepareStatement("SELECT COUNT(imgpath) "
-				+ "FROM images WHERE imgpath = ?");
+		PreparedStatement ps = conn.prepareStatement("SELECT moddate, "
+				+ "filesize FROM images WHERE imgpath = ?");
 		ps.setString(1, filePath);
 
 		ResultSet rs = ps.executeQuery();
 
 		if (rs.next()) {
 
-			int result = rs.getInt(1);
+			boolean result = isCurrent(conn, filePath, rs);
 			rs.close();
 
-			return result == 1;
+			return result;
 		} else {
 
 			rs.close();
@@ -458,7 +1086,22 @@ public class DBManager {
 		Statement st = conn.createStatement();
 
 		st.execute("DROP TABLE images");
+		st.execute("DROP TABLE content");
+		st.execute("DROP TABLE icons");
+		st.execute("DROP TABLE resized");
+		st.execute("DROP TABLE pyramid");
+		st.execute("DROP TABLE renditions");
+		st.execute("DROP TABLE project_items");
+		st.execute("DROP TABLE projects");
+		st.execute("DROP TABLE checkpoints");
+		st.execute("DROP TABLE schema_version");
+
+		// Left behind if the database was never fully migrated.
+		if (tableExists(conn, SchemaMigrator.ShareContent.OLDIMAGES)) {
+			st.execute("DROP TABLE " + SchemaMigrator.ShareContent.OLDIMAGES);
+		}
 
+		st.close();
 	}
 
 	/**
@@ -477,24 +1120,22 @@ public class DBManager {
 	public static boolean resizedImageIsInDB(Connection conn, String filePath)
 			throws SQLException {
 
-		PreparedStatement ps = conn.prepareStatement("SELECT img "
-				+ "FROM images WHERE imgpath = ?");
-		ps.setString(1, filePath);
-
-		ResultSet rs = ps.executeQuery();
-
-		if (rs.next()) {
-
-			Blob result = rs.getBlob(1);
-			rs.close();
-
-			return result != null;
-		} else {
-			rs.close();
+		String hash = getCurrentContentHash(conn, filePath);
 
+		if (hash == null) {
 			return false;
 		}
 
+		// Only the key is selected so that the image itself isn't read.
+		PreparedStatement ps = conn.prepareStatement("SELECT contenthash "
+				+ "FROM resized WHERE contenthash = ?");
+		ps.setString(1, hash);
+
+		ResultSet rs = ps.executeQuery();
+		boolean result = rs.next();
+		rs.close();
+
+		return result;
 	}
 
 	/**
@@ -510,12 +1151,18 @@ public class DBManager {
 	public static void removeImageFile(Connection conn, String filePath)
 			throws SQLException {
 
+		String hash = getContentHash(conn, filePath);
+
 		PreparedStatement ps = conn
 				.prepareStatement("DELETE FROM images WHERE imgpath = ?");
 
 		ps.setString(1, filePath);
 
 		ps.executeUpdate();
+
+		if (hash != null) {
+			removeOrphanedContent(conn, hash);
+		}
 	}
 
 	/**
@@ -533,8 +1180,9 @@ public class DBManager {
 			String absolutePath) throws SQLException {
 
 		PreparedStatement ps = conn.prepareStatement("SELECT "
-				+ "originalWidth, originalHeight "
-				+ "FROM images WHERE imgpath = ?");
+				+ "c.originalWidth, c.originalHeight "
+				+ "FROM images i JOIN content c "
+				+ "ON i.contenthash = c.contenthash WHERE i.imgpath = ?");
 
 		ps.setString(1, absolutePath);
 
@@ -551,6 +1199,705 @@ public class DBManager {
 		return result;
 	}
 
+	/**
+	 * Maps the given file path to existing content in the database if another
+	 * file with the same content has already been stored. This allows copies
+	 * of an image to reuse the icon and resized image of the original.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param filePath
+	 *            A fully qualified path to the image file. (Not null)
+	 * @param moddate
+	 *            The last time the image file was modified. (Not null)
+	 * @return true iff content for the file was found and the path now refers
+	 *         to it.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database or reading
+	 *             the file.
+	 */
+	public static boolean linkToExistingContent(Connection conn,
+			String filePath, Timestamp moddate) throws SQLException {
+
+		String hash = hashFile(filePath);
+
+		if (!contentIsInDB(conn, hash)) {
+			return false;
+		}
+
+		mapPathToContent(conn, filePath, moddate, hash);
+
+		return true;
+	}
+
+	/**
+	 * Returns the hash of the content that the given file path refers to.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param filePath
+	 *            A fully qualified path to the image file. (Not null)
+	 * @return The content hash or null if the path is not in the database.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static String getContentHash(Connection conn, String filePath)
+			throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT contenthash "
+				+ "FROM images WHERE imgpath = ?");
+		ps.setString(1, filePath);
+
+		ResultSet rs = ps.executeQuery();
+
+		String result = null;
+
+		if (rs.next()) {
+			result = rs.getString(1);
+		}
+
+		rs.close();
+
+		return result;
+	}
+
+	/**
+	 * Checks the modification date and size in the current row of the given
+	 * result set against the file on disk. If the file has changed, the result
+	 * set is closed and the file's data is removed from the database. Nothing
+	 * is checked unless {@link #validateOnRead} is set.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param filePath
+	 *            A fully qualified path to the image file. (Not null)
+	 * @param rs
+	 *            A result set positioned on a row with moddate and filesize
+	 *            columns for the file. (Not null)
+	 * @return true iff the stored data still matches the file.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	private static boolean isCurrent(Connection conn, String filePath,
+			ResultSet rs) throws SQLException {
+
+		if (matchesFile(filePath, rs)) {
+			return true;
+		}
+
+		rs.close();
+
+		removeImageFile(conn, filePath);
+
+		return false;
+	}
+
+	/**
+	 * Returns true iff the modification date and size in the current row of
+	 * the given result set match the file on disk, or if nothing is checked
+	 * because {@link #validateOnRead} isn't set.
+	 * 
+	 * @param filePath
+	 *            A fully qualified path to the image file. (Not null)
+	 * @param rs
+	 *            A result set positioned on a row with moddate and filesize
+	 *            columns for the file. (Not null)
+	 * @return true iff the stored data still matches the file.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	private static boolean matchesFile(String filePath, ResultSet rs)
+			throws SQLException {
+
+		if (!validateOnRead) {
+			return true;
+		}
+
+		File file = new File(filePath);
+
+		long filesize = rs.getLong("filesize");
+		boolean sizeKnown = !rs.wasNull();
+
+		return rs.getTimestamp("moddate").getTime() == file.lastModified()
+				&& (!sizeKnown || filesize == file.length());
+	}
+
+	/**
+	 * Returns the modification date stored for the given file path.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param filePath
+	 *            A fully qualified path to the image file. (Not null)
+	 * @return The modification date of the file when it was stored or null if
+	 *         the path is not in the database.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static Timestamp getModificationDate(Connection conn,
+			String filePath) throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT moddate "
+				+ "FROM images WHERE imgpath = ?");
+		ps.setString(1, filePath);
+
+		ResultSet rs = ps.executeQuery();
+
+		Timestamp result = null;
+
+		if (rs.next()) {
+			result = rs.getTimestamp(1);
+		}
+
+		rs.close();
+
+		return result;
+	}
+
+	/**
+	 * Returns true iff there is content with the given hash in the database.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param hash
+	 *            The hash of an image's content. (Not null)
+	 * @return true iff the content is in the database.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	private static boolean contentIsInDB(Connection conn, String hash)
+			throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT contenthash "
+				+ "FROM content WHERE contenthash = ?");
+		ps.setString(1, hash);
+
+		ResultSet rs = ps.executeQuery();
+		boolean result = rs.next();
+		rs.close();
+
+		return result;
+	}
+
+	/**
+	 * Makes the given file path refer to the content with the given hash. If
+	 * the path referred to different content before, that content is removed
+	 * when no other path refers to it.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param filePath
+	 *            A fully qualified path to the image file. (Not null)
+	 * @param moddate
+	 *            The last time the image file was modified. (Not null)
+	 * @param hash
+	 *            The hash of the file's content. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	private static void mapPathToContent(Connection conn, String filePath,
+			Timestamp moddate, String hash) throws SQLException {
+
+		String oldHash = getContentHash(conn, filePath);
+
+		PreparedStatement ps;
+
+		if (oldHash != null) {
+			ps = conn.prepareStatement("UPDATE images SET moddate=?,"
+					+ "filesize=?,contenthash=? WHERE imgpath = ?");
+		} else {
+			ps = conn.prepareStatement("INSERT INTO images "
+					+ "(moddate,filesize,contenthash,imgpath) "
+					+ "VALUES (?,?,?,?)");
+		}
+
+		ps.setTimestamp(1, moddate);
+		ps.setLong(2, new File(filePath).length());
+		ps.setString(3, hash);
+		ps.setString(4, filePath);
+
+		ps.executeUpdate();
+
+		if (oldHash != null && !oldHash.equals(hash)) {
+			removeOrphanedContent(conn, oldHash);
+		}
+	}
+
+	/**
+	 * Returns the hash of the content that the given file path refers to if
+	 * the stored data still matches the file.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param filePath
+	 *            A fully qualified path to the image file. (Not null)
+	 * @return The content hash or null if the path is not in the database or
+	 *         the file has changed.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	private static String getCurrentContentHash(Connection conn,
+			String filePath) throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT contenthash, "
+				+ "moddate, filesize FROM images WHERE imgpath = ?");
+		ps.setString(1, filePath);
+
+		ResultSet rs = ps.executeQuery();
+
+		String result = null;
+
+		if (rs.next() && isCurrent(conn, filePath, rs)) {
+			result = rs.getString(1);
+		}
+
+		rs.close();
+
+		return result;
+	}
+
+	/**
+	 * Saves the original dimensions of the content with the given hash.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param hash
+	 *            The hash of the image's content. (Not null)
+	 * @param originalWidth
+	 *            The original width of the image in pixels.
+	 * @param originalHeight
+	 *            The original height of the image in pixels.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	private static void saveContent(Connection conn, String hash,
+			int originalWidth, int originalHeight) throws SQLException {
+
+		PreparedStatement ps;
+
+		if (contentIsInDB(conn, hash)) {
+			ps = conn.prepareStatement("UPDATE content SET "
+					+ "originalWidth=?,originalHeight=? "
+					+ "WHERE contenthash = ?");
+		} else {
+			ps = conn.prepareStatement("INSERT INTO content "
+					+ "(originalWidth,originalHeight,contenthash) "
+					+ "VALUES (?,?,?)");
+		}
+
+		ps.setInt(1, originalWidth);
+		ps.setInt(2, originalHeight);
+		ps.setString(3, hash);
+
+		ps.executeUpdate();
+
+		AccessTracker.getAccessTracker().touch(hash);
+	}
+
+	/**
+	 * Saves the bytes of the given stream in a table that is keyed by content
+	 * hash, replacing what was stored for the hash before.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param table
+	 *            The table to save to, icons or resized. (Not null)
+	 * @param column
+	 *            The column holding the bytes. (Not null)
+	 * @param hash
+	 *            The hash of the image's content. (Not null)
+	 * @param in
+	 *            The bytes to save. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	private static void saveBlob(Connection conn, String table, String column,
+			String hash, InputStream in) throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT contenthash "
+				+ "FROM " + table + " WHERE contenthash = ?");
+		ps.setString(1, hash);
+
+		ResultSet rs = ps.executeQuery();
+		boolean exists = rs.next();
+		rs.close();
+
+		if (exists) {
+			ps = conn.prepareStatement("UPDATE " + table + " SET " + column
+					+ "=? WHERE contenthash = ?");
+		} else {
+			ps = conn.prepareStatement("INSERT INTO " + table + " (" + column
+					+ ",contenthash) VALUES (?,?)");
+		}
+
+		ps.setBinaryStream(1, in);
+		ps.setString(2, hash);
+
+		ps.executeUpdate();
+	}
+
+	/**
+	 * Removes the content with the given hash if no file path refers to it.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param hash
+	 *            The hash of an image's content. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	private static void removeOrphanedContent(Connection conn, String hash)
+			throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT imgpath "
+				+ "FROM images WHERE contenthash = ?");
+		ps.setString(1, hash);
+
+		ResultSet rs = ps.executeQuery();
+		boolean referenced = rs.next();
+		rs.close();
+
+		if (!referenced) {
+			deleteContent(conn, hash);
+		}
+	}
+
+	/**
+	 * Removes the content with the given hash along with every file path that
+	 * refers to it. This is how the {@link CacheEvictor} makes room.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param hash
+	 *            The hash of an image's content. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static void removeContent(Connection conn, String hash)
+			throws SQLException {
+
+		PreparedStatement ps = conn
+				.prepareStatement("DELETE FROM images WHERE contenthash = ?");
+		ps.setString(1, hash);
+
+		ps.executeUpdate();
+
+		deleteContent(conn, hash);
+	}
+
+	/**
+	 * Deletes the rows of the content with the given hash.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param hash
+	 *            The hash of an image's content. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	private static void deleteContent(Connection conn, String hash)
+			throws SQLException {
+
+		for (String table : new String[] { "icons", "resized", "pyramid",
+				"renditions", "content" }) {
+			PreparedStatement ps = conn.prepareStatement("DELETE FROM "
+					+ table + " WHERE contenthash = ?");
+			ps.setString(1, hash);
+
+			ps.executeUpdate();
+		}
+	}
+
+	/**
+	 * Removes icons of content that is no longer in the database from the
+	 * {@link ThumbnailPack}. The pack is only rewritten when at least a fifth
+	 * of it is unused.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database or the pack
+	 *             file.
+	 */
+	public static void compactThumbnailPack(Connection conn)
+			throws SQLException {
+
+		if (!useThumbnailPack) {
+			return;
+		}
+
+		Statement st = conn.createStatement();
+		ResultSet rs = st.executeQuery("SELECT contenthash FROM content");
+
+		List<String> hashes = new ArrayList<String>();
+
+		while (rs.next()) {
+			hashes.add(rs.getString(1));
+		}
+
+		rs.close();
+		st.close();
+
+		try {
+			ThumbnailPack pack = ThumbnailPack.getThumbnailPack();
+
+			if (pack.size() * 4 > hashes.size() * 5) {
+				pack.compact(hashes);
+			}
+		} catch (IOException e) {
+			throw new SQLException(e);
+		}
+	}
+
+	/**
+	 * Returns the position a background task has reached.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param name
+	 *            The name of the task. (Not null)
+	 * @return The last saved position or null if the task has not saved one.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static String getCheckpoint(Connection conn, String name)
+			throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT position "
+				+ "FROM checkpoints WHERE name = ?");
+		ps.setString(1, name);
+
+		ResultSet rs = ps.executeQuery();
+
+		String result = null;
+
+		if (rs.next()) {
+			result = rs.getString(1);
+		}
+
+		rs.close();
+
+		return result;
+	}
+
+	/**
+	 * Saves the position a background task has reached. The position becomes
+	 * durable when the connection's transaction is committed.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param name
+	 *            The name of the task. (Not null)
+	 * @param position
+	 *            The position reached or null to remove the checkpoint.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static void setCheckpoint(Connection conn, String name,
+			String position) throws SQLException {
+
+		PreparedStatement ps = conn
+				.prepareStatement("DELETE FROM checkpoints WHERE name = ?");
+		ps.setString(1, name);
+		ps.executeUpdate();
+
+		if (position != null) {
+			ps = conn.prepareStatement("INSERT INTO checkpoints "
+					+ "(name,position) VALUES (?,?)");
+			ps.setString(1, name);
+			ps.setString(2, position);
+			ps.executeUpdate();
+		}
+	}
+
+	/**
+	 * Saves the given list of images as a project, replacing a project with
+	 * the same name. The position, zip file name and rotation of each image
+	 * are kept.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param name
+	 *            The name of the project. (Not null)
+	 * @param files
+	 *            The images of the project in the order they are listed. (Not
+	 *            null)
+	 * @param profile
+	 *            The name of the export profile of the project or null if
+	 *            none was chosen.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static void saveProject(Connection conn, String name,
+			List<ImageFile> files, String profile) throws SQLException {
+
+		removeProject(conn, name);
+
+		PreparedStatement ps = conn.prepareStatement("INSERT INTO projects "
+				+ "(name,profile,saved) VALUES (?,?,?)");
+		ps.setString(1, name);
+		ps.setString(2, profile);
+		ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+		ps.executeUpdate();
+		ps.close();
+
+		ps = conn.prepareStatement("INSERT INTO project_items "
+				+ "(project,position,imgpath,zipname,rotation) "
+				+ "VALUES (?,?,?,?,?)");
+
+		for (int i = 0; i < files.size(); i++) {
+			ImageFile file = files.get(i);
+
+			ps.setString(1, name);
+			ps.setInt(2, i);
+			ps.setString(3, file.getAbsolutePath());
+			ps.setString(4, file.getZipName());
+			ps.setInt(5, file.getRotation());
+			ps.addBatch();
+		}
+
+		ps.executeBatch();
+		ps.close();
+	}
+
+	/**
+	 * Returns the images of the given project in the order they were listed,
+	 * with their zip file names and rotations. All of the images are read
+	 * with a single query; their icons are loaded later.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param name
+	 *            The name of the project. (Not null)
+	 * @return The images of the project, which is empty if there is no such
+	 *         project. (Never null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static List<ImageFile> loadProject(Connection conn, String name)
+			throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT imgpath, "
+				+ "zipname, rotation FROM project_items WHERE project = ? "
+				+ "ORDER BY position");
+		ps.setString(1, name);
+
+		ResultSet rs = ps.executeQuery();
+
+		List<ImageFile> result = new ArrayList<ImageFile>();
+
+		while (rs.next()) {
+			ImageFile file = new ImageFile(rs.getString(1));
+			file.setZipName(rs.getString(2));
+			file.setRotation(rs.getInt(3));
+			result.add(file);
+		}
+
+		rs.close();
+		ps.close();
+
+		return result;
+	}
+
+	/**
+	 * Returns the name of the export profile the given project was zipped
+	 * with.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param name
+	 *            The name of the project. (Not null)
+	 * @return The name of the profile or null if none was chosen.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static String getProjectProfile(Connection conn, String name)
+			throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT profile "
+				+ "FROM projects WHERE name = ?");
+		ps.setString(1, name);
+
+		ResultSet rs = ps.executeQuery();
+
+		String result = rs.next() ? rs.getString(1) : null;
+
+		rs.close();
+		ps.close();
+
+		return result;
+	}
+
+	/**
+	 * Returns the names of the saved projects, the most recently saved first.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @return The names of the projects. (Never null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static List<String> getProjectNames(Connection conn)
+			throws SQLException {
+
+		Statement st = conn.createStatement();
+		ResultSet rs = st.executeQuery("SELECT name FROM projects "
+				+ "ORDER BY saved DESC");
+
+		List<String> result = new ArrayList<String>();
+
+		while (rs.next()) {
+			result.add(rs.getString(1));
+		}
+
+		rs.close();
+		st.close();
+
+		return result;
+	}
+
+	/**
+	 * Removes the given project. The images stay in the database.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param name
+	 *            The name of the project. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static void removeProject(Connection conn, String name)
+			throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("DELETE FROM "
+				+ "project_items WHERE project = ?");
+		ps.setString(1, name);
+		ps.executeUpdate();
+		ps.close();
+
+		ps = conn.prepareStatement("DELETE FROM projects WHERE name = ?");
+		ps.setString(1, name);
+		ps.executeUpdate();
+		ps.close();
+	}
+
+	/**
+	 * Returns the hash of the content of the file at the given path.
+	 * 
+	 * @param filePath
+	 *            A fully qualified path to the image file. (Not null)
+	 * @return The hash of the file's content. (Never null)
+	 * @throws SQLException
+	 *             Thrown if the file can't be read.
+	 */
+	private static String hashFile(String filePath) throws SQLException {
+		try {
+			return ContentHasher.hash(new File(filePath));
+		} catch (IOException e) {
+			throw new SQLException(e);
+		}
+	}
+
 	/**
 	 * @return A fully qualified path of the database's location in the file
 	 *         system. (Never null)
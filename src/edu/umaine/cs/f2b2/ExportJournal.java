@@ -0,0 +1,425 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Records the entries of a zip file as they are written, so that an export
+ * that was canceled or that crashed can be continued later. The journal is
+ * kept next to the zip file. The entries are stored without compression, so
+ * on resume the entries that were already written are copied byte for byte
+ * into a new zip file, and only the remaining images have to be written.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ExportJournal {
+
+	/**
+	 * Added to the name of the zip file to name its journal.
+	 */
+	public static final String JOURNALSUFFIX = ".journal";
+
+	/**
+	 * Added to the name of the zip file while its entries are copied.
+	 */
+	public static final String PARTIALSUFFIX = ".partial";
+
+	/**
+	 * Starts the line of the journal naming the profile of the export.
+	 */
+	private static final String PROFILE = "profile\t";
+
+	/**
+	 * The file the entries are recorded in.
+	 */
+	private File journalFile;
+
+	/**
+	 * The zip file of the earlier export while its entries are copied.
+	 */
+	private File partialFile;
+
+	/**
+	 * The name of the profile the images are written with.
+	 */
+	private String profileName;
+
+	/**
+	 * The entries the earlier export recorded, in the order they were
+	 * written.
+	 */
+	private List<String> completed;
+
+	/**
+	 * Writes to the journal. Null until the export is resumed.
+	 */
+	private Writer writer;
+
+	/**
+	 * Create a journal for the given zip file. If an earlier export to the
+	 * file with the same profile left a journal, the zip file is moved aside
+	 * so that its entries can be copied by {@link #resume(ZipOutputStream,
+	 * List)}; otherwise the export starts over.
+	 * 
+	 * @param zipFile
+	 *            The zip file being written. (Not null)
+	 * @param profileName
+	 *            The name of the profile the images are written with. (Not
+	 *            null)
+	 * @throws IOException
+	 *             Thrown if the journal can't be read or the zip file can't be
+	 *             moved.
+	 */
+	public ExportJournal(File zipFile, String profileName) throws IOException {
+		this.journalFile = getJournalFile(zipFile);
+		this.partialFile = new File(zipFile.getAbsolutePath() + PARTIALSUFFIX);
+		this.profileName = profileName;
+		this.completed = readJournal();
+
+		if (!completed.isEmpty() && zipFile.exists()) {
+
+			if (partialFile.exists() && !partialFile.delete()) {
+				throw new IOException("Unable to delete "
+						+ partialFile.getAbsolutePath());
+			}
+
+			if (!zipFile.renameTo(partialFile)) {
+				throw new IOException("Unable to move "
+						+ zipFile.getAbsolutePath());
+			}
+		} else {
+			completed.clear();
+		}
+	}
+
+	/**
+	 * Returns the journal of the given zip file.
+	 * 
+	 * @param zipFile
+	 *            A zip file. (Not null)
+	 * @return The file the entries of the zip file are recorded in. (Never
+	 *         null)
+	 */
+	public static File getJournalFile(File zipFile) {
+		return new File(zipFile.getAbsolutePath() + JOURNALSUFFIX);
+	}
+
+	/**
+	 * Returns true iff an export to the given zip file didn't finish.
+	 * 
+	 * @param zipFile
+	 *            A zip file. (Not null)
+	 * @return true iff the zip file has a journal.
+	 */
+	public static boolean isUnfinished(File zipFile) {
+		return getJournalFile(zipFile).exists();
+	}
+
+	/**
+	 * Copies the entries the earlier export wrote to the given stream, as
+	 * long as they have the given names, and starts recording the entries
+	 * written from now on. The earlier zip file is read through
+	 * {@link ZipFile}; if it was never completed because the program crashed,
+	 * it is read from the start with a {@link ZipInputStream} instead.
+	 * 
+	 * @param out
+	 *            The stream of the new zip file. (Not null)
+	 * @param names
+	 *            The names of all of the entries of the export in order. (Not
+	 *            null)
+	 * @return The number of entries that were copied; the export continues
+	 *         with the image after them.
+	 * @throws IOException
+	 *             Thrown if there is a problem writing the zip file or the
+	 *             journal.
+	 */
+	public int resume(ZipOutputStream out, List<String> names)
+			throws IOException {
+
+		int count = 0;
+
+		while (count < completed.size() && count < names.size()
+				&& completed.get(count).equals(names.get(count))) {
+			count++;
+		}
+
+		int copied = 0;
+
+		if (count > 0) {
+			try {
+				copied = copyFromZipFile(out, names.subList(0, count));
+			} catch (ZipException e) {
+				// No central directory; the export crashed.
+				copied = copyFromZipStream(out, names.subList(0, count));
+			}
+		}
+
+		partialFile.delete();
+
+		writer = new OutputStreamWriter(new FileOutputStream(journalFile),
+				"UTF-8");
+		writer.write(PROFILE + profileName + "\n");
+
+		for (String name : names.subList(0, copied)) {
+			writer.write(name + "\n");
+		}
+
+		writer.flush();
+
+		return copied;
+	}
+
+	/**
+	 * Records that the given entry has been written. The zip stream has to
+	 * be flushed first, so that the entry is on the disk before it is
+	 * recorded.
+	 * 
+	 * @param name
+	 *            The name of the entry. (Not null)
+	 * @throws IOException
+	 *             Thrown if the journal can't be written.
+	 */
+	public void entryWritten(String name) throws IOException {
+		writer.write(name + "\n");
+		writer.flush();
+	}
+
+	/**
+	 * Stops recording, keeping the journal so that the export can be
+	 * resumed.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the journal can't be closed.
+	 */
+	public void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	/**
+	 * Stops recording and deletes the journal, because the export is done.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the journal can't be closed.
+	 */
+	public void finish() throws IOException {
+		close();
+		journalFile.delete();
+	}
+
+	/**
+	 * Adds an entry with the given data to the zip file without compressing
+	 * it. Images are already compressed, and stored entries can be copied
+	 * as they are when an export is resumed.
+	 * 
+	 * @param out
+	 *            The zip file. (Not null)
+	 * @param name
+	 *            The name of the entry. (Not null)
+	 * @param data
+	 *            The content of the entry. (Not null)
+	 * @throws IOException
+	 *             Thrown if there is a problem writing the zip file.
+	 */
+	public static void putStoredEntry(ZipOutputStream out, String name,
+			byte[] data) throws IOException {
+
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(data.length);
+		entry.setCompressedSize(data.length);
+		entry.setCrc(crc.getValue());
+
+		out.putNextEntry(entry);
+		out.write(data);
+		out.closeEntry();
+	}
+
+	/**
+	 * Reads the entries recorded by an earlier export with the same profile.
+	 * 
+	 * @return The names of the entries. (Never null)
+	 * @throws IOException
+	 *             Thrown if the journal can't be read.
+	 */
+	private List<String> readJournal() throws IOException {
+
+		List<String> result = new ArrayList<String>();
+
+		if (!journalFile.exists()) {
+			return result;
+		}
+
+		BufferedReader in = new BufferedReader(new FileReader(journalFile));
+
+		try {
+			String line = in.readLine();
+
+			// Images written with another profile can't be reused.
+			if (line == null || !line.equals(PROFILE + profileName)) {
+				return result;
+			}
+
+			while ((line = in.readLine()) != null) {
+				result.add(line);
+			}
+		} finally {
+			in.close();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Copies the given entries of the earlier zip file, which was closed
+	 * properly.
+	 * 
+	 * @param out
+	 *            The stream of the new zip file. (Not null)
+	 * @param names
+	 *            The entries to copy in order. (Not null)
+	 * @return The number of entries copied.
+	 * @throws ZipException
+	 *             Thrown if the earlier zip file wasn't closed.
+	 * @throws IOException
+	 *             Thrown if there is a problem writing the new zip file.
+	 */
+	private int copyFromZipFile(ZipOutputStream out, List<String> names)
+			throws IOException {
+
+		ZipFile zip = new ZipFile(partialFile);
+
+		try {
+			int copied = 0;
+
+			for (String name : names) {
+				ZipEntry entry = zip.getEntry(name);
+
+				if (entry == null || !copyEntry(entry, zip.getInputStream(entry),
+						out)) {
+					break;
+				}
+
+				copied++;
+			}
+
+			return copied;
+
+		} finally {
+			zip.close();
+		}
+	}
+
+	/**
+	 * Copies the given entries of the earlier zip file by reading it from the
+	 * start, which works even though it has no central directory.
+	 * 
+	 * @param out
+	 *            The stream of the new zip file. (Not null)
+	 * @param names
+	 *            The entries to copy in order. (Not null)
+	 * @return The number of entries copied.
+	 * @throws IOException
+	 *             Thrown if there is a problem writing the new zip file.
+	 */
+	private int copyFromZipStream(ZipOutputStream out, List<String> names)
+			throws IOException {
+
+		ZipInputStream in = new ZipInputStream(new FileInputStream(
+				partialFile));
+
+		int copied = 0;
+
+		try {
+			ZipEntry entry;
+
+			while (copied < names.size()
+					&& (entry = in.getNextEntry()) != null
+					&& entry.getName().equals(names.get(copied))
+					&& copyEntry(entry, in, out)) {
+				copied++;
+			}
+		} catch (IOException e) {
+			// The rest of the file was lost in the crash.
+		} finally {
+			in.close();
+		}
+
+		return copied;
+	}
+
+	/**
+	 * Copies one stored entry to the new zip file without changing its bytes.
+	 * The entry is only added if all of its data could be read and matches
+	 * its checksum.
+	 * 
+	 * @param entry
+	 *            The entry of the earlier zip file. (Not null)
+	 * @param in
+	 *            The data of the entry. (Not null)
+	 * @param out
+	 *            The stream of the new zip file. (Not null)
+	 * @return true iff the entry was copied.
+	 * @throws IOException
+	 *             Thrown if there is a problem reading or writing the entry.
+	 */
+	private boolean copyEntry(ZipEntry entry, InputStream in,
+			ZipOutputStream out) throws IOException {
+
+		if (entry.getMethod() != ZipEntry.STORED || entry.getSize() < 0) {
+			return false;
+		}
+
+		byte[] data = in.readAllBytes();
+
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		if (data.length != entry.getSize() || crc.getValue() != entry.getCrc()) {
+			return false;
+		}
+
+		putStoredEntry(out, entry.getName(), data);
+
+		return true;
+	}
+}
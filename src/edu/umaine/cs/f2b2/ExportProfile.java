@@ -0,0 +1,365 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+
+/**
+ * A named set of settings used when images are zipped: how large the images
+ * are, which format they are written in and, for JPEG, the quality and
+ * chroma subsampling. Besides the built in profiles, profiles can be defined
+ * in the file {@link #PROFILESFILE} with lines such as
+ * 
+ * <pre>
+ * profile.large.maxDimension = 1200
+ * profile.large.format = jpg
+ * profile.large.quality = 0.85
+ * profile.large.subsampling = false
+ * profile.large.progressive = true
+ * profile.large.optimizeHuffman = true
+ * </pre>
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ExportProfile {
+
+	/**
+	 * The profile used unless another one is chosen. It keeps the size and
+	 * format the images have always been zipped with.
+	 */
+	public static final ExportProfile DEFAULT = new ExportProfile("default",
+			ZipImagesAction.MAXWIDTHORHEIGHT, null, 0.75f, true);
+
+	/**
+	 * The file that additional profiles are read from.
+	 */
+	public static String PROFILESFILE = DBManager.storageDirectory
+			+ File.separator + ".4fb2profiles.properties";
+
+	/**
+	 * The name shown to the user. (Never null)
+	 */
+	private final String name;
+
+	/**
+	 * The largest width or height of the exported images.
+	 */
+	private final int maxDimension;
+
+	/**
+	 * The format the images are written in, or null to keep the format of
+	 * each image.
+	 */
+	private final String format;
+
+	/**
+	 * The JPEG quality between 0 and 1.
+	 */
+	private final float quality;
+
+	/**
+	 * True iff the color of JPEG images is stored at half resolution (4:2:0),
+	 * false to keep it at full resolution (4:4:4).
+	 */
+	private final boolean subsampling;
+
+	/**
+	 * True iff JPEG images are written progressively.
+	 */
+	private final boolean progressive;
+
+	/**
+	 * True iff Huffman tables are computed for each JPEG image.
+	 */
+	private final boolean optimizeHuffman;
+
+	/**
+	 * Create a new profile.
+	 * 
+	 * @param name
+	 *            The name shown to the user. (Not null)
+	 * @param maxDimension
+	 *            The largest width or height of the exported images.
+	 * @param format
+	 *            The format the images are written in, for example 'jpg' or
+	 *            'png', or null to keep the format of each image.
+	 * @param quality
+	 *            The JPEG quality between 0 and 1.
+	 * @param subsampling
+	 *            True iff the color of JPEG images is stored at half
+	 *            resolution.
+	 */
+	public ExportProfile(String name, int maxDimension, String format,
+			float quality, boolean subsampling) {
+		this(name, maxDimension, format, quality, subsampling, false, false);
+	}
+
+	/**
+	 * Create a new profile.
+	 * 
+	 * @param name
+	 *            The name shown to the user. (Not null)
+	 * @param maxDimension
+	 *            The largest width or height of the exported images.
+	 * @param format
+	 *            The format the images are written in, for example 'jpg' or
+	 *            'png', or null to keep the format of each image.
+	 * @param quality
+	 *            The JPEG quality between 0 and 1.
+	 * @param subsampling
+	 *            True iff the color of JPEG images is stored at half
+	 *            resolution.
+	 * @param progressive
+	 *            True iff JPEG images are written progressively.
+	 * @param optimizeHuffman
+	 *            True iff Huffman tables are computed for each JPEG image.
+	 */
+	public ExportProfile(String name, int maxDimension, String format,
+			float quality, boolean subsampling, boolean progressive,
+			boolean optimizeHuffman) {
+		this.name = name;
+		this.maxDimension = maxDimension;
+		this.format = format == null ? null : format.toLowerCase(Locale.ROOT);
+		this.quality = quality;
+		this.subsampling = subsampling;
+		this.progressive = progressive;
+		this.optimizeHuffman = optimizeHuffman;
+	}
+
+	/**
+	 * Returns the built in profiles followed by those defined in
+	 * {@link #PROFILESFILE}. A profile in the file replaces a built in profile
+	 * with the same name.
+	 * 
+	 * @return The profiles. (Never null)
+	 */
+	public static List<ExportProfile> getProfiles() {
+
+		Map<String, ExportProfile> profiles = new LinkedHashMap<String, ExportProfile>();
+
+		profiles.put("web", new ExportProfile("web", 640, "jpg", 0.8f, true,
+				true, true));
+		profiles.put(DEFAULT.getName(), DEFAULT);
+		profiles.put("print", new ExportProfile("print", 1600, "jpg", 0.92f,
+				false, false, true));
+
+		File file = new File(PROFILESFILE);
+
+		if (file.exists()) {
+			try {
+				for (ExportProfile profile : readProfiles(file)) {
+					profiles.put(profile.getName(), profile);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		return new ArrayList<ExportProfile>(profiles.values());
+	}
+
+	/**
+	 * Reads the profiles defined in the given properties file. Settings that
+	 * are missing are taken from {@link #DEFAULT}.
+	 * 
+	 * @param file
+	 *            The properties file. (Not null)
+	 * @return The profiles in the file. (Never null)
+	 * @throws IOException
+	 *             Thrown if the file can't be read.
+	 */
+	static List<ExportProfile> readProfiles(File file) throws IOException {
+
+		Properties properties = new Properties();
+
+		FileInputStream in = new FileInputStream(file);
+
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+
+		List<String> names = new ArrayList<String>();
+
+		for (String key : properties.stringPropertyNames()) {
+			String[] parts = key.split("[.]");
+
+			if (parts.length == 3 && "profile".equals(parts[0])
+					&& !names.contains(parts[1])) {
+				names.add(parts[1]);
+			}
+		}
+
+		Collections.sort(names);
+
+		List<ExportProfile> result = new ArrayList<ExportProfile>();
+
+		for (String name : names) {
+			String prefix = "profile." + name + ".";
+
+			try {
+				result.add(new ExportProfile(name, Integer.parseInt(properties
+						.getProperty(prefix + "maxDimension",
+								"" + DEFAULT.maxDimension).trim()), properties
+						.getProperty(prefix + "format"), Float
+						.parseFloat(properties.getProperty(prefix + "quality",
+								"" + DEFAULT.quality).trim()), !"false"
+						.equalsIgnoreCase(properties.getProperty(
+								prefix + "subsampling", "true").trim()),
+						"true".equalsIgnoreCase(properties.getProperty(
+								prefix + "progressive", "false").trim()),
+						"true".equalsIgnoreCase(properties.getProperty(
+								prefix + "optimizeHuffman", "false").trim())));
+			} catch (NumberFormatException e) {
+				throw new IOException("Bad setting for profile " + name, e);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the name shown to the user.
+	 * 
+	 * @return The name of the profile. (Never null)
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the largest width or height of the exported images.
+	 * 
+	 * @return The maximum dimension in pixels.
+	 */
+	public int getMaxDimension() {
+		return maxDimension;
+	}
+
+	/**
+	 * Returns the JPEG quality between 0 and 1.
+	 * 
+	 * @return The quality.
+	 */
+	public float getQuality() {
+		return quality;
+	}
+
+	/**
+	 * Returns true iff the color of JPEG images is stored at half resolution.
+	 * 
+	 * @return true for 4:2:0 and false for 4:4:4.
+	 */
+	public boolean isSubsampling() {
+		return subsampling;
+	}
+
+	/**
+	 * Returns the format that the image with the given name is written in.
+	 * 
+	 * @param fileName
+	 *            The name of the image. (Not null)
+	 * @return The format, for example 'jpg'. (Never null)
+	 */
+	public String getFormat(String fileName) {
+		return format != null ? format : ImageFile.getExtension(fileName)
+				.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Returns the name the image with the given name has in the zip file. The
+	 * extension is changed if the profile writes another format.
+	 * 
+	 * @param fileName
+	 *            The name of the image. (Not null)
+	 * @return The name in the zip file. (Never null)
+	 */
+	public String getEntryName(String fileName) {
+
+		String extension = ImageFile.getExtension(fileName);
+
+		if (format == null
+				|| ImageFormat.forFileName("." + format) == ImageFormat
+						.forFileName(fileName)) {
+			return fileName;
+		}
+
+		return fileName.substring(0, fileName.length() - extension.length())
+				+ (extension.length() == 0 ? "." : "") + format;
+	}
+
+	/**
+	 * Returns the key that images written with this profile in the given
+	 * format are stored under in the database. Every setting is part of the
+	 * key, so changing a profile doesn't return images written with the old
+	 * settings.
+	 * 
+	 * @param fileName
+	 *            The name of the image. (Not null)
+	 * @return The key. (Never null)
+	 */
+	public String getCacheKey(String fileName) {
+		return name + "/" + maxDimension + "/" + getFormat(fileName) + "/"
+				+ quality + "/" + (subsampling ? "420" : "444")
+				+ (progressive ? "/p" : "") + (optimizeHuffman ? "/h" : "");
+	}
+
+	/**
+	 * Writes the given image in the format of this profile.
+	 * 
+	 * @param image
+	 *            The image to write. (Not null)
+	 * @param fileName
+	 *            The name of the image, used when the profile keeps the
+	 *            format of each image. (Not null)
+	 * @return The bytes of the written image. (Never null)
+	 * @throws IOException
+	 *             Thrown if the image can't be written in the format.
+	 */
+	public byte[] encode(BufferedImage image, String fileName)
+			throws IOException {
+		return ImageEncoder.encode(image, getFormat(fileName),
+				new ImageEncoder.Settings(quality, subsampling, progressive,
+						optimizeHuffman));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return name + " (" + maxDimension + " px"
+				+ (format == null ? "" : ", " + format) + ")";
+	}
+}
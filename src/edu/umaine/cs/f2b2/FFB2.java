@@ -24,6 +24,9 @@ import java.awt.Graphics2D;
 import java.awt.GridLayout;
 import java.awt.RenderingHints;
 import java.awt.SplashScreen;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -67,8 +70,22 @@ public class FFB2 extends JPanel {
 		createSplashScreen(splashTime);
 
 		JFrame window = new JFrame("4FB2");
-		window.getContentPane().add(new FFB2());
+		final FFB2 ffb2 = new FFB2();
+		window.getContentPane().add(ffb2);
 		window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+
+		// Remember the list so that it is there the next time the program is
+		// started.
+		window.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				try {
+					ffb2.saveProject(SESSIONPROJECT);
+				} catch (SQLException e1) {
+					e1.printStackTrace();
+				}
+			}
+		});
 		window.validate();
 		window.pack();
 		window.setLocationRelativeTo(null);
@@ -76,6 +93,12 @@ public class FFB2 extends JPanel {
 
 	}
 
+	/**
+	 * The name of the project the list of images is saved as when the program
+	 * is closed. It is opened again when the program starts.
+	 */
+	public static final String SESSIONPROJECT = "Last session";
+
 	/**
 	 * List of image files to be shrunk and zipped.
 	 */
@@ -97,6 +120,12 @@ public class FFB2 extends JPanel {
 	 */
 	private IconLoader iconLoader;
 
+	/**
+	 * The name of the export profile the images were last zipped with, or
+	 * null if they haven't been zipped.
+	 */
+	private String profileName;
+
 	/**
 	 * Create a new F2b2 instance that contains a list of files and an add files
 	 * button and a save button.
@@ -105,11 +134,6 @@ public class FFB2 extends JPanel {
 
 		try {
 
-			// We want to make sure that the image files in the database have
-			// not been altered in the file system since the last time the
-			// program has looked at them.
-			new SanityChecker().checkDatabaseFileReferences();
-
 			Connection conn = DBManager.getDerbyConnection();
 			conn.setAutoCommit(false);
 			DBManager.createTables(conn);
@@ -121,23 +145,50 @@ public class FFB2 extends JPanel {
 			e.printStackTrace();
 		}
 
+		// We want to make sure that the image files in the database have not
+		// been altered in the file system since the last time the program has
+		// looked at them. This is done in the background so that it doesn't
+		// hold up the program. Rows of databases created by older versions
+		// are brought up to date the same way.
+		SchemaMigrator.startInBackground();
+		SanityChecker.startInBackground();
+		CacheEvictor.startInBackground();
+
 		iconLoader = IconLoader.getIconLoader(this);
-		new Thread(iconLoader).start();
+		iconLoader.filesHaveBeenAdd();
 
 		JPanel upperPanel = new JPanel(new GridLayout(1, 1));
 		JPanel lowerPanel = new JPanel();
 
 		fileJList = new ImageJList();
 
+		// Keep the database up to date with changes made to the images while
+		// the program is running.
+		try {
+			FileWatcher fileWatcher = new FileWatcher(getFileModel());
+			fileJList.getModel().addListDataListener(fileWatcher);
+
+			TaskExecutors.run(TaskExecutors.background(), fileWatcher);
+		} catch (IOException e) {
+			// The program still works, changes are found at the next start.
+			e.printStackTrace();
+		}
+
 		JScrollPane scrollPane = new JScrollPane(fileJList);
 
 		upperPanel.add(scrollPane);
 
 		JButton addImagesJButton = new JButton(new AddImagesAction(this));
 		JButton zipImagesJButton = new JButton(new ZipImagesAction(this));
+		JButton saveProjectJButton = new JButton(new ProjectAction(
+				"Save Project", ProjectAction.Kind.SAVE, this));
+		JButton openProjectJButton = new JButton(new ProjectAction(
+				"Open Project", ProjectAction.Kind.OPEN, this));
 
 		lowerPanel.add(addImagesJButton);
 		lowerPanel.add(zipImagesJButton);
+		lowerPanel.add(saveProjectJButton);
+		lowerPanel.add(openProjectJButton);
 
 		this.setLayout(new BorderLayout(0, 5));
 
@@ -146,6 +197,91 @@ public class FFB2 extends JPanel {
 
 		this.setPreferredSize(new Dimension(500, 500));
 
+		// Pick up where the user left off.
+		try {
+			openProject(SESSIONPROJECT);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Saves the list of images, with their zip file names and rotations, and
+	 * the export profile under the given name.
+	 * 
+	 * @param name
+	 *            The name of the project. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem saving the project.
+	 */
+	public void saveProject(String name) throws SQLException {
+
+		Connection conn = DBManager.getDerbyConnection();
+		conn.setAutoCommit(false);
+
+		DBManager.saveProject(conn, name, getFiles(), profileName);
+
+		conn.commit();
+		conn.close();
+	}
+
+	/**
+	 * Replaces the list of images with the images of the given project.
+	 * Images that no longer exist are left out. The icons are loaded in the
+	 * background.
+	 * 
+	 * @param name
+	 *            The name of the project. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem reading the project.
+	 */
+	public void openProject(String name) throws SQLException {
+
+		Connection conn = DBManager.getDerbyConnection();
+
+		List<ImageFile> files = DBManager.loadProject(conn, name);
+		String profile = DBManager.getProjectProfile(conn, name);
+
+		conn.close();
+
+		ImageJListModel model = getFileModel();
+
+		synchronized (model) {
+			model.clear();
+
+			for (ImageFile f : files) {
+				if (f.exists()) {
+					model.addImage(f);
+					iconLoader.addFile(f);
+				}
+			}
+		}
+
+		profileName = profile;
+
+		imagesHaveBeenAdded();
+	}
+
+	/**
+	 * Returns the name of the export profile the images were last zipped
+	 * with.
+	 * 
+	 * @return The name of the profile or null if the images haven't been
+	 *         zipped.
+	 */
+	public String getProfileName() {
+		return profileName;
+	}
+
+	/**
+	 * Sets the name of the export profile the images were zipped with, so
+	 * that it is saved with the project.
+	 * 
+	 * @param profileName
+	 *            The name of the profile. (Not null)
+	 */
+	public void setProfileName(String profileName) {
+		this.profileName = profileName;
 	}
 
 	/**
@@ -0,0 +1,337 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+/**
+ * Watches the folders of the images in the list for changes. When an image is
+ * modified or deleted while the program is running, its data in the database
+ * is removed and its icon is created again. A folder is no longer watched once
+ * none of its images are in the list.
+ *
+ * @author Mark Royer
+ *
+ */
+public class FileWatcher implements Runnable, ListDataListener {
+
+	/**
+	 * How long to wait for more changes after the first change is seen. Saving
+	 * an image usually causes several events. (milliseconds)
+	 */
+	static long SETTLETIME = 500;
+
+	/**
+	 * The list of the images that are watched.
+	 */
+	private ImageJListModel model;
+
+	/**
+	 * Service that reports changes to the watched folders.
+	 */
+	private WatchService watchService;
+
+	/**
+	 * The watched folders keyed by the key they were registered with.
+	 */
+	private Map<WatchKey, Path> folders;
+
+	/**
+	 * Create a watcher for the images of the given list. The watcher has to
+	 * be added to the list's listeners to find out about the images.
+	 *
+	 * @param model
+	 *            The list of the images to watch. (Not null)
+	 * @throws IOException
+	 *             Thrown if the file system can't be watched.
+	 */
+	public FileWatcher(ImageJListModel model) throws IOException {
+		this.model = model;
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.folders = new HashMap<WatchKey, Path>();
+	}
+
+	/**
+	 * Starts watching the folder that contains the given file.
+	 *
+	 * @param file
+	 *            An image file. (Not null)
+	 */
+	public void watch(File file) {
+
+		File parent = file.getAbsoluteFile().getParentFile();
+
+		if (parent == null) {
+			return;
+		}
+
+		Path folder = parent.toPath();
+
+		try {
+			// Registering a folder twice returns the same key.
+			WatchKey key = folder.register(watchService, ENTRY_CREATE,
+					ENTRY_MODIFY, ENTRY_DELETE);
+
+			synchronized (folders) {
+				folders.put(key, folder);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+
+		try {
+			while (true) {
+
+				Set<Path> changed = new HashSet<Path>();
+				Set<Path> deleted = new HashSet<Path>();
+
+				collectEvents(watchService.take(), changed, deleted);
+
+				// Wait for the rest of the events belonging to this change.
+				Thread.sleep(SETTLETIME);
+
+				WatchKey key;
+				while ((key = watchService.poll()) != null) {
+					collectEvents(key, changed, deleted);
+				}
+
+				changed.removeAll(deleted);
+
+				filesChanged(changed, deleted);
+			}
+		} catch (InterruptedException e) {
+			// Stop watching
+		}
+	}
+
+	/**
+	 * Adds the paths of the events of the given key to the changed or deleted
+	 * paths and resets the key so that it reports further events.
+	 *
+	 * @param key
+	 *            A key with pending events. (Not null)
+	 * @param changed
+	 *            The paths that were created or modified. (Not null)
+	 * @param deleted
+	 *            The paths that were deleted. (Not null)
+	 */
+	private void collectEvents(WatchKey key, Set<Path> changed,
+			Set<Path> deleted) {
+
+		Path folder;
+
+		synchronized (folders) {
+			folder = folders.get(key);
+		}
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+
+			if (folder == null || event.kind() == OVERFLOW) {
+				continue;
+			}
+
+			Path path = folder.resolve((Path) event.context());
+
+			if (event.kind() == ENTRY_DELETE) {
+				deleted.add(path);
+			} else {
+				changed.add(path);
+				deleted.remove(path);
+			}
+		}
+
+		if (!key.reset()) {
+			synchronized (folders) {
+				folders.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Removes the database entries of the given files and creates new icons
+	 * for the images in the list that were changed.
+	 *
+	 * @param changed
+	 *            The paths that were created or modified. (Not null)
+	 * @param deleted
+	 *            The paths that were deleted. (Not null)
+	 */
+	private void filesChanged(Set<Path> changed, Set<Path> deleted) {
+
+		try {
+			Connection conn = DBManager.getDerbyConnection();
+			conn.setAutoCommit(false);
+
+			for (Path path : deleted) {
+				DBManager.removeImageFile(conn, path.toString());
+			}
+
+			for (Path path : changed) {
+				String filePath = path.toString();
+
+				Timestamp stored = DBManager.getModificationDate(conn,
+						filePath);
+
+				if (stored != null
+						&& stored.getTime() != path.toFile().lastModified()) {
+					DBManager.removeImageFile(conn, filePath);
+				}
+			}
+
+			conn.commit();
+			conn.close();
+
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+
+		List<ImageFile> refresh = new ArrayList<ImageFile>();
+
+		synchronized (model) {
+			for (int i = 0; i < model.getSize(); i++) {
+				ImageFile file = model.get(i);
+
+				if (changed.contains(file.toPath())) {
+					refresh.add(file);
+				}
+			}
+		}
+
+		for (ImageFile file : refresh) {
+			file.invalidate();
+		}
+
+		if (!refresh.isEmpty()) {
+			IconLoader.requestIcons(refresh);
+		}
+	}
+
+	/**
+	 * Returns the number of folders that are watched.
+	 *
+	 * @return The number of watched folders.
+	 */
+	int getFolderCount() {
+		synchronized (folders) {
+			return folders.size();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * javax.swing.event.ListDataListener#intervalAdded(javax.swing.event.
+	 * ListDataEvent)
+	 */
+	@Override
+	public void intervalAdded(ListDataEvent e) {
+		ImageJListModel model = (ImageJListModel) e.getSource();
+
+		int last = Math.min(e.getIndex1(), model.size() - 1);
+
+		for (int i = e.getIndex0(); i <= last; i++) {
+			watch(model.get(i));
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * javax.swing.event.ListDataListener#intervalRemoved(javax.swing.event.
+	 * ListDataEvent)
+	 */
+	@Override
+	public void intervalRemoved(ListDataEvent e) {
+
+		// The removed images are no longer in the list, so the folders of
+		// the images that are left are found instead.
+		Set<Path> listed = new HashSet<Path>();
+
+		synchronized (model) {
+			for (int i = 0; i < model.getSize(); i++) {
+				File parent = model.get(i).getAbsoluteFile().getParentFile();
+
+				if (parent != null) {
+					listed.add(parent.toPath());
+				}
+			}
+		}
+
+		synchronized (folders) {
+			Iterator<Map.Entry<WatchKey, Path>> it = folders.entrySet()
+					.iterator();
+
+			while (it.hasNext()) {
+				Map.Entry<WatchKey, Path> entry = it.next();
+
+				if (!listed.contains(entry.getValue())) {
+					entry.getKey().cancel();
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * javax.swing.event.ListDataListener#contentsChanged(javax.swing.event.
+	 * ListDataEvent)
+	 */
+	@Override
+	public void contentsChanged(ListDataEvent e) {
+		// Nothing to do
+	}
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+/**
+ * Keeps the icons of recently displayed images in memory. The icons are kept
+ * until their combined size exceeds a budget; after that the least recently
+ * used icons are moved to a tier of soft references, which the garbage
+ * collector clears when memory runs low. Icons that are no longer cached are
+ * loaded from the database again.
+ *
+ * @author Mark Royer
+ *
+ */
+public class IconCache {
+
+	/**
+	 * The default number of bytes of icon pixels kept in memory.
+	 */
+	static final long DEFAULTMAXBYTES = 64L * 1024 * 1024;
+
+	/**
+	 * Singleton pattern; all images share one cache.
+	 */
+	private static IconCache iconCache;
+
+	/**
+	 * Icons kept in memory in least recently used order.
+	 */
+	private LinkedHashMap<String, ImageIcon> icons;
+
+	/**
+	 * Icons that were evicted from memory but haven't been collected yet.
+	 */
+	private Map<String, SoftIcon> softIcons;
+
+	/**
+	 * Queue of the soft references that have been cleared.
+	 */
+	private ReferenceQueue<ImageIcon> clearedIcons;
+
+	/**
+	 * The number of bytes used by the icons in memory.
+	 */
+	private long bytes;
+
+	/**
+	 * The number of bytes the icons in memory may use.
+	 */
+	private long maxBytes;
+
+	/**
+	 * True iff evicted icons are kept as soft references.
+	 */
+	private boolean useSoftReferences;
+
+	/**
+	 * Create a new cache.
+	 *
+	 * @param maxBytes
+	 *            The number of bytes the icons in memory may use.
+	 * @param useSoftReferences
+	 *            True iff evicted icons should be kept as soft references.
+	 */
+	IconCache(long maxBytes, boolean useSoftReferences) {
+		this.maxBytes = maxBytes;
+		this.useSoftReferences = useSoftReferences;
+		this.icons = new LinkedHashMap<String, ImageIcon>(16, 0.75f, true);
+		this.softIcons = new HashMap<String, SoftIcon>();
+		this.clearedIcons = new ReferenceQueue<ImageIcon>();
+	}
+
+	/**
+	 * Singleton pattern. The budget of the cache can be given in bytes by the
+	 * system property f2b2.iconCacheBytes and the soft reference tier can be
+	 * turned off with f2b2.iconCacheSoft=false.
+	 *
+	 * @return The icon cache. (Never null)
+	 */
+	public static synchronized IconCache getIconCache() {
+		if (iconCache == null) {
+			iconCache = new IconCache(Long.getLong("f2b2.iconCacheBytes",
+					DEFAULTMAXBYTES), !"false".equals(System
+					.getProperty("f2b2.iconCacheSoft")));
+		}
+		return iconCache;
+	}
+
+	/**
+	 * Returns the icon stored under the given key.
+	 *
+	 * @param key
+	 *            The key of the icon. (Not null)
+	 * @return The icon or null if it isn't cached.
+	 */
+	public synchronized ImageIcon get(String key) {
+
+		ImageIcon icon = icons.get(key);
+
+		if (icon == null && useSoftReferences) {
+			purgeClearedIcons();
+
+			SoftIcon soft = softIcons.remove(key);
+
+			if (soft != null) {
+				icon = soft.get();
+
+				// Still in memory, so it becomes recently used again.
+				if (icon != null) {
+					put(key, icon);
+				}
+			}
+		}
+
+		return icon;
+	}
+
+	/**
+	 * Stores the icon under the given key. Least recently used icons are
+	 * evicted until the icons fit in the budget.
+	 *
+	 * @param key
+	 *            The key of the icon. (Not null)
+	 * @param icon
+	 *            The icon to store. (Not null)
+	 */
+	public synchronized void put(String key, ImageIcon icon) {
+
+		remove(key);
+
+		icons.put(key, icon);
+		bytes += sizeOf(icon);
+
+		Iterator<Map.Entry<String, ImageIcon>> it = icons.entrySet()
+				.iterator();
+
+		// Always keep the icon that was just added
+		while (bytes > maxBytes && icons.size() > 1) {
+			Map.Entry<String, ImageIcon> eldest = it.next();
+			it.remove();
+
+			bytes -= sizeOf(eldest.getValue());
+
+			if (useSoftReferences) {
+				softIcons.put(eldest.getKey(), new SoftIcon(eldest.getKey(),
+						eldest.getValue(), clearedIcons));
+			}
+		}
+	}
+
+	/**
+	 * Removes the icon stored under the given key.
+	 *
+	 * @param key
+	 *            The key of the icon. (Not null)
+	 */
+	public synchronized void remove(String key) {
+
+		ImageIcon icon = icons.remove(key);
+
+		if (icon != null) {
+			bytes -= sizeOf(icon);
+		}
+
+		softIcons.remove(key);
+	}
+
+	/**
+	 * Returns the number of bytes used by the icons that are strongly held in
+	 * memory.
+	 *
+	 * @return The size of the icons in memory.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Forgets soft references that the garbage collector has cleared.
+	 */
+	private void purgeClearedIcons() {
+
+		Reference<? extends ImageIcon> ref;
+
+		while ((ref = clearedIcons.poll()) != null) {
+			SoftIcon soft = (SoftIcon) ref;
+
+			// The key may have been reused for a newer icon.
+			if (softIcons.get(soft.key) == soft) {
+				softIcons.remove(soft.key);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes used by the pixels of the given icon.
+	 *
+	 * @param icon
+	 *            An icon. (Not null)
+	 * @return The estimated size of the icon in bytes.
+	 */
+	static long sizeOf(ImageIcon icon) {
+		return 4L * Math.max(icon.getIconWidth(), 0)
+				* Math.max(icon.getIconHeight(), 0);
+	}
+
+	/**
+	 * A soft reference to an icon that remembers its key.
+	 */
+	private static class SoftIcon extends SoftReference<ImageIcon> {
+
+		/**
+		 * The key the icon was stored under.
+		 */
+		final String key;
+
+		SoftIcon(String key, ImageIcon icon, ReferenceQueue<ImageIcon> queue) {
+			super(icon, queue);
+			this.key = key;
+		}
+	}
+}
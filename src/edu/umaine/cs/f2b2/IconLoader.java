@@ -18,9 +18,22 @@
  */
 package edu.umaine.cs.f2b2;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import javax.swing.ImageIcon;
 import javax.swing.JOptionPane;
 
 /**
@@ -28,18 +41,35 @@ import javax.swing.JOptionPane;
  * The icons that are created are then stored in the database so that they can
  * quickly be loaded in the future without the need to resize the images, which
  * is a time consuming task. If an icon exists in the database already, that
- * icon is used.
+ * icon is used; the icons of the queued images are read from the database
+ * together, and only the images without one are handled one at a time.
  * 
  * @author Mark Royer
  * 
  */
 public class IconLoader implements Runnable {
 
+	/**
+	 * The largest number of queued images whose icons are read from the
+	 * database before the list is updated.
+	 */
+	static final int HYDRATEBATCH = 1000;
+
 	/**
 	 * Images that need to have icons created or obtained from the database.
 	 */
 	private Queue<ImageFile> files;
 
+	/**
+	 * The images that are in the queue, so that an image isn't added twice.
+	 */
+	private Set<ImageFile> queued;
+
+	/**
+	 * True while a thread is working on the queue.
+	 */
+	private boolean running;
+
 	/**
 	 * Reference back to the main program, which will be notified when icons are
 	 * updated.
@@ -60,6 +90,8 @@ public class IconLoader implements Runnable {
 	private IconLoader(FFB2 ffb2) {
 		this.ffb2 = ffb2;
 		files = new LinkedList<ImageFile>();
+		queued = Collections
+				.newSetFromMap(new IdentityHashMap<ImageFile, Boolean>());
 	}
 
 	/**
@@ -82,7 +114,54 @@ public class IconLoader implements Runnable {
 	 * finding icons for files that have been added to the system.
 	 */
 	public void filesHaveBeenAdd() {
-		new Thread(this).start();
+
+		synchronized (files) {
+			// The running thread will get to the new files.
+			if (running) {
+				return;
+			}
+			running = true;
+		}
+
+		TaskExecutors.run(TaskExecutors.io(), this);
+	}
+
+	/**
+	 * Asks the icon loader to load the icon of the given image, for example
+	 * because its icon was evicted from the {@link IconCache}. Nothing happens
+	 * if the program hasn't created the icon loader.
+	 * 
+	 * @param file
+	 *            The image whose icon is needed. (Not null)
+	 */
+	public static void requestIcon(ImageFile file) {
+
+		IconLoader loader = iconLoader;
+
+		if (loader != null) {
+			loader.addFile(file);
+			loader.filesHaveBeenAdd();
+		}
+	}
+
+	/**
+	 * Asks the icon loader to load the icons of the given images, for example
+	 * because the images changed on disk. Nothing happens if the program
+	 * hasn't created the icon loader.
+	 * 
+	 * @param files
+	 *            The images whose icons are needed. (Not null)
+	 */
+	public static void requestIcons(Collection<ImageFile> files) {
+
+		IconLoader loader = iconLoader;
+
+		if (loader != null) {
+			for (ImageFile file : files) {
+				loader.addFile(file);
+			}
+			loader.filesHaveBeenAdd();
+		}
 	}
 
 	/*
@@ -94,37 +173,165 @@ public class IconLoader implements Runnable {
 	public void run() {
 
 		/*
-		 * Block all other threads from manipulating the files that are in the
-		 * queue.
+		 * Create and lookup icons for each file in the queue.
 		 */
-		synchronized (files) {
+		while (true) {
 
-			/*
-			 * Create and lookup icons for each file in the queue.
-			 */
-			while (files.size() > 0) {
-				ImageFile f = files.remove();
-
-				synchronized (ffb2.getFileModel()) {
-					try {
-						f.createImageIcon();
-					} catch (Exception e) {
-						JOptionPane
-								.showMessageDialog(
-										null,
-										"Unable to view file: "
-												+ f.getAbsolutePath()
-												+ "\nIt will be removed from the zip archive.",
-										"Error", JOptionPane.ERROR_MESSAGE);
-
-						ffb2.getFileModel().removeElement(f);
-
-						// e.printStackTrace();
-					}
-
-					ffb2.getFileModel().fireContentChanged(f);
+			List<ImageFile> batch = new ArrayList<ImageFile>();
+
+			synchronized (files) {
+				if (files.isEmpty()) {
+					running = false;
+					return;
+				}
+
+				while (!files.isEmpty() && batch.size() < HYDRATEBATCH) {
+					ImageFile f = files.remove();
+					queued.remove(f);
+					batch.add(f);
 				}
 			}
+
+			List<ImageFile> missing = hydrate(batch);
+
+			// One event for all of the icons read from the database.
+			if (missing.size() < batch.size()) {
+				ffb2.getFileModel().fireAllContentChanged();
+			}
+
+			createIcons(missing);
+		}
+	}
+
+	/**
+	 * Creates the icons of the given images on the CPU threads and waits
+	 * until they are done.
+	 * 
+	 * @param missing
+	 *            Images whose icons aren't in the database. (Not null)
+	 */
+	private void createIcons(List<ImageFile> missing) {
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+
+		for (final ImageFile f : missing) {
+			futures.add(TaskExecutors.run(TaskExecutors.cpu(),
+					new Runnable() {
+						@Override
+						public void run() {
+							createIcon(f);
+						}
+					}));
+		}
+
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Already reported by the task
+		}
+	}
+
+	/**
+	 * Reads the icons of the given images that aren't in memory from the
+	 * database with as few queries as possible.
+	 * 
+	 * @param batch
+	 *            The images whose icons are needed. (Not null)
+	 * @return The images whose icons aren't in the database. (Never null)
+	 */
+	private List<ImageFile> hydrate(List<ImageFile> batch) {
+
+		IconCache iconCache = IconCache.getIconCache();
+
+		final Map<String, ImageFile> byPath = new LinkedHashMap<String, ImageFile>();
+		List<ImageFile> missing = new ArrayList<ImageFile>();
+
+		for (ImageFile f : batch) {
+			if (iconCache.get(f.getIconKey()) != null) {
+				continue;
+			}
+
+			if (byPath.containsKey(f.getAbsolutePath())) {
+				// The same path was queued twice; it is only read once.
+				missing.add(f);
+			} else {
+				byPath.put(f.getAbsolutePath(), f);
+			}
+		}
+
+		try {
+			Connection conn = DBManager.getDerbyConnection();
+			conn.setAutoCommit(false);
+
+			DBManager.getIcons(conn, new ArrayList<String>(byPath.keySet()),
+					new DBManager.IconHandler() {
+						@Override
+						public void iconLoaded(String filePath, ImageIcon icon,
+								int originalWidth, int originalHeight) {
+							ImageFile f = byPath.remove(filePath);
+
+							if (f != null) {
+								f.setIcon(icon, originalWidth, originalHeight);
+							}
+						}
+					});
+
+			conn.commit();
+			conn.close();
+
+		} catch (SQLException e) {
+			// The icons are looked up one at a time instead.
+			e.printStackTrace();
+		}
+
+		missing.addAll(0, byPath.values());
+
+		return missing;
+	}
+
+	/**
+	 * Creates the icon of the given image, or copies it from an image with
+	 * the same content, and updates the list.
+	 * 
+	 * @param f
+	 *            An image whose icon isn't in the database. (Not null)
+	 */
+	private void createIcon(ImageFile f) {
+
+		boolean created;
+
+		// Icons of several images are created at the same time, so the list
+		// is only locked to update it.
+		try {
+			f.createImageIcon();
+			created = true;
+		} catch (Exception e) {
+			created = false;
+		}
+
+		synchronized (ffb2.getFileModel()) {
+			if (!created) {
+				JOptionPane
+						.showMessageDialog(
+								null,
+								"Unable to view file: "
+										+ f.getAbsolutePath()
+										+ "\nIt will be removed from the zip archive.",
+								"Error", JOptionPane.ERROR_MESSAGE);
+
+				ffb2.getFileModel().removeElement(f);
+
+				// e.printStackTrace();
+			}
+
+			ffb2.getFileModel().fireContentChanged(f);
 		}
 	}
 
@@ -135,9 +342,11 @@ public class IconLoader implements Runnable {
 	 * @param file
 	 *            The file to be loaded into the database. (Not null)
 	 */
-	public synchronized void addFile(ImageFile file) {
-		synchronized (file) {
-			files.add(file);
+	public void addFile(ImageFile file) {
+		synchronized (files) {
+			if (queued.add(file)) {
+				files.add(file);
+			}
 		}
 	}
 
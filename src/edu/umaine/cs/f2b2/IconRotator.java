@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelGrabber;
+
+import javax.swing.ImageIcon;
+
+/**
+ * Rotates icons by multiples of 90 degrees by moving their pixels, which is
+ * much cheaper than drawing them rotated. Each thread reuses one array for
+ * the pixels of the icons it rotates.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class IconRotator {
+
+	/**
+	 * The pixels of the last icon rotated by each thread.
+	 */
+	private static final ThreadLocal<int[]> scratch = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[ImageFile.ICONWIDTH * ImageFile.ICONHEIGHT];
+		}
+	};
+
+	/**
+	 * Returns a copy of the given icon rotated clockwise by the given number
+	 * of degrees.
+	 * 
+	 * @param icon
+	 *            The icon to rotate. (Not null)
+	 * @param degrees
+	 *            A multiple of 90 degrees.
+	 * @return The rotated icon. (Never null)
+	 */
+	public static ImageIcon rotate(ImageIcon icon, int degrees) {
+
+		degrees = normalize(degrees);
+
+		int w = icon.getIconWidth();
+		int h = icon.getIconHeight();
+
+		boolean quarter = degrees == 90 || degrees == 270;
+
+		BufferedImage result = new BufferedImage(quarter ? h : w, quarter ? w
+				: h, BufferedImage.TYPE_INT_ARGB);
+
+		rotate(icon.getImage(), w, h, degrees, result);
+
+		return new ImageIcon(result);
+	}
+
+	/**
+	 * Rotates the given image clockwise by the given number of degrees into
+	 * the given buffer, which must already have the rotated size.
+	 * 
+	 * @param image
+	 *            The image to rotate. (Not null)
+	 * @param w
+	 *            The width of the image.
+	 * @param h
+	 *            The height of the image.
+	 * @param degrees
+	 *            A multiple of 90 degrees.
+	 * @param buffer
+	 *            A TYPE_INT_ARGB image of the rotated size, so that
+	 *            transparent pixels stay transparent. (Not null)
+	 */
+	public static void rotate(Image image, int w, int h, int degrees,
+			BufferedImage buffer) {
+
+		int[] src = pixels(image, w, h);
+		int[] dst = ((DataBufferInt) buffer.getRaster().getDataBuffer())
+				.getData();
+
+		rotate(src, w, h, normalize(degrees), dst);
+	}
+
+	/**
+	 * Moves the pixels of an image into their places in the image rotated
+	 * clockwise by the given number of degrees.
+	 * 
+	 * @param src
+	 *            The pixels of the image, row by row. (Not null)
+	 * @param w
+	 *            The width of the image.
+	 * @param h
+	 *            The height of the image.
+	 * @param degrees
+	 *            0, 90, 180 or 270.
+	 * @param dst
+	 *            Receives the pixels of the rotated image, row by row. (Not
+	 *            null)
+	 */
+	static void rotate(int[] src, int w, int h, int degrees, int[] dst) {
+
+		switch (degrees) {
+		case 90:
+			// The rotated image is h wide; (x, y) moves to (h - 1 - y, x).
+			for (int y = 0; y < h; y++) {
+				int row = y * w;
+				int column = h - 1 - y;
+				for (int x = 0; x < w; x++) {
+					dst[x * h + column] = src[row + x];
+				}
+			}
+			break;
+		case 180:
+			int last = w * h - 1;
+			for (int i = 0; i <= last; i++) {
+				dst[last - i] = src[i];
+			}
+			break;
+		case 270:
+			// (x, y) moves to (y, w - 1 - x).
+			for (int y = 0; y < h; y++) {
+				int row = y * w;
+				for (int x = 0; x < w; x++) {
+					dst[(w - 1 - x) * h + y] = src[row + x];
+				}
+			}
+			break;
+		default:
+			System.arraycopy(src, 0, dst, 0, w * h);
+		}
+	}
+
+	/**
+	 * Returns the pixels of the given image in this thread's scratch array.
+	 * 
+	 * @param image
+	 *            An image. (Not null)
+	 * @param w
+	 *            The width of the image.
+	 * @param h
+	 *            The height of the image.
+	 * @return The pixels, row by row, in the first w * h elements. (Never
+	 *         null)
+	 */
+	private static int[] pixels(Image image, int w, int h) {
+
+		int[] result = scratch.get();
+
+		if (result.length < w * h) {
+			result = new int[w * h];
+			scratch.set(result);
+		}
+
+		if (image instanceof BufferedImage) {
+			((BufferedImage) image).getRGB(0, 0, w, h, result, 0, w);
+		} else {
+			// Icons read from the database are toolkit images.
+			PixelGrabber grabber = new PixelGrabber(image, 0, 0, w, h, result,
+					0, w);
+			try {
+				grabber.grabPixels();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the given number of degrees as 0, 90, 180 or 270.
+	 * 
+	 * @param degrees
+	 *            A multiple of 90 degrees.
+	 * @return The same rotation between 0 and 359 degrees.
+	 */
+	static int normalize(int degrees) {
+		return ((degrees % 360) + 360) % 360;
+	}
+}
@@ -0,0 +1,361 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Reads images. Unlike {@link ImageIO#read}, which looks up and creates a new
+ * reader every time, each thread keeps one reader per {@link ImageFormat}.
+ * Images that are only needed for a moment, for instance to be scaled, can
+ * be decoded into a buffer that the thread reuses whenever the next image has
+ * the same size and type.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ImageDecoder {
+
+	/**
+	 * The readers and buffers of each thread.
+	 */
+	private static final ThreadLocal<Decoders> decoders = new ThreadLocal<Decoders>() {
+		@Override
+		protected Decoders initialValue() {
+			return new Decoders();
+		}
+	};
+
+	/**
+	 * Reads the image in the given file.
+	 * 
+	 * @param file
+	 *            The image file. (Not null)
+	 * @return The image. (Never null)
+	 * @throws IOException
+	 *             Thrown if the file can't be read or isn't a supported image.
+	 */
+	public static BufferedImage read(File file) throws IOException {
+		return decode(new FileImageInputStream(file), false, file.toString());
+	}
+
+	/**
+	 * Reads the image in the given stream.
+	 * 
+	 * @param in
+	 *            The bytes of the image. (Not null)
+	 * @return The image. (Never null)
+	 * @throws IOException
+	 *             Thrown if the stream can't be read or isn't a supported
+	 *             image.
+	 */
+	public static BufferedImage read(InputStream in) throws IOException {
+		return decode(new MemoryCacheImageInputStream(in), false, "stream");
+	}
+
+	/**
+	 * Reads the image in the given stream into the buffer of this thread. The
+	 * returned image is overwritten by the next call on the same thread, so it
+	 * must not be kept; use {@link #copy(BufferedImage)} to keep it.
+	 * 
+	 * @param in
+	 *            The bytes of the image. (Not null)
+	 * @return The image. (Never null)
+	 * @throws IOException
+	 *             Thrown if the stream can't be read or isn't a supported
+	 *             image.
+	 */
+	public static BufferedImage readInto(InputStream in) throws IOException {
+		return decode(new MemoryCacheImageInputStream(in), true, "stream");
+	}
+
+	/**
+	 * Returns the width and height of the image in the given file without
+	 * decoding its pixels.
+	 * 
+	 * @param file
+	 *            The image file. (Not null)
+	 * @return The dimensions of the image. (Never null)
+	 * @throws IOException
+	 *             Thrown if the file can't be read or isn't a supported image.
+	 */
+	public static Dimension probe(File file) throws IOException {
+
+		return read(file, new ReaderTask<Dimension>() {
+			@Override
+			public Dimension read(ImageReader reader) throws IOException {
+				return new Dimension(reader.getWidth(0), reader.getHeight(0));
+			}
+		});
+	}
+
+	/**
+	 * Work done with a reader of this thread, such as reading only parts of
+	 * an image.
+	 * 
+	 * @param <T>
+	 *            The type of the result.
+	 */
+	interface ReaderTask<T> {
+
+		/**
+		 * Reads from the given reader.
+		 * 
+		 * @param reader
+		 *            A reader whose input has been set. It must not be kept.
+		 *            (Not null)
+		 * @return The result of the task.
+		 * @throws IOException
+		 *             Thrown if the image can't be read.
+		 */
+		T read(ImageReader reader) throws IOException;
+	}
+
+	/**
+	 * Gives the given task this thread's reader for the image in the given
+	 * file, and gives the reader back afterwards.
+	 * 
+	 * @param file
+	 *            The image file. (Not null)
+	 * @param task
+	 *            The work to do with the reader. (Not null)
+	 * @return The result of the task.
+	 * @throws IOException
+	 *             Thrown if the file can't be read or isn't a supported image.
+	 */
+	static <T> T read(File file, ReaderTask<T> task) throws IOException {
+
+		ImageInputStream in = new FileImageInputStream(file);
+
+		try {
+			Decoders thread = decoders.get();
+			ImageReader reader = thread.getReader(in, file.toString());
+
+			try {
+				reader.setInput(in, true, true);
+				return task.read(reader);
+			} finally {
+				thread.release(reader);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns a copy of the given image that isn't affected by later decodes.
+	 * 
+	 * @param image
+	 *            An image. (Not null)
+	 * @return The copy. (Never null)
+	 */
+	public static BufferedImage copy(BufferedImage image) {
+		return new BufferedImage(image.getColorModel(), image.copyData(null),
+				image.isAlphaPremultiplied(), null);
+	}
+
+	/**
+	 * Decodes the first image of the given stream and closes the stream.
+	 * 
+	 * @param in
+	 *            The stream. (Not null)
+	 * @param reuse
+	 *            True iff the image may be decoded into the thread's buffer.
+	 * @param name
+	 *            What is being read, for error messages. (Not null)
+	 * @return The image. (Never null)
+	 * @throws IOException
+	 *             Thrown if the image can't be read.
+	 */
+	private static BufferedImage decode(ImageInputStream in, boolean reuse,
+			String name) throws IOException {
+
+		try {
+			Decoders thread = decoders.get();
+			ImageReader reader = thread.getReader(in, name);
+
+			try {
+				reader.setInput(in, true, true);
+
+				ImageReadParam param = reader.getDefaultReadParam();
+
+				if (reuse) {
+					param.setDestination(thread.getBuffer(reader));
+				}
+
+				return reader.read(0, param);
+
+			} finally {
+				thread.release(reader);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The readers and buffers of one thread.
+	 */
+	private static class Decoders {
+
+		/**
+		 * The reader for each format.
+		 */
+		final Map<ImageFormat, ImageReader> readers = new EnumMap<ImageFormat, ImageReader>(
+				ImageFormat.class);
+
+		/**
+		 * The buffer images are decoded into for each format.
+		 */
+		final Map<ImageFormat, BufferedImage> buffers = new EnumMap<ImageFormat, BufferedImage>(
+				ImageFormat.class);
+
+		/**
+		 * The type each buffer was created for.
+		 */
+		final Map<ImageFormat, ImageTypeSpecifier> bufferTypes = new EnumMap<ImageFormat, ImageTypeSpecifier>(
+				ImageFormat.class);
+
+		/**
+		 * Holds the first bytes of the image being read.
+		 */
+		final byte[] header = new byte[ImageFormat.HEADERLENGTH];
+
+		/**
+		 * Returns a reader for the image in the given stream. Readers of the
+		 * known formats are kept; others are looked up each time.
+		 * 
+		 * @param in
+		 *            The stream positioned at the start of the image. (Not
+		 *            null)
+		 * @param name
+		 *            What is being read, for error messages. (Not null)
+		 * @return The reader. (Never null)
+		 * @throws IOException
+		 *             Thrown if there is no reader for the image.
+		 */
+		ImageReader getReader(ImageInputStream in, String name)
+				throws IOException {
+
+			in.mark();
+			int length = Math.max(in.read(header), 0);
+			in.reset();
+
+			ImageFormat format = ImageFormat.forHeader(header, length);
+
+			ImageReader reader = format == null ? null : readers.get(format);
+
+			if (reader == null) {
+				Iterator<ImageReader> it = ImageIO.getImageReaders(in);
+
+				if (!it.hasNext()) {
+					throw new IOException("Unsupported image " + name);
+				}
+
+				reader = it.next();
+
+				if (format != null) {
+					readers.put(format, reader);
+				}
+			}
+
+			return reader;
+		}
+
+		/**
+		 * Returns the buffer for the image the given reader is about to read.
+		 * The buffer is replaced when the size or type of the images changes.
+		 * 
+		 * @param reader
+		 *            A reader whose input has been set. (Not null)
+		 * @return The buffer. (Never null)
+		 * @throws IOException
+		 *             Thrown if the image's header can't be read.
+		 */
+		BufferedImage getBuffer(ImageReader reader) throws IOException {
+
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+
+			// The reader would create an image of its first type.
+			ImageTypeSpecifier type = reader.getImageTypes(0).next();
+
+			ImageFormat format = formatOf(reader);
+			BufferedImage buffer = buffers.get(format);
+
+			if (buffer == null || buffer.getWidth() != width
+					|| buffer.getHeight() != height
+					|| !type.equals(bufferTypes.get(format))) {
+				buffer = type.createBufferedImage(width, height);
+
+				if (format != null) {
+					buffers.put(format, buffer);
+					bufferTypes.put(format, type);
+				}
+			}
+
+			return buffer;
+		}
+
+		/**
+		 * Returns the format the given reader is kept for.
+		 */
+		private ImageFormat formatOf(ImageReader reader) {
+
+			for (Map.Entry<ImageFormat, ImageReader> entry : readers.entrySet()) {
+				if (entry.getValue() == reader) {
+					return entry.getKey();
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * Clears the input of the given reader, or disposes of it if it
+		 * isn't kept.
+		 * 
+		 * @param reader
+		 *            The reader that was used. (Not null)
+		 */
+		void release(ImageReader reader) {
+
+			if (formatOf(reader) == null) {
+				reader.dispose();
+			} else {
+				reader.reset();
+			}
+		}
+	}
+}
@@ -23,7 +23,7 @@ import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.IOException;
+import java.awt.image.BufferedImage;
 import java.sql.SQLException;
 
 import javax.swing.AbstractAction;
@@ -38,12 +38,14 @@ import edu.umaine.cs.f2b2.ImageDialog.NextImageAction.Direction;
 
 /**
  * A simple dialog for presenting images to the user for review. The dialog
- * consists of a single image with previous and next buttons.
+ * consists of a single image with previous and next buttons. The images are
+ * loaded in the background by a {@link PreviewLoader}; the icon of the image
+ * is shown until its preview is ready.
  * 
  * @author Mark Royer
  * 
  */
-public class ImageDialog extends JDialog {
+public class ImageDialog extends JDialog implements PreviewLoader.Listener {
 
 	/**
 	 * For serialization.
@@ -71,6 +73,16 @@ public class ImageDialog extends JDialog {
 	 */
 	private ImageJListModel model;
 
+	/**
+	 * Loads the previews of the images in the background.
+	 */
+	private PreviewLoader previewLoader;
+
+	/**
+	 * The image that is being displayed.
+	 */
+	private ImageFile current;
+
 	/**
 	 * Create a new image dialog with the given model and the index of the
 	 * active image to be displayed.
@@ -92,7 +104,11 @@ public class ImageDialog extends JDialog {
 		this.model = model;
 		outOfLabel = new JLabel(getOutOfLabel());
 
-		setImage(selectedIndex);
+		previewLoader = new PreviewLoader(model, this);
+
+		setImage(selectedIndex, 1);
+
+		this.setDefaultCloseOperation(DISPOSE_ON_CLOSE);
 
 		this.setLayout(new BorderLayout());
 
@@ -144,34 +160,87 @@ public class ImageDialog extends JDialog {
 
 	/**
 	 * Updates the displayed image to the image with the given index in the list
-	 * of images.
+	 * of images. If its preview isn't loaded yet, the image's icon is shown
+	 * until it is.
 	 * 
 	 * @param selectedIndex
 	 *            The index of the image to display.
-	 * @throws SQLException
-	 *             Thrown if there is a problem getting the image from the
-	 *             database.
-	 * @throws IOException
-	 *             Thrown if there is a problem getting the path information for
-	 *             the image.
+	 * @param step
+	 *            1 if the user is moving forward through the list and -1 if
+	 *            backward.
 	 */
-	private void setImage(int selectedIndex) throws SQLException, IOException {
+	private void setImage(int selectedIndex, int step) {
 		ImageFile file = model.get(selectedIndex);
 
-		int width = file.getOriginalWidth();
-		int height = file.getOriginalHeight();
+		current = file;
 
-		ImageIcon icon = new ImageIcon(file.getRotatedImage());
+		BufferedImage preview = previewLoader.request(selectedIndex, step);
+
+		if (preview == null) {
+			imageHolder.setIcon(IconCache.getIconCache()
+					.get(file.getIconKey()));
+
+			this.setTitle("File:" + file.getAbsolutePath() + " (loading)");
+		} else {
+			showPreview(file, preview);
+		}
+
+		this.outOfLabel.setText(getOutOfLabel());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * edu.umaine.cs.f2b2.PreviewLoader.Listener#previewLoaded(edu.umaine.cs
+	 * .f2b2.ImageFile, java.awt.image.BufferedImage)
+	 */
+	@Override
+	public void previewLoaded(ImageFile file, BufferedImage preview) {
+		// The user may have moved on while the preview was loading.
+		if (file == current) {
+			showPreview(file, preview);
+		}
+	}
+
+	/**
+	 * Displays the given preview of the given image.
+	 * 
+	 * @param file
+	 *            The image being displayed. (Not null)
+	 * @param preview
+	 *            The image resized and rotated. (Not null)
+	 */
+	private void showPreview(ImageFile file, BufferedImage preview) {
+
+		ImageIcon icon = new ImageIcon(preview);
 
 		String name = (file).getAbsolutePath();
 
 		imageHolder.setIcon(icon);
 
-		this.setTitle("File:" + name + " (" + width + ", " + height + ") to "
-				+ file.getZipName() + " (" + icon.getIconWidth() + ","
-				+ icon.getIconHeight() + ")");
+		try {
+			int width = file.getOriginalWidth();
+			int height = file.getOriginalHeight();
 
-		this.outOfLabel.setText(getOutOfLabel());
+			this.setTitle("File:" + name + " (" + width + ", " + height
+					+ ") to " + file.getZipName() + " (" + icon.getIconWidth()
+					+ "," + icon.getIconHeight() + ")");
+		} catch (SQLException e) {
+			e.printStackTrace();
+			this.setTitle("File:" + name);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.awt.Window#dispose()
+	 */
+	@Override
+	public void dispose() {
+		previewLoader.stop();
+		super.dispose();
 	}
 
 	/**
@@ -261,11 +330,7 @@ public class ImageDialog extends JDialog {
 					dialog.imageIndex = 0;
 				}
 			}
-			try {
-				dialog.setImage(dialog.imageIndex);
-			} catch (Exception e1) {
-				e1.printStackTrace();
-			}
+			dialog.setImage(dialog.imageIndex, dir == Direction.NEXT ? 1 : -1);
 		}
 
 	}
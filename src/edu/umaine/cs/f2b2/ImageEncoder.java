@@ -0,0 +1,369 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Writes images to bytes. Unlike {@link ImageIO#write}, which looks up and
+ * creates a new writer every time, each thread keeps one writer per format
+ * and one output stream, and the JPEG settings can be chosen.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ImageEncoder {
+
+	/**
+	 * The settings {@link ImageIO#write} uses. Favors speed over size.
+	 */
+	public static final Settings DEFAULT = new Settings(0.75f, true, false,
+			false);
+
+	/**
+	 * The writers and output stream of each thread.
+	 */
+	private static final ThreadLocal<Encoders> encoders = new ThreadLocal<Encoders>() {
+		@Override
+		protected Encoders initialValue() {
+			return new Encoders();
+		}
+	};
+
+	/**
+	 * Writes the given image in the given format.
+	 * 
+	 * @param image
+	 *            The image to write. (Not null)
+	 * @param format
+	 *            The format, for example 'jpg' or 'png'. (Not null)
+	 * @param settings
+	 *            How JPEG images are written. (Not null)
+	 * @return The bytes of the written image. (Never null)
+	 * @throws IOException
+	 *             Thrown if the image can't be written in the format.
+	 */
+	public static byte[] encode(RenderedImage image, String format,
+			Settings settings) throws IOException {
+
+		Encoders thread = encoders.get();
+		ImageWriter writer = thread.getWriter(format);
+
+		try {
+			writer.setOutput(thread.out);
+
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			IIOMetadata metadata = null;
+
+			if (ImageFormat.forFileName("." + format) == ImageFormat.JPEG) {
+				settings.apply(param);
+
+				metadata = writer.getDefaultImageMetadata(
+						new ImageTypeSpecifier(image), param);
+
+				if (!settings.subsampling) {
+					setFullChroma(metadata);
+				}
+			}
+
+			writer.write(null, new IIOImage(image, null, metadata), param);
+
+			return thread.out.toByteArray();
+
+		} catch (IOException e) {
+			// Don't reuse a stream that may have been left half written.
+			encoders.remove();
+			throw e;
+		} catch (RuntimeException e) {
+			encoders.remove();
+			throw e;
+		} finally {
+			writer.reset();
+			thread.out.rewind();
+		}
+	}
+
+	/**
+	 * Changes the given JPEG metadata so that the color components are stored
+	 * at the same resolution as the brightness.
+	 * 
+	 * @param metadata
+	 *            The metadata of a JPEG image. (Not null)
+	 * @throws IOException
+	 *             Thrown if the metadata can't be changed.
+	 */
+	private static void setFullChroma(IIOMetadata metadata)
+			throws IOException {
+
+		String formatName = "javax_imageio_jpeg_image_1.0";
+
+		Node tree = metadata.getAsTree(formatName);
+
+		NodeList components = ((Element) tree)
+				.getElementsByTagName("componentSpec");
+
+		for (int i = 0; i < components.getLength(); i++) {
+			Element component = (Element) components.item(i);
+			component.setAttribute("HsamplingFactor", "1");
+			component.setAttribute("VsamplingFactor", "1");
+		}
+
+		metadata.setFromTree(formatName, tree);
+	}
+
+	/**
+	 * How JPEG images are written. Other formats ignore these settings.
+	 */
+	public static class Settings {
+
+		/**
+		 * The quality between 0 and 1.
+		 */
+		final float quality;
+
+		/**
+		 * True iff the color is stored at half resolution (4:2:0), false to
+		 * keep it at full resolution (4:4:4).
+		 */
+		final boolean subsampling;
+
+		/**
+		 * True iff the image is written so that it can be shown while it
+		 * loads. Progressive images are usually a little smaller but slower
+		 * to write.
+		 */
+		final boolean progressive;
+
+		/**
+		 * True iff Huffman tables are computed for each image. This makes
+		 * images smaller but slower to write.
+		 */
+		final boolean optimizeHuffman;
+
+		/**
+		 * Create new settings.
+		 * 
+		 * @param quality
+		 *            The quality between 0 and 1.
+		 * @param subsampling
+		 *            True iff the color is stored at half resolution.
+		 * @param progressive
+		 *            True iff the image is written progressively.
+		 * @param optimizeHuffman
+		 *            True iff Huffman tables are computed for each image.
+		 */
+		public Settings(float quality, boolean subsampling,
+				boolean progressive, boolean optimizeHuffman) {
+			this.quality = quality;
+			this.subsampling = subsampling;
+			this.progressive = progressive;
+			this.optimizeHuffman = optimizeHuffman;
+		}
+
+		/**
+		 * Applies these settings to the parameters of a JPEG writer.
+		 * 
+		 * @param param
+		 *            The parameters. (Not null)
+		 */
+		void apply(ImageWriteParam param) {
+
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality);
+
+			if (progressive && param.canWriteProgressive()) {
+				param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+			}
+
+			// Huffman tables are always optimized for progressive images.
+			if (optimizeHuffman && !progressive
+					&& param instanceof JPEGImageWriteParam) {
+				((JPEGImageWriteParam) param).setOptimizeHuffmanTables(true);
+			}
+		}
+	}
+
+	/**
+	 * The writers and output stream of one thread.
+	 */
+	private static class Encoders {
+
+		/**
+		 * The writer for each format.
+		 */
+		final Map<String, ImageWriter> writers = new HashMap<String, ImageWriter>();
+
+		/**
+		 * The stream that writers write to. It is rewound after every image.
+		 */
+		final ReusableOutputStream out = new ReusableOutputStream();
+
+		/**
+		 * Returns the writer for the given format, looking it up the first
+		 * time.
+		 * 
+		 * @param format
+		 *            The format, for example 'jpg' or 'png'. (Not null)
+		 * @return The writer. (Never null)
+		 * @throws IOException
+		 *             Thrown if there is no writer for the format.
+		 */
+		ImageWriter getWriter(String format) throws IOException {
+
+			String key = format.toLowerCase(Locale.ROOT);
+
+			ImageWriter writer = writers.get(key);
+
+			if (writer == null) {
+				Iterator<ImageWriter> it = ImageIO
+						.getImageWritersByFormatName(key);
+
+				if (!it.hasNext()) {
+					throw new IOException("Unable to write images as "
+							+ format);
+				}
+
+				writer = it.next();
+				writers.put(key, writer);
+			}
+
+			return writer;
+		}
+	}
+
+	/**
+	 * An output stream that keeps the written bytes in an array, which is
+	 * kept and written over when the stream is rewound. Writers may seek back
+	 * to fill in lengths, so the whole image stays in the array until it is
+	 * copied out.
+	 */
+	static class ReusableOutputStream extends ImageOutputStreamImpl {
+
+		/**
+		 * The written bytes.
+		 */
+		private byte[] buffer = new byte[64 * 1024];
+
+		/**
+		 * The number of bytes written.
+		 */
+		private int length;
+
+		/**
+		 * Returns a copy of the written bytes.
+		 * 
+		 * @return The bytes. (Never null)
+		 */
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, length);
+		}
+
+		/**
+		 * Forgets the written bytes so the stream can be used for another
+		 * image.
+		 */
+		void rewind() {
+			// The GIF writer switches to little endian and leaves it that way.
+			setByteOrder(ByteOrder.BIG_ENDIAN);
+			length = 0;
+			streamPos = 0;
+			flushedPos = 0;
+			bitOffset = 0;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			flushBits();
+			ensureCapacity(streamPos + 1);
+			buffer[(int) streamPos++] = (byte) b;
+			length = Math.max(length, (int) streamPos);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			flushBits();
+			ensureCapacity(streamPos + len);
+			System.arraycopy(b, off, buffer, (int) streamPos, len);
+			streamPos += len;
+			length = Math.max(length, (int) streamPos);
+		}
+
+		@Override
+		public int read() throws IOException {
+			bitOffset = 0;
+			return streamPos < length ? buffer[(int) streamPos++] & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			bitOffset = 0;
+
+			if (streamPos >= length) {
+				return -1;
+			}
+
+			int n = Math.min(len, length - (int) streamPos);
+			System.arraycopy(buffer, (int) streamPos, b, off, n);
+			streamPos += n;
+
+			return n;
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+
+		/**
+		 * Grows the buffer so it holds at least the given number of bytes.
+		 */
+		private void ensureCapacity(long capacity) throws IOException {
+
+			if (capacity > Integer.MAX_VALUE - 8) {
+				throw new IOException("Image too large to write");
+			}
+
+			if (capacity > buffer.length) {
+				buffer = Arrays.copyOf(buffer,
+						(int) Math.min(Integer.MAX_VALUE - 8,
+								Math.max(capacity, 2L * buffer.length)));
+			}
+		}
+	}
+}
@@ -26,11 +26,12 @@ import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.SortedMap;
 
-import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 
 /**
@@ -57,21 +58,33 @@ public class ImageFile extends File {
 	/**
 	 * The width and height of the icon used to display this image.
 	 */
-	private static int ICONWIDTH = 100, ICONHEIGHT = 100;
+	static final int ICONWIDTH = 100, ICONHEIGHT = 100;
 
 	private final static ImageIcon nullImage = new ImageIcon(Toolkit
 			.getDefaultToolkit().getImage(
 					ImageFile.class.getResource("missingIcon.gif")));
 
 	/**
-	 * An icon for the current image. Very small representation of the image.
+	 * The number of degrees that the image is rotated.
 	 */
-	private ImageIcon smallImage;
+	private int rotation;
 
 	/**
-	 * The number of degrees that the image is rotated.
+	 * Icons rotated in memory by {@link #rotateInMemory(int)}, which are
+	 * reused by later rotations. A rotation is always written into the buffer
+	 * that isn't being shown.
 	 */
-	private int rotation;
+	private BufferedImage[] rotatedBuffers = new BufferedImage[2];
+
+	/**
+	 * The icons showing {@link #rotatedBuffers}.
+	 */
+	private ImageIcon[] rotatedIcons = new ImageIcon[2];
+
+	/**
+	 * The rotation each of the {@link #rotatedBuffers} holds.
+	 */
+	private int[] bufferDegrees = new int[2];
 
 	/**
 	 * The width of the image on disk in pixels.
@@ -83,13 +96,6 @@ public class ImageFile extends File {
 	 */
 	private Integer originalHeight;
 
-	/**
-	 * The current amount of rotation the image has had done to it. This can
-	 * differ from the amount of rotation, which can be persisted in the
-	 * database.
-	 */
-	private int currentDegrees;
-
 	/**
 	 * Create a new {@link ImageFile} from the given file path.
 	 * 
@@ -98,7 +104,6 @@ public class ImageFile extends File {
 	 */
 	public ImageFile(String pathname) {
 		super(pathname);
-		this.smallImage = nullImage;
 		zipName = this.getName();
 		rotation = 0;
 	}
@@ -109,29 +114,63 @@ public class ImageFile extends File {
 	 * @param fileName
 	 *            The name to get the extension from. (Not null)
 	 * @return The extension of the file name not including the period. If there
-	 *         is no extension then the empty string is returned. (Never null)
+	 *         is no extension, or the name ends with a period, then the empty
+	 *         string is returned. (Never null)
 	 */
 	public static String getExtension(String fileName) {
 
-		String[] split = fileName.split("[.]");
+		int dot = fileName.lastIndexOf('.');
 
 		// There was no extension just return the empty string.
-		if (split.length == 1) {
+		if (dot == -1) {
 			return "";
 		}
 
-		return split[split.length - 1];
+		return fileName.substring(dot + 1);
 	}
 
 	/**
-	 * Returns the icon representation of this image file.
+	 * Returns the icon representation of this image file. Icons are kept in
+	 * the {@link IconCache}; if the icon isn't cached a placeholder is
+	 * returned.
 	 * 
 	 * @return The icon. (Never null)
 	 */
 	public ImageIcon getSmallImage() {
-		synchronized (smallImage) {
-			return smallImage;
-		}
+		ImageIcon icon = IconCache.getIconCache().get(getIconKey());
+
+		return icon == null ? nullImage : icon;
+	}
+
+	/**
+	 * Returns the icon displayed for images whose icon hasn't been loaded.
+	 * 
+	 * @return The placeholder icon. (Never null)
+	 */
+	public static ImageIcon getMissingIcon() {
+		return nullImage;
+	}
+
+	/**
+	 * Returns the key that the icon of this image, as it is currently
+	 * rotated, is stored under in the {@link IconCache}.
+	 * 
+	 * @return The key of the icon. (Never null)
+	 */
+	public String getIconKey() {
+		return getIconKey(rotation);
+	}
+
+	/**
+	 * Returns the key that the icon of this image rotated by the given number
+	 * of degrees is stored under in the {@link IconCache}.
+	 * 
+	 * @param degrees
+	 *            The rotation of the icon.
+	 * @return The key of the icon. (Never null)
+	 */
+	String getIconKey(int degrees) {
+		return getAbsolutePath() + "@" + degrees;
 	}
 
 	/**
@@ -149,50 +188,208 @@ public class ImageFile extends File {
 	public synchronized ImageIcon createImageIcon() throws IOException,
 			SQLException {
 
-		if (this.smallImage != nullImage) {
-			rotate(rotation);
-		} else {
+		IconCache iconCache = IconCache.getIconCache();
+
+		ImageIcon result = iconCache.get(getIconKey());
+
+		if (result == null) {
 
 			Connection conn = DBManager.getDerbyConnection();
 
-			if (DBManager.fileIsInDB(conn, this.getAbsolutePath())) {
-				this.smallImage = DBManager.getIcon(conn,
-						this.getAbsolutePath());
-			} else {
+			ImageIcon icon = null;
 
-				int width = ICONWIDTH;
-				int height = ICONHEIGHT;
+			try {
+				// A copy of this image may already be in the database under a
+				// different path.
+				if (DBManager.fileIsInDB(conn, this.getAbsolutePath())
+						|| DBManager.linkToExistingContent(conn,
+								this.getAbsolutePath(), new Timestamp(
+										lastModified()))) {
+					icon = DBManager.getIcon(conn, this.getAbsolutePath());
+				}
 
-				ImageIcon image = new ImageIcon(Toolkit.getDefaultToolkit()
-						.getImage(this.getAbsolutePath()));
+				if (icon == null) {
 
-				originalWidth = image.getIconWidth();
-				originalHeight = image.getIconHeight();
+					// The decode waits until there is memory for its pixels.
+					long bytes = acquireDecodeMemory(Math.max(ICONWIDTH,
+							ICONHEIGHT));
 
-				if (image.getIconWidth() > image.getIconHeight()) {
-					height = (int) ((image.getIconHeight() / (double) image
-							.getIconWidth()) * ICONWIDTH);
-				} else if (image.getIconWidth() < image.getIconHeight()) {
-					width = (int) ((image.getIconWidth() / (double) image
-							.getIconHeight()) * ICONHEIGHT);
+					try {
+						icon = createIcon(conn);
+					} finally {
+						MemoryGovernor.getMemoryGovernor().release(bytes);
+					}
 				}
+			} finally {
+				conn.close();
+			}
+
+			result = rotation == 0 ? icon : rotateIcon(icon, rotation);
+
+			iconCache.put(getIconKey(), result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Uses the given icon, which was read from the database along with the
+	 * icons of other images, as the icon of this image.
+	 * 
+	 * @param icon
+	 *            The unrotated icon of this image. (Not null)
+	 * @param originalWidth
+	 *            The original width of the image in pixels.
+	 * @param originalHeight
+	 *            The original height of the image in pixels.
+	 */
+	synchronized void setIcon(ImageIcon icon, int originalWidth,
+			int originalHeight) {
+
+		this.originalWidth = originalWidth;
+		this.originalHeight = originalHeight;
+
+		IconCache.getIconCache().put(getIconKey(),
+				rotation == 0 ? icon : rotateIcon(icon, rotation));
+	}
+
+	/**
+	 * Decodes the image from its file, scales it to the size of an icon and
+	 * stores the icon in the database.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @return The new icon. (Never null)
+	 * @throws IOException
+	 *             Thrown if there is a problem reading the image.
+	 * @throws SQLException
+	 *             Thrown if there is a problem storing the icon.
+	 */
+	private ImageIcon createIcon(Connection conn) throws IOException,
+			SQLException {
+
+		ImageIcon icon = null;
+
+		if (isVeryLarge()) {
+
+			BufferedImage scaled = TiledScaler.scale(this,
+					Math.max(ICONWIDTH, ICONHEIGHT));
+
+			icon = new ImageIcon(scaled);
+
+			DBManager.saveIcon(conn, getAbsolutePath(), new Timestamp(
+					lastModified()), icon, originalWidth, originalHeight);
+		} else {
+
+			int width = ICONWIDTH;
+			int height = ICONHEIGHT;
+
+			ImageIcon image = new ImageIcon(Toolkit.getDefaultToolkit()
+					.getImage(this.getAbsolutePath()));
+
+			originalWidth = image.getIconWidth();
+			originalHeight = image.getIconHeight();
+
+			if (image.getIconWidth() > image.getIconHeight()) {
+				height = (int) ((image.getIconHeight() / (double) image
+						.getIconWidth()) * ICONWIDTH);
+			} else if (image.getIconWidth() < image.getIconHeight()) {
+				width = (int) ((image.getIconWidth() / (double) image
+						.getIconHeight()) * ICONHEIGHT);
+			}
+
+			ImageIcon tmpImage = new ImageIcon(image.getImage()
+					.getScaledInstance(width, height, Image.SCALE_SMOOTH));
+
+			DBManager.saveIcon(conn, getAbsolutePath(), new Timestamp(
+					lastModified()), tmpImage, originalWidth,
+					originalHeight);
+
+			icon = tmpImage;
+			// System.out.println("Created small image for "
+			// + icon.toString());
+		}
+
+		return icon;
+	}
+
+	/**
+	 * Waits until the {@link MemoryGovernor} has room to decode this image and
+	 * scale it to the given size. The returned number of bytes must be
+	 * released when the decode is done.
+	 * 
+	 * @param maxWidthOrHeight
+	 *            The largest width or height of the scaled image.
+	 * @return The number of bytes that were acquired.
+	 * @throws IOException
+	 *             Thrown if the thread is interrupted while waiting.
+	 */
+	private long acquireDecodeMemory(int maxWidthOrHeight) throws IOException {
+
+		long bytes = 0;
 
-				ImageIcon tmpImage = new ImageIcon(image.getImage()
-						.getScaledInstance(width, height, Image.SCALE_SMOOTH));
+		// Reads the dimensions from the header if they aren't known yet.
+		isVeryLarge();
 
-				DBManager.saveIcon(conn, getAbsolutePath(), new Timestamp(
-						lastModified()), tmpImage, originalWidth,
-						originalHeight);
+		// Images whose header can't be read are admitted without an estimate.
+		if (originalWidth != null && originalHeight != null) {
+			bytes = MemoryGovernor.estimate(originalWidth, originalHeight,
+					maxWidthOrHeight);
+		}
+
+		try {
+			MemoryGovernor.getMemoryGovernor().acquire(bytes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to decode "
+					+ getAbsolutePath());
+		}
 
-				this.smallImage = tmpImage;
-				// System.out.println("Created small image for "
-				// + this.smallImage.toString());
+		return bytes;
+	}
+
+	/**
+	 * Returns true iff this image has too many pixels to be decoded at once.
+	 * The original dimensions are read from the file's header if they aren't
+	 * known yet.
+	 * 
+	 * @return true iff the image should be scaled by the {@link TiledScaler}.
+	 */
+	private boolean isVeryLarge() {
+
+		if (originalWidth == null || originalHeight == null) {
+			try {
+				Dimension d = ImageDecoder.probe(this);
+				originalWidth = (int) d.getWidth();
+				originalHeight = (int) d.getHeight();
+			} catch (IOException e) {
+				// Let the toolkit try to load it
+				return false;
 			}
+		}
+
+		return (long) originalWidth * originalHeight > TiledScaler.THRESHOLD;
+	}
 
-			conn.close();
+	/**
+	 * Forgets the icon, previews and dimensions of this image, because the
+	 * image file has changed. The next call to {@link #createImageIcon()}
+	 * creates them again. The rotation of the image is kept.
+	 */
+	public synchronized void invalidate() {
+		IconCache iconCache = IconCache.getIconCache();
+		PreviewCache previewCache = PreviewCache.getPreviewCache();
+
+		for (int degrees = 0; degrees < 360; degrees += 90) {
+			iconCache.remove(getIconKey(degrees));
+			previewCache.remove(getIconKey(degrees));
 		}
 
-		return this.smallImage;
+		rotatedBuffers = new BufferedImage[2];
+		rotatedIcons = new ImageIcon[2];
+
+		this.originalWidth = null;
+		this.originalHeight = null;
 	}
 
 	/**
@@ -206,30 +403,167 @@ public class ImageFile extends File {
 	 */
 	public synchronized void rotate(int degrees) throws SQLException {
 
-		if (degrees != currentDegrees) {
-			currentDegrees = degrees;
+		if (rotateInMemory(degrees)) {
+			return;
+		}
 
-			Connection conn = DBManager.getDerbyConnection();
-			conn.setAutoCommit(false);
+		degrees = IconRotator.normalize(degrees);
+		rotation = degrees;
+
+		Connection conn = DBManager.getDerbyConnection();
+		conn.setAutoCommit(false);
+
+		ImageIcon icon = DBManager.getIcon(conn, getAbsolutePath());
+
+		conn.commit();
+		conn.close();
+
+		// The image changed on disk, so its icon has to be created again.
+		// Creating it applies the rotation as well.
+		if (icon == null) {
+
+			invalidate();
+
+			try {
+				createImageIcon();
+			} catch (IOException e) {
+				throw new SQLException(e);
+			}
+
+			return;
+		}
+
+		IconCache.getIconCache().put(getIconKey(degrees),
+				rotateIcon(icon, degrees));
+	}
+
+	/**
+	 * Rotates this image to the given number of degrees using an icon of it
+	 * that is in memory, rotated any way, so that nothing is read from the
+	 * database. The pixels are moved into one of two buffers that are kept
+	 * for later rotations, so rotating an image back and forth doesn't
+	 * allocate anything. The buffer of the icon that is shown is never
+	 * written, since the list may be painting it.
+	 * 
+	 * @param degrees
+	 *            The new rotation of the image.
+	 * @return true iff an icon was in memory and the image was rotated.
+	 */
+	synchronized boolean rotateInMemory(int degrees) {
+
+		degrees = IconRotator.normalize(degrees);
+
+		IconCache iconCache = IconCache.getIconCache();
+
+		if (iconCache.get(getIconKey(degrees)) != null) {
+			rotation = degrees;
+			return true;
+		}
+
+		int sourceDegrees = getRotationInMemory();
+
+		ImageIcon source = sourceDegrees < 0 ? null : iconCache
+				.get(getIconKey(sourceDegrees));
+
+		// Other threads may evict the icon from the cache at any time.
+		if (source == null) {
+			return false;
+		}
+
+		int width = source.getIconWidth();
+		int height = source.getIconHeight();
+
+		boolean sideways = (degrees - sourceDegrees) % 180 != 0;
+		int bufferWidth = sideways ? height : width;
+		int bufferHeight = sideways ? width : height;
+
+		ImageIcon shown = iconCache.get(getIconKey(rotation));
+
+		// Use the buffer that holds neither the source nor the icon being
+		// shown, preferring one that already has the right shape.
+		int k = -1;
+
+		for (int i = 0; i < rotatedBuffers.length; i++) {
+
+			boolean inUse = rotatedIcons[i] != null
+					&& (rotatedIcons[i] == source || rotatedIcons[i] == shown);
+
+			if (!inUse
+					&& (k == -1 || rotatedBuffers[i] != null
+							&& rotatedBuffers[i].getWidth() == bufferWidth
+							&& rotatedBuffers[i].getHeight() == bufferHeight)) {
+				k = i;
+			}
+		}
+
+		// Both buffers are in use only if the cache changed while it was
+		// read; the caller then rotates from the database.
+		if (k == -1) {
+			return false;
+		}
+
+		// The rotation the buffer held is no longer in memory.
+		String held = getIconKey(bufferDegrees[k]);
+
+		if (rotatedIcons[k] != null && iconCache.get(held) == rotatedIcons[k]) {
+			iconCache.remove(held);
+		}
+
+		BufferedImage buffer = rotatedBuffers[k];
+
+		if (buffer == null || buffer.getWidth() != bufferWidth
+				|| buffer.getHeight() != bufferHeight) {
+
+			buffer = new BufferedImage(bufferWidth, bufferHeight,
+					BufferedImage.TYPE_INT_ARGB);
+			rotatedBuffers[k] = buffer;
+			rotatedIcons[k] = new ImageIcon(buffer);
+		}
+
+		IconRotator.rotate(source.getImage(), width, height, degrees
+				- sourceDegrees, buffer);
+
+		bufferDegrees[k] = degrees;
+
+		iconCache.put(getIconKey(degrees), rotatedIcons[k]);
 
-			ImageIcon icon = DBManager.getIcon(conn, getAbsolutePath());
+		rotation = degrees;
 
-			BufferedImage b = new BufferedImage(icon.getIconWidth(),
-					icon.getIconHeight(), BufferedImage.TYPE_INT_RGB);
+		return true;
+	}
 
-			Graphics2D g = (Graphics2D) b.getGraphics();
+	/**
+	 * Returns a rotation of this image whose icon is in memory, preferring
+	 * the current rotation.
+	 * 
+	 * @return The rotation of the icon or -1 if no icon is in memory.
+	 */
+	synchronized int getRotationInMemory() {
 
-			g.drawImage(icon.getImage(), 0, 0, icon.getIconWidth(),
-					icon.getIconHeight(), null, null);
+		IconCache iconCache = IconCache.getIconCache();
 
-			smallImage = new ImageIcon(getScaledInstance(icon.getIconWidth(),
-					icon.getIconHeight(), b, rotation));
+		for (int i = 0; i < 360; i += 90) {
+			int degrees = (rotation + i) % 360;
 
-			conn.commit();
-			conn.close();
+			if (iconCache.get(getIconKey(degrees)) != null) {
+				return degrees;
+			}
 		}
 
-		System.gc();
+		return -1;
+	}
+
+	/**
+	 * Returns a copy of the given icon rotated by the given number of degrees.
+	 * 
+	 * @param icon
+	 *            The icon to rotate. (Not null)
+	 * @param degrees
+	 *            The number of degrees to rotate the icon.
+	 * @return The rotated icon. (Never null)
+	 */
+	private ImageIcon rotateIcon(ImageIcon icon, int degrees) {
+		return IconRotator.rotate(icon, degrees);
 	}
 
 	/**
@@ -255,19 +589,176 @@ public class ImageFile extends File {
 
 		BufferedImage result;
 
+		if (!DBManager.fileIsInDB(conn, getAbsolutePath())) {
+			DBManager.linkToExistingContent(conn, getAbsolutePath(),
+					new Timestamp(lastModified()));
+		}
+
 		if (DBManager.resizedImageIsInDB(conn, getAbsolutePath())) {
 			result = DBManager.getResizedImage(conn, getAbsolutePath());
 		} else {
 
-			BufferedImage image = ImageIO.read(this);
+			result = getImage(conn, ZipImagesAction.MAXWIDTHORHEIGHT);
 
-			result = createScaledInstanceMax(image,
-					ZipImagesAction.MAXWIDTHORHEIGHT,
-					ZipImagesAction.MAXWIDTHORHEIGHT);
+			if (originalWidth == null || originalHeight == null) {
+				getDimensionsFromDb(conn);
+			}
 
 			DBManager.saveResizedImage(conn, getAbsolutePath(), new Timestamp(
 					lastModified()), getSmallImage(), getExtension(), result,
-					image.getWidth(), image.getHeight());
+					originalWidth, originalHeight);
+		}
+
+		conn.commit();
+		conn.close();
+
+		return result;
+	}
+
+	/**
+	 * Returns this image scaled so that neither its width nor its height is
+	 * larger than the given size. The image is made from the nearest larger
+	 * level of its {@link ThumbnailPyramid}; if the levels haven't been stored
+	 * yet, the original is decoded once and every level is stored.
+	 * 
+	 * @param maxWidthOrHeight
+	 *            The largest width or height of the returned image.
+	 * @return The scaled image. (Never null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem accessing the database.
+	 * @throws IOException
+	 *             Thrown if there is a problem accessing the file on disk.
+	 */
+	public synchronized BufferedImage getImage(int maxWidthOrHeight)
+			throws SQLException, IOException {
+
+		Connection conn = DBManager.getDerbyConnection();
+		conn.setAutoCommit(false);
+
+		BufferedImage result = getImage(conn, maxWidthOrHeight);
+
+		conn.commit();
+		conn.close();
+
+		return result;
+	}
+
+	/**
+	 * Returns this image scaled to fit the given size using the given
+	 * connection.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param maxWidthOrHeight
+	 *            The largest width or height of the returned image.
+	 * @return The scaled image. (Never null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem accessing the database.
+	 * @throws IOException
+	 *             Thrown if there is a problem accessing the file on disk.
+	 */
+	private BufferedImage getImage(Connection conn, int maxWidthOrHeight)
+			throws SQLException, IOException {
+
+		int level = ThumbnailPyramid.levelFor(maxWidthOrHeight);
+
+		BufferedImage image = null;
+
+		if (level != -1) {
+
+			if (!DBManager.fileIsInDB(conn, getAbsolutePath())) {
+				DBManager.linkToExistingContent(conn, getAbsolutePath(),
+						new Timestamp(lastModified()));
+			}
+
+			image = DBManager.getPyramidLevel(conn, getAbsolutePath(), level,
+					true);
+
+			// A level that already fits is returned as it is, so it can't
+			// stay in the decoder's buffer.
+			if (image != null && image.getWidth() <= maxWidthOrHeight
+					&& image.getHeight() <= maxWidthOrHeight) {
+				image = ImageDecoder.copy(image);
+			}
+		}
+
+		if (image == null) {
+
+			Dimension d = ImageDecoder.probe(this);
+
+			originalWidth = (int) d.getWidth();
+			originalHeight = (int) d.getHeight();
+
+			// Very large images are never decoded at once; the largest level
+			// is read from the file a stripe at a time.
+			int topSize = level == -1 ? maxWidthOrHeight
+					: ThumbnailPyramid.LEVELS[ThumbnailPyramid.LEVELS.length - 1];
+
+			BufferedImage top;
+
+			long bytes = acquireDecodeMemory(topSize);
+
+			try {
+				top = TiledScaler.scale(this, topSize);
+			} finally {
+				MemoryGovernor.getMemoryGovernor().release(bytes);
+			}
+
+			if (level == -1) {
+				image = top;
+			} else {
+				SortedMap<Integer, BufferedImage> levels = ThumbnailPyramid
+						.build(top);
+
+				DBManager.savePyramid(conn, getAbsolutePath(), new Timestamp(
+						lastModified()), levels, originalWidth, originalHeight);
+
+				image = levels.get(level);
+			}
+		}
+
+		return ThumbnailPyramid.scaleToFit(image, maxWidthOrHeight);
+	}
+
+	/**
+	 * Returns this image, rotated and written with the given profile, as it
+	 * is stored in a zip file. The written image is kept in the database for
+	 * each profile, so zipping with a profile that was used before doesn't
+	 * decode or write the image again.
+	 * 
+	 * @param profile
+	 *            The profile to write the image with. (Not null)
+	 * @return The bytes of the written image. (Never null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem accessing the database.
+	 * @throws IOException
+	 *             Thrown if there is a problem reading or writing the image.
+	 */
+	public synchronized byte[] getRendition(ExportProfile profile)
+			throws SQLException, IOException {
+
+		String key = profile.getCacheKey(getZipName());
+
+		Connection conn = DBManager.getDerbyConnection();
+		conn.setAutoCommit(false);
+
+		byte[] result = DBManager.getRendition(conn, getAbsolutePath(), key,
+				rotation);
+
+		if (result == null) {
+
+			BufferedImage image = getImage(conn, profile.getMaxDimension());
+
+			result = profile.encode(getScaledInstance(image.getWidth(),
+					image.getHeight(), image, rotation), getZipName());
+
+			if (originalWidth == null || originalHeight == null) {
+				getDimensionsFromDb(conn);
+			}
+
+			DBManager.saveRendition(conn, getAbsolutePath(), new Timestamp(
+					lastModified()), key, rotation, result, originalWidth,
+					originalHeight);
 		}
 
 		conn.commit();
@@ -414,6 +905,28 @@ public class ImageFile extends File {
 		this.zipName = zipName;
 	}
 
+	/**
+	 * Returns the number of degrees that the image is rotated clockwise.
+	 * 
+	 * @return 0, 90, 180 or 270.
+	 */
+	public int getRotation() {
+		return rotation;
+	}
+
+	/**
+	 * Sets the number of degrees that the image is rotated, for example when
+	 * a saved project is opened. Unlike {@link #rotateLeft()} and
+	 * {@link #rotateRight()} nothing is rotated now; the icon and previews
+	 * are created rotated when they are needed.
+	 * 
+	 * @param degrees
+	 *            A multiple of 90 degrees.
+	 */
+	public synchronized void setRotation(int degrees) {
+		this.rotation = ((degrees % 360) + 360) % 360;
+	}
+
 	/**
 	 * Returns the original width of the image.
 	 * 
@@ -447,22 +960,62 @@ public class ImageFile extends File {
 
 	/**
 	 * Updates this images original dimensions of the image from the database.
+	 * If the image isn't in the database, for instance because its icon came
+	 * from the {@link IconCache}, the dimensions are read from the header of
+	 * the image file.
 	 * 
 	 * @throws SQLException
 	 *             Thrown if there is s a problem getting the dimensions from
-	 *             the database.
+	 *             the database or the file.
 	 */
 	private void getDimensionsFromDb() throws SQLException {
 		Connection conn = DBManager.getDerbyConnection();
+		getDimensionsFromDb(conn);
+		conn.close();
+	}
+
+	/**
+	 * Updates this images original dimensions using the given connection.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is s a problem getting the dimensions from
+	 *             the database or the file.
+	 */
+	private void getDimensionsFromDb(Connection conn) throws SQLException {
 		Dimension d = DBManager.getOriginalImageDimensions(conn,
 				getAbsolutePath());
 
+		if (d == null) {
+			d = readDimensions();
+		}
+
 		originalWidth = (int) d.getWidth();
 		originalHeight = (int) d.getHeight();
 	}
 
 	/**
-	 * Returns the current image resized and rotated.
+	 * Reads the dimensions of the image from its file without decoding the
+	 * image.
+	 * 
+	 * @return The dimensions of the image. (Never null)
+	 * @throws SQLException
+	 *             Thrown if the dimensions can't be read from the file.
+	 */
+	private Dimension readDimensions() throws SQLException {
+		try {
+			return ImageDecoder.probe(this);
+		} catch (IOException e) {
+			throw new SQLException(e);
+		}
+	}
+
+	/**
+	 * Returns the current image resized and rotated. The result is kept in the
+	 * {@link PreviewCache}, so showing the image again with the same rotation
+	 * neither reads nor rotates it. The returned image is shared and must not
+	 * be modified.
 	 * 
 	 * @return The current image resized and rotated. (Never null)
 	 * @throws SQLException
@@ -472,9 +1025,50 @@ public class ImageFile extends File {
 	 */
 	public BufferedImage getRotatedImage() throws SQLException, IOException {
 
-		BufferedImage image = this.getResizedImage();
+		// The image may be rotated by another thread while this one works.
+		return getRotatedImage(rotation);
+	}
 
-		return getScaledInstance(image.getWidth(), image.getHeight(), image,
-				rotation);
+	/**
+	 * Returns the current image resized and rotated by the given number of
+	 * degrees. See {@link #getRotatedImage()}.
+	 * 
+	 * @param degrees
+	 *            The rotation of the image.
+	 * @return The current image resized and rotated. (Never null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem accessing the database.
+	 * @throws IOException
+	 *             Thrown if there is a problem accessing the image on disk.
+	 */
+	BufferedImage getRotatedImage(int degrees) throws SQLException,
+			IOException {
+
+		String key = getIconKey(degrees);
+
+		PreviewCache previewCache = PreviewCache.getPreviewCache();
+
+		BufferedImage result = previewCache.get(key);
+
+		if (result == null) {
+			BufferedImage image = this.getResizedImage();
+
+			result = getScaledInstance(image.getWidth(), image.getHeight(),
+					image, degrees);
+
+			previewCache.put(key, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the current image resized and rotated if it is in the
+	 * {@link PreviewCache}.
+	 * 
+	 * @return The image resized and rotated or null if it isn't in memory.
+	 */
+	public BufferedImage getCachedRotatedImage() {
+		return PreviewCache.getPreviewCache().get(getIconKey());
 	}
 }
@@ -0,0 +1,292 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The image formats that 4fb2 is able to work with. Formats can be recognized
+ * either by the extension of a file name or by the magic bytes at the start of
+ * the file's content.
+ *
+ * @author Mark Royer
+ *
+ */
+public enum ImageFormat {
+
+	JPEG(new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF }, "jpg", "jpeg"),
+
+	PNG(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' },
+			"png"),
+
+	GIF(new byte[] { 'G', 'I', 'F', '8' }, "gif");
+
+	/**
+	 * The number of bytes read from the start of a file to determine its
+	 * format.
+	 */
+	static final int HEADERLENGTH = 16;
+
+	/**
+	 * All of the formats. {@link #values()} returns a new copy each time it is
+	 * called.
+	 */
+	private static final ImageFormat[] FORMATS = values();
+
+	/**
+	 * The maximum number of verdicts that are remembered.
+	 */
+	private static final int MAXCACHEDVERDICTS = 10000;
+
+	/**
+	 * Header buffers are reused by each thread so that sniffing a large number
+	 * of files doesn't create garbage for every file.
+	 */
+	private static final ThreadLocal<byte[]> headerBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[HEADERLENGTH];
+		}
+	};
+
+	/**
+	 * Previously sniffed files keyed by their fully qualified path.
+	 */
+	private static final Map<String, Verdict> verdicts = Collections
+			.synchronizedMap(new LinkedHashMap<String, Verdict>(16, 0.75f,
+					true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, Verdict> eldest) {
+					return size() > MAXCACHEDVERDICTS;
+				}
+			});
+
+	/**
+	 * The bytes every file of this format starts with.
+	 */
+	private final byte[] signature;
+
+	/**
+	 * The file name extensions used for this format in lower case.
+	 */
+	private final String[] extensions;
+
+	/**
+	 * Create a new format.
+	 *
+	 * @param signature
+	 *            The bytes the content of this format starts with. (Not null)
+	 * @param extensions
+	 *            File name extensions used for this format. (Not null)
+	 */
+	private ImageFormat(byte[] signature, String... extensions) {
+		this.signature = signature;
+		this.extensions = extensions;
+	}
+
+	/**
+	 * Returns true iff the given header starts with this format's signature.
+	 * GIF files must be either GIF87a or GIF89a.
+	 *
+	 * @param header
+	 *            The first bytes of a file. (Not null)
+	 * @param length
+	 *            The number of valid bytes in the header.
+	 * @return true iff the header belongs to a file of this format.
+	 */
+	boolean matches(byte[] header, int length) {
+
+		if (length < signature.length) {
+			return false;
+		}
+
+		for (int i = 0; i < signature.length; i++) {
+			if (header[i] != signature[i]) {
+				return false;
+			}
+		}
+
+		if (this == GIF) {
+			return length >= 6 && (header[4] == '7' || header[4] == '9')
+					&& header[5] == 'a';
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the format associated with the extension of the given file name.
+	 * No objects are allocated, so this is safe to call for every file while
+	 * crawling the file system.
+	 *
+	 * @param fileName
+	 *            The name of the file. (Not null)
+	 * @return The format for the extension or null if the extension is not a
+	 *         supported image type.
+	 */
+	public static ImageFormat forFileName(String fileName) {
+
+		int start = fileName.lastIndexOf('.') + 1;
+
+		if (start == 0) {
+			return null;
+		}
+
+		int length = fileName.length() - start;
+
+		for (ImageFormat format : FORMATS) {
+			for (String extension : format.extensions) {
+				if (extension.length() == length
+						&& fileName.regionMatches(true, start, extension, 0,
+								length)) {
+					return format;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the format of the given file by looking at the first few bytes of
+	 * its content. The result is remembered for as long as the file's size and
+	 * modification date stay the same.
+	 *
+	 * @param file
+	 *            The file to examine. (Not null)
+	 * @return The format of the file or null if the content is not a supported
+	 *         image type or can't be read.
+	 */
+	public static ImageFormat detect(File file) {
+
+		String path = file.getAbsolutePath();
+		long modified = file.lastModified();
+		long length = file.length();
+
+		Verdict verdict = verdicts.get(path);
+
+		if (verdict == null || verdict.modified != modified
+				|| verdict.length != length) {
+			verdict = new Verdict(sniff(file), modified, length);
+			verdicts.put(path, verdict);
+		}
+
+		return verdict.format;
+	}
+
+	/**
+	 * Reads the header of the given file and compares it to the known
+	 * signatures.
+	 *
+	 * @param file
+	 *            The file to examine. (Not null)
+	 * @return The format of the file or null if it is not recognized.
+	 */
+	private static ImageFormat sniff(File file) {
+
+		byte[] header = headerBuffer.get();
+		int length = 0;
+
+		try {
+			FileInputStream in = new FileInputStream(file);
+
+			try {
+				int read;
+				while (length < HEADERLENGTH
+						&& (read = in.read(header, length, HEADERLENGTH
+								- length)) > 0) {
+					length += read;
+				}
+			} finally {
+				in.close();
+			}
+
+		} catch (IOException e) {
+			return null;
+		}
+
+		return forHeader(header, length);
+	}
+
+	/**
+	 * Returns the format whose signature the given header starts with.
+	 *
+	 * @param header
+	 *            The first bytes of an image. (Not null)
+	 * @param length
+	 *            The number of valid bytes in the header.
+	 * @return The format or null if it is not recognized.
+	 */
+	static ImageFormat forHeader(byte[] header, int length) {
+
+		for (ImageFormat format : FORMATS) {
+			if (format.matches(header, length)) {
+				return format;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the file extensions used for this format.
+	 *
+	 * @return The extensions in lower case without the period. (Never null)
+	 */
+	public String[] getExtensions() {
+		return extensions.clone();
+	}
+
+	/**
+	 * The remembered format of a file along with the file properties it was
+	 * determined from.
+	 */
+	private static class Verdict {
+
+		/**
+		 * The detected format. (null if not an image)
+		 */
+		final ImageFormat format;
+
+		/**
+		 * Modification date of the file when it was examined.
+		 */
+		final long modified;
+
+		/**
+		 * Size of the file when it was examined.
+		 */
+		final long length;
+
+		Verdict(ImageFormat format, long modified, long length) {
+			this.format = format;
+			this.modified = modified;
+			this.length = length;
+		}
+	}
+}
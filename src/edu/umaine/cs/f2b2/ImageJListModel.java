@@ -83,6 +83,27 @@ public class ImageJListModel extends DefaultListModel {
 		super.fireContentsChanged(source, index0, index1);
 	}
 
+	/**
+	 * Notifies listeners that any of the images in the list may have changed.
+	 * One event is sent however many images changed.
+	 */
+	public synchronized void fireAllContentChanged() {
+		if (size() > 0) {
+			fireContentsChanged(this, 0, size() - 1);
+		}
+	}
+
+	/**
+	 * Adds the given image to the end of the list.
+	 * 
+	 * @param file
+	 *            The image to add. (Not null)
+	 */
+	@SuppressWarnings("unchecked")
+	public void addImage(ImageFile file) {
+		addElement(file);
+	}
+
 	/* (non-Javadoc)
 	 * @see javax.swing.DefaultListModel#get(int)
 	 */
@@ -68,7 +68,14 @@ public class ImageRenderer extends JLabel implements ListCellRenderer {
 
 		ImageFile file = ((ImageFile) value);
 		String fileName = file.getZipName();
-		Icon icon = file.getSmallImage();
+		Icon icon = IconCache.getIconCache().get(file.getIconKey());
+
+		// The icon hasn't been loaded yet or was evicted from the cache.
+		if (icon == null) {
+			icon = ImageFile.getMissingIcon();
+			IconLoader.requestIcon(file);
+		}
+
 		setIcon(icon);
 		setText(fileName);
 		setFont(list.getFont());
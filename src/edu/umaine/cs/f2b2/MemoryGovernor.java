@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+/**
+ * Decides how many images may be decoded at the same time. Every decode asks
+ * for the number of bytes its pixels will take and waits until the images
+ * being decoded by other threads leave enough room in a shared budget. A
+ * decode that is larger than the whole budget is allowed once nothing else
+ * is being decoded, so it still completes. Small images can then be decoded
+ * by many threads at once while large ones are decoded one at a time.
+ *
+ * @author Mark Royer
+ *
+ */
+public class MemoryGovernor {
+
+	/**
+	 * The fraction of the maximum heap that decoded pixels may use unless a
+	 * budget is given.
+	 */
+	static final double HEAPFRACTION = 0.4;
+
+	/**
+	 * Singleton pattern; all decodes share one budget.
+	 */
+	private static MemoryGovernor memoryGovernor;
+
+	/**
+	 * The number of bytes decoded images may use at once.
+	 */
+	private final long budget;
+
+	/**
+	 * The number of bytes granted to decodes that are running.
+	 */
+	private long inFlight;
+
+	/**
+	 * The number of decodes that are running.
+	 */
+	private int running;
+
+	/**
+	 * The number of permits held by the current thread, so that a decode that
+	 * starts another one on the same thread doesn't wait for itself.
+	 */
+	private final ThreadLocal<int[]> held = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	/**
+	 * Create a governor with the given budget.
+	 *
+	 * @param budget
+	 *            The number of bytes decoded images may use at once.
+	 */
+	public MemoryGovernor(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Singleton pattern. The budget can be given in megabytes by the system
+	 * property f2b2.decodeBudgetMB; otherwise it is a part of the maximum heap
+	 * size.
+	 *
+	 * @return The memory governor. (Never null)
+	 */
+	public static synchronized MemoryGovernor getMemoryGovernor() {
+		if (memoryGovernor == null) {
+			long defaultMB = (long) (Runtime.getRuntime().maxMemory()
+					* HEAPFRACTION / (1024 * 1024));
+
+			memoryGovernor = new MemoryGovernor(Long.getLong(
+					"f2b2.decodeBudgetMB", defaultMB) * 1024 * 1024);
+		}
+		return memoryGovernor;
+	}
+
+	/**
+	 * Waits until the given number of bytes fits in the budget and reserves
+	 * them. Every call must be followed by a call to {@link #release(long)}
+	 * with the same number of bytes, usually in a finally block.
+	 *
+	 * @param bytes
+	 *            The number of bytes the decode needs.
+	 * @throws InterruptedException
+	 *             Thrown if the thread is interrupted while waiting.
+	 */
+	public void acquire(long bytes) throws InterruptedException {
+
+		int[] count = held.get();
+
+		synchronized (this) {
+
+			// Threads that already hold a permit never wait, since the
+			// permit they hold may be what they are waiting for.
+			while (count[0] == 0 && running > 0 && inFlight + bytes > budget) {
+				wait();
+			}
+
+			inFlight += bytes;
+			running++;
+		}
+
+		count[0]++;
+	}
+
+	/**
+	 * Gives back bytes reserved by {@link #acquire(long)}.
+	 *
+	 * @param bytes
+	 *            The number of bytes that were acquired.
+	 * @throws IllegalStateException
+	 *             Thrown if the current thread holds no permit or fewer bytes
+	 *             are in use than are given back.
+	 */
+	public void release(long bytes) {
+
+		int[] count = held.get();
+
+		synchronized (this) {
+
+			// Releasing without a matching acquire would leave the counts
+			// negative, after which no decode would ever wait again.
+			if (count[0] == 0 || bytes > inFlight) {
+				throw new IllegalStateException("Released " + bytes
+						+ " bytes without acquiring them");
+			}
+
+			count[0]--;
+			inFlight -= bytes;
+			running--;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes granted to decodes that are running.
+	 *
+	 * @return The bytes in use.
+	 */
+	public synchronized long getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * Returns the number of bytes decoded images may use at once.
+	 *
+	 * @return The budget in bytes.
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the number of bytes needed to decode an image of the given size
+	 * and scale it to fit the given size.
+	 *
+	 * @param width
+	 *            The width of the image in pixels.
+	 * @param height
+	 *            The height of the image in pixels.
+	 * @param maxWidthOrHeight
+	 *            The largest width or height of the scaled image.
+	 * @return The estimated number of bytes.
+	 */
+	public static long estimate(int width, int height, int maxWidthOrHeight) {
+
+		long output = 4L * Math.min(width, maxWidthOrHeight)
+				* Math.min(height, maxWidthOrHeight);
+
+		long pixels = (long) width * height;
+
+		// Very large images are only decoded a stripe at a time, and their
+		// output is averaged in three sums and a count.
+		if (pixels > TiledScaler.THRESHOLD) {
+			return 4 * TiledScaler.STRIPEPIXELS + 5 * output;
+		}
+
+		// Images more than twice as large as the output are halved first,
+		// which needs a quarter of their pixels again.
+		if (width > 2 * maxWidthOrHeight || height > 2 * maxWidthOrHeight) {
+			return 5 * pixels + output;
+		}
+
+		return 4 * pixels + output;
+	}
+}
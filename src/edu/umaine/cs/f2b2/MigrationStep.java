@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * One change to the layout of the database. A step is applied in two parts:
+ * the structural changes are made while the program starts up, so that the
+ * rest of the program can use the new layout right away, and existing rows
+ * are then brought over in small batches by the {@link SchemaMigrator} in the
+ * background. Every part of a step must be safe to run again, because the
+ * program may be stopped at any point.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public abstract class MigrationStep {
+
+	/**
+	 * The version of the database once this step has been applied.
+	 */
+	private final int version;
+
+	/**
+	 * Create a new step.
+	 * 
+	 * @param version
+	 *            The version of the database once this step has been applied.
+	 */
+	protected MigrationStep(int version) {
+		this.version = version;
+	}
+
+	/**
+	 * Returns the version of the database once this step has been applied.
+	 * 
+	 * @return The version reached by this step.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Makes the structural changes of this step, such as creating tables and
+	 * adding columns. This should be quick, since the program waits for it.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public abstract void alter(Connection conn) throws SQLException;
+
+	/**
+	 * Brings over the next batch of existing rows. The batch is committed by
+	 * the caller along with the returned position.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param position
+	 *            The position returned by the previous batch, or the empty
+	 *            string for the first batch. (Never null)
+	 * @return The position reached, which must not be empty, or null if there
+	 *         are no more rows. Once null is returned the step is finished and
+	 *         is never called again.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public String backfill(Connection conn, String position)
+			throws SQLException {
+		return null;
+	}
+
+	/**
+	 * Makes the changes that have to wait until every row has been brought
+	 * over, such as dropping old columns.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public void finish(Connection conn) throws SQLException {
+	}
+}
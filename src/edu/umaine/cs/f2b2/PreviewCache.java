@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps recently shown previews, already resized and rotated, in memory. A
+ * preview is stored under the same key as the icon of the image rotated the
+ * same way, so each rotation of an image has its own entry. The least
+ * recently used previews are dropped once their combined size exceeds a
+ * budget.
+ *
+ * @author Mark Royer
+ *
+ */
+public class PreviewCache {
+
+	/**
+	 * The default number of bytes of preview pixels kept in memory.
+	 */
+	static final long DEFAULTMAXBYTES = 64L * 1024 * 1024;
+
+	/**
+	 * Singleton pattern; all images share one cache.
+	 */
+	private static PreviewCache previewCache;
+
+	/**
+	 * Previews kept in memory in least recently used order.
+	 */
+	private LinkedHashMap<String, BufferedImage> previews;
+
+	/**
+	 * The number of bytes used by the previews in memory.
+	 */
+	private long bytes;
+
+	/**
+	 * The number of bytes the previews in memory may use.
+	 */
+	private long maxBytes;
+
+	/**
+	 * Create a new cache.
+	 *
+	 * @param maxBytes
+	 *            The number of bytes the previews in memory may use.
+	 */
+	PreviewCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.previews = new LinkedHashMap<String, BufferedImage>(16, 0.75f,
+				true);
+	}
+
+	/**
+	 * Singleton pattern. The budget of the cache can be given in bytes by the
+	 * system property f2b2.previewCacheBytes.
+	 *
+	 * @return The preview cache. (Never null)
+	 */
+	public static synchronized PreviewCache getPreviewCache() {
+		if (previewCache == null) {
+			previewCache = new PreviewCache(Long.getLong(
+					"f2b2.previewCacheBytes", DEFAULTMAXBYTES));
+		}
+		return previewCache;
+	}
+
+	/**
+	 * Returns the preview stored under the given key.
+	 *
+	 * @param key
+	 *            The key of the preview. (Not null)
+	 * @return The preview or null if it isn't cached.
+	 */
+	public synchronized BufferedImage get(String key) {
+		return previews.get(key);
+	}
+
+	/**
+	 * Stores the preview under the given key. Least recently used previews
+	 * are dropped until the previews fit in the budget.
+	 *
+	 * @param key
+	 *            The key of the preview. (Not null)
+	 * @param preview
+	 *            The preview to store. (Not null)
+	 */
+	public synchronized void put(String key, BufferedImage preview) {
+
+		remove(key);
+
+		previews.put(key, preview);
+		bytes += sizeOf(preview);
+
+		Iterator<BufferedImage> it = previews.values().iterator();
+
+		// Always keep the preview that was just added
+		while (bytes > maxBytes && previews.size() > 1) {
+			bytes -= sizeOf(it.next());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Removes the preview stored under the given key.
+	 *
+	 * @param key
+	 *            The key of the preview. (Not null)
+	 */
+	public synchronized void remove(String key) {
+
+		BufferedImage preview = previews.remove(key);
+
+		if (preview != null) {
+			bytes -= sizeOf(preview);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes used by the previews in memory.
+	 *
+	 * @return The size of the previews in memory.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of bytes used by the pixels of the given preview.
+	 *
+	 * @param preview
+	 *            A preview. (Not null)
+	 * @return The estimated size of the preview in bytes.
+	 */
+	static long sizeOf(BufferedImage preview) {
+		return 4L * preview.getWidth() * preview.getHeight();
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.awt.image.BufferedImage;
+import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Loads the previews shown by the {@link ImageDialog} in the background. The
+ * previews are kept in the {@link PreviewCache}, and after an image is
+ * requested the images that follow it in the direction the user is moving are
+ * loaded too, so stepping through the list doesn't wait for the database or
+ * the decoder. Loads that were queued for an image the user has already moved
+ * past are dropped.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class PreviewLoader implements Runnable {
+
+	/**
+	 * The number of images loaded ahead in the direction of navigation.
+	 */
+	static final int PREFETCH = 2;
+
+	/**
+	 * Receives previews once they are loaded.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called on the event dispatch thread when the preview of the image
+		 * that was last requested has been loaded.
+		 * 
+		 * @param file
+		 *            The image that was requested. (Not null)
+		 * @param preview
+		 *            The image resized and rotated. (Not null)
+		 */
+		void previewLoaded(ImageFile file, BufferedImage preview);
+	}
+
+	/**
+	 * The images that can be shown.
+	 */
+	private ImageJListModel model;
+
+	/**
+	 * Notified when the requested preview is loaded.
+	 */
+	private Listener listener;
+
+	/**
+	 * The images waiting to be loaded, the requested image first.
+	 */
+	private LinkedList<ImageFile> queue;
+
+	/**
+	 * The image that was last requested, or null once it has been delivered.
+	 */
+	private ImageFile requested;
+
+	/**
+	 * The task loading the previews, or null if the loader is stopped.
+	 */
+	private Future<?> task;
+
+	/**
+	 * Create a loader for the images of the given model.
+	 * 
+	 * @param model
+	 *            The list of images. (Not null)
+	 * @param listener
+	 *            Notified when a requested preview is loaded. (Not null)
+	 */
+	public PreviewLoader(ImageJListModel model, Listener listener) {
+		this.model = model;
+		this.listener = listener;
+		this.queue = new LinkedList<ImageFile>();
+
+		synchronized (this) {
+			this.task = TaskExecutors.run(TaskExecutors.io(), this);
+		}
+	}
+
+	/**
+	 * Requests the preview of the image with the given index. If the preview is
+	 * in memory it is returned; otherwise it is loaded in the background and
+	 * given to the listener. Either way the images after it in the given
+	 * direction are loaded ahead, and loads queued by earlier requests are
+	 * dropped.
+	 * 
+	 * @param index
+	 *            The index of the image in the model.
+	 * @param step
+	 *            1 if the user is moving forward through the list and -1 if
+	 *            backward.
+	 * @return The preview or null if it is being loaded.
+	 */
+	public synchronized BufferedImage request(int index, int step) {
+
+		int size = model.getSize();
+
+		queue.clear();
+
+		ImageFile file = model.get(index);
+		BufferedImage preview = file.getCachedRotatedImage();
+
+		if (preview == null) {
+			requested = file;
+			queue.add(file);
+		} else {
+			requested = null;
+		}
+
+		// Load ahead in the direction of travel, and keep the image just
+		// left behind in case the user steps back.
+		for (int i = 1; i <= PREFETCH && i < size; i++) {
+			queue.add(model.get(Math.floorMod(index + i * step, size)));
+		}
+
+		if (size > PREFETCH + 1) {
+			queue.add(model.get(Math.floorMod(index - step, size)));
+		}
+
+		notifyAll();
+
+		return preview;
+	}
+
+	/**
+	 * Stops loading previews.
+	 */
+	public synchronized void stop() {
+		if (task != null) {
+			task.cancel(true);
+			task = null;
+		}
+		queue.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+
+		try {
+			while (true) {
+
+				ImageFile file;
+
+				synchronized (this) {
+					while (queue.isEmpty()) {
+						wait();
+					}
+
+					file = queue.removeFirst();
+
+					if (file != requested
+							&& file.getCachedRotatedImage() != null) {
+						continue;
+					}
+				}
+
+				String key = file.getIconKey();
+				BufferedImage preview;
+
+				// Shared with anything else that asks for the same preview.
+				CompletableFuture<BufferedImage> future = ThumbnailService
+						.getThumbnailService().requestPreview(file);
+
+				try {
+					preview = future.get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					continue;
+				} catch (InterruptedException e) {
+					future.cancel(true);
+					throw e;
+				}
+
+				synchronized (this) {
+
+					if (task == null) {
+						return;
+					}
+
+					// The image may have been rotated while it was loading.
+					if (!key.equals(file.getIconKey())) {
+						if (file == requested) {
+							queue.addFirst(file);
+						}
+						continue;
+					}
+
+					if (file == requested) {
+						requested = null;
+						deliver(file, preview);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// Stopped
+		}
+	}
+
+	/**
+	 * Gives the preview to the listener on the event dispatch thread.
+	 * 
+	 * @param file
+	 *            The image that was requested. (Not null)
+	 * @param preview
+	 *            Its preview. (Not null)
+	 */
+	private void deliver(final ImageFile file, final BufferedImage preview) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				listener.previewLoaded(file, preview);
+			}
+		});
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.awt.event.ActionEvent;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.JOptionPane;
+
+/**
+ * Saves the list of images as a project, or replaces it with a project that
+ * was saved before.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ProjectAction extends AbstractAction {
+
+	/**
+	 * For serializing.
+	 */
+	private static final long serialVersionUID = 6213374418096517294L;
+
+	/**
+	 * What the action does with a project.
+	 * 
+	 * @author Mark Royer
+	 * 
+	 */
+	public enum Kind {
+		SAVE, OPEN
+	};
+
+	/**
+	 * Whether this action saves or opens a project.
+	 */
+	private Kind kind;
+
+	/**
+	 * The program whose list of images is saved or replaced.
+	 */
+	private FFB2 f2b2;
+
+	/**
+	 * Create an action that saves or opens a project.
+	 * 
+	 * @param name
+	 *            The name of the action. (Not null)
+	 * @param kind
+	 *            Whether the action saves or opens a project. (Not null)
+	 * @param f2b2
+	 *            The main 4fb2 program. (Not null)
+	 */
+	public ProjectAction(String name, Kind kind, FFB2 f2b2) {
+		super(name);
+		this.kind = kind;
+		this.f2b2 = f2b2;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * java.awt.event.ActionListener#actionPerformed(java.awt.event.ActionEvent)
+	 */
+	@Override
+	public void actionPerformed(ActionEvent e) {
+
+		try {
+			Connection conn = DBManager.getDerbyConnection();
+			List<String> names = DBManager.getProjectNames(conn);
+			conn.close();
+
+			if (kind == Kind.SAVE) {
+
+				String name = JOptionPane.showInputDialog(f2b2,
+						"Name of the project:", names.isEmpty() ? ""
+								: names.get(0));
+
+				if (name != null && name.trim().length() > 0) {
+					f2b2.saveProject(name.trim());
+				}
+
+			} else if (names.isEmpty()) {
+
+				JOptionPane.showMessageDialog(f2b2,
+						"No projects have been saved.");
+
+			} else {
+
+				String name = (String) JOptionPane.showInputDialog(f2b2,
+						"Project to open:", "Open Project",
+						JOptionPane.QUESTION_MESSAGE, null, names.toArray(),
+						names.get(0));
+
+				if (name != null) {
+					f2b2.openProject(name);
+				}
+			}
+
+		} catch (SQLException e1) {
+			e1.printStackTrace();
+			JOptionPane.showMessageDialog(f2b2, "Unable to "
+					+ (kind == Kind.SAVE ? "save" : "open") + " the project.",
+					"Error", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+}
@@ -21,10 +21,10 @@ package edu.umaine.cs.f2b2;
 import static edu.umaine.cs.f2b2.RotateAction.RotateType.LEFT;
 
 import java.awt.event.ActionEvent;
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.AbstractAction;
-import javax.swing.JOptionPane;
 
 /**
  * Rotates images on a specific list of images.
@@ -93,56 +93,19 @@ public class RotateAction extends AbstractAction {
 			selectedIndexes = list.getSelectedIndices();
 		}
 
-		/*
-		 * For each of the selected images, perform the appropriate rotation.
-		 */
-		for (int i : selectedIndexes) {
-
-			final ImageFile file = model.get(i);
-
-			try {
-
-				switch (rotates) {
-				case LEFT:
-
-					new Thread(new Runnable() {
-
-						public void run() {
-							try {
-								file.rotateLeft();
-							} catch (SQLException e) {
-								e.printStackTrace();
-							}
-							model.fireContentChanged(file);
-						}
-					}).start();
+		List<ImageFile> files = new ArrayList<ImageFile>();
 
-					break;
-				case RIGHT:
-
-					new Thread(new Runnable() {
-
-						public void run() {
-							try {
-								file.rotateRight();
-							} catch (SQLException e) {
-								e.printStackTrace();
-							}
-							model.fireContentChanged(file);
-						}
-					}).start();
-
-					break;
-				}
-
-			} catch (Exception e1) {
-				e1.printStackTrace();
-				JOptionPane.showMessageDialog(null,
-						"Unable to open image file.", "Error",
-						JOptionPane.ERROR_MESSAGE);
+		for (int i : selectedIndexes) {
+			if (i >= 0 && i < model.getSize()) {
+				files.add(model.get(i));
 			}
 		}
 
+		/*
+		 * Rotate all of the selected images as one job.
+		 */
+		TaskExecutors.run(TaskExecutors.io(), new BatchRotateJob(model, files,
+				rotates == LEFT ? -90 : 90));
 	}
 
 }
@@ -18,86 +18,206 @@
  */
 package edu.umaine.cs.f2b2;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.sql.Timestamp;
-
-import javax.imageio.ImageIO;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * Used to check the database for files that have been updated on the file
- * system.
+ * system. The check is meant to run in a low priority background thread. Rows
+ * are checked a chunk at a time and the position reached is saved in the
+ * database, so the next run continues where the last one stopped.
  * 
  * @author Mark Royer
  * 
  */
-public class SanityChecker { // implements Runnable {
+public class SanityChecker implements Runnable {
+
+	/**
+	 * The name the checker saves its position under.
+	 */
+	static final String CHECKPOINT = "sanitychecker";
+
+	/**
+	 * The number of rows checked in each transaction.
+	 */
+	static int CHUNKSIZE = 200;
+
+	/**
+	 * How long to wait before starting the check, so that the program can
+	 * finish starting up first. (milliseconds)
+	 */
+	static long STARTDELAY = 5000;
+
+	/**
+	 * How long to pause between chunks. (milliseconds)
+	 */
+	static long CHUNKPAUSE = 50;
+
+	/**
+	 * Starts checking the database on a low priority background thread.
+	 * 
+	 * @return The future of the check, which can be canceled. (Never null)
+	 */
+	public static Future<?> startInBackground() {
+		return TaskExecutors.run(TaskExecutors.background(),
+				new SanityChecker());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			Thread.sleep(STARTDELAY);
+		} catch (InterruptedException e) {
+			return;
+		}
+
+		checkDatabaseFileReferences();
+	}
 
 	/**
 	 * Checks the database to see if the files have been modified on the file
 	 * system.
 	 */
 	public void checkDatabaseFileReferences() {
-		Connection conn;
 		try {
-			conn = DBManager.getDerbyConnection();
-			conn.setAutoCommit(false);
-			checkDatabaseFileReferences(conn);
-			conn.commit();
+			Connection conn = DBManager.getDerbyConnection();
+
+			try {
+				conn.setAutoCommit(false);
+				checkDatabaseFileReferences(conn);
+				conn.commit();
+			} finally {
+				// Chunks that were committed stay checked.
+				conn.rollback();
+				conn.close();
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Checks images in the database and updates their icons if they have been
-	 * modified in the file system since they were created in the database.
+	 * Checks images in the database and removes their entries if they have
+	 * been deleted or modified in the file system since they were stored in
+	 * the database. Modified images are not loaded here; their icons are
+	 * created again the next time they are needed.
 	 * 
 	 * @param conn
-	 *            A connection to the database. (Not null)
+	 *            A connection to the database. The connection should not be in
+	 *            auto commit mode. (Not null)
 	 * @throws SQLException
 	 *             Thrown if there is a problem connecting to the database.
-	 * @throws IOException
-	 *             Thrown if there is a problem reading the image file from the
-	 *             disk.
 	 */
 	public void checkDatabaseFileReferences(Connection conn)
-			throws SQLException, IOException {
-
-		Statement st = conn.createStatement();
+			throws SQLException {
 
 		DBManager.createTables(conn);
+		conn.commit();
 
-		ResultSet rs = st.executeQuery("SELECT imgpath, moddate FROM images");
+		while (!Thread.currentThread().isInterrupted()) {
 
-		/*
-		 * For each image in the database check to see if it has been altered in
-		 * the file system. If it has, update the image icon in the database.
-		 */
-		while (rs.next()) {
-			File file = new File(rs.getString("imgpath"));
-			Timestamp moddate = rs.getTimestamp("moddate");
+			if (!checkNextChunk(conn)) {
+				// Every image has been checked, so the unused icons are known.
+				DBManager.compactThumbnailPack(conn);
+				break;
+			}
 
-			if (!file.exists()) {
-				DBManager.removeImageFile(conn, file.getAbsolutePath());
-			} else if (moddate.getTime() < file.lastModified()) {
-				// Update the icon to reflect the change in the image
+			try {
+				Thread.sleep(CHUNKPAUSE);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Checks the chunk of images following the saved position and saves the
+	 * position reached, in one transaction.
+	 * 
+	 * @param conn
+	 *            A connection to the database. The connection should not be in
+	 *            auto commit mode. (Not null)
+	 * @return true iff there may be more images to check.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	boolean checkNextChunk(Connection conn) throws SQLException {
+
+		String position = checkChunk(conn,
+				DBManager.getCheckpoint(conn, CHECKPOINT));
+
+		// Remember how far we got in case the program is stopped.
+		DBManager.setCheckpoint(conn, CHECKPOINT, position);
+		conn.commit();
+
+		return position != null;
+	}
+
+	/**
+	 * Checks the next chunk of images following the given position.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @param position
+	 *            The last path that was checked or null to start at the
+	 *            beginning.
+	 * @return The last path checked or null if there were no more images to
+	 *         check.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	String checkChunk(Connection conn, String position) throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT imgpath, "
+				+ "moddate FROM images WHERE imgpath > ? ORDER BY imgpath "
+				+ "FETCH FIRST " + CHUNKSIZE + " ROWS ONLY");
+		ps.setString(1, position == null ? "" : position);
+
+		List<String> paths = new ArrayList<String>();
+		List<Timestamp> moddates = new ArrayList<Timestamp>();
+
+		try {
+			ResultSet rs = ps.executeQuery();
 
-				ImageFile imageFile = new ImageFile(file.getAbsolutePath());
+			while (rs.next()) {
+				paths.add(rs.getString("imgpath"));
+				moddates.add(rs.getTimestamp("moddate"));
+			}
+
+			rs.close();
+		} finally {
+			ps.close();
+		}
+
+		if (paths.isEmpty()) {
+			return null;
+		}
 
-				BufferedImage buff = ImageIO.read(imageFile);
+		/*
+		 * For each image in the chunk check to see if it has been altered in
+		 * the file system. If it has, forget what is stored for it.
+		 */
+		for (int i = 0; i < paths.size(); i++) {
+			File file = new File(paths.get(i));
 
-				DBManager.saveResizedImage(conn, imageFile.getAbsolutePath(),
-						new Timestamp(imageFile.lastModified()),
-						imageFile.getSmallImage(), imageFile.getExtension(),
-						imageFile.getResizedImage(), buff.getWidth(),
-						buff.getHeight());
+			if (!file.exists()
+					|| moddates.get(i).getTime() < file.lastModified()) {
+				DBManager.removeImageFile(conn, paths.get(i));
 			}
 		}
+
+		return paths.get(paths.size() - 1);
 	}
 }
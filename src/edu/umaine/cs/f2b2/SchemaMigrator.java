@@ -0,0 +1,566 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Brings databases created by older versions of the program up to date. The
+ * structural part of every missing {@link MigrationStep} is applied when the
+ * tables are created; the existing rows are then brought over a batch at a
+ * time in a low priority background thread. The position reached by each
+ * step is saved as a checkpoint, so a migration that is stopped continues
+ * where it left off the next time the program runs.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class SchemaMigrator implements Runnable {
+
+	/**
+	 * Prefix of the checkpoints that steps with unfinished batches are saved
+	 * under. The version of the step is appended.
+	 */
+	static final String CHECKPOINT = "migration.";
+
+	/**
+	 * The number of rows brought over in each transaction.
+	 */
+	static int BATCHSIZE = 50;
+
+	/**
+	 * How long to wait before starting, so that the program can finish
+	 * starting up first. (milliseconds)
+	 */
+	static long STARTDELAY = 2000;
+
+	/**
+	 * How long to pause between batches. (milliseconds)
+	 */
+	static long BATCHPAUSE = 50;
+
+	/**
+	 * Every step in the order it is applied. A new layout is added by
+	 * appending a step and increasing {@link DBManager#SCHEMAVERSION}.
+	 */
+	static final List<MigrationStep> steps = new ArrayList<MigrationStep>();
+
+	static {
+		steps.add(new ShareContent());
+		steps.add(new AddFileSize());
+		steps.add(new SplitBlobs());
+		steps.add(new AddLastAccessed());
+		steps.add(new AddPyramid());
+		steps.add(new AddRenditions());
+		steps.add(new AddProjects());
+	}
+
+	/**
+	 * Starts bringing over the rows of unfinished steps on a low priority
+	 * background thread.
+	 * 
+	 * @return The future of the migration, which can be canceled. (Never
+	 *         null)
+	 */
+	public static Future<?> startInBackground() {
+		return TaskExecutors.run(TaskExecutors.background(),
+				new SchemaMigrator());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			Thread.sleep(STARTDELAY);
+		} catch (InterruptedException e) {
+			return;
+		}
+
+		try {
+			Connection conn = DBManager.getDerbyConnection();
+			conn.setAutoCommit(false);
+			completeMigrations(conn);
+			conn.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Applies the structural part of every step the database hasn't reached
+	 * yet and records the new version. The rows of these steps are brought
+	 * over by {@link #completeMigrations(Connection)}. The caller is
+	 * responsible for committing.
+	 * 
+	 * @param conn
+	 *            A connection to the database. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static void alterTables(Connection conn) throws SQLException {
+
+		int version = DBManager.getSchemaVersion(conn);
+
+		for (MigrationStep step : steps) {
+
+			if (step.getVersion() > version) {
+				step.alter(conn);
+
+				DBManager.setCheckpoint(conn, CHECKPOINT + step.getVersion(),
+						"");
+				DBManager.setSchemaVersion(conn, step.getVersion());
+			}
+		}
+	}
+
+	/**
+	 * Brings over the rows of every step that hasn't finished yet, one batch
+	 * per transaction, and then finishes the step. Stops early if the thread
+	 * is interrupted.
+	 * 
+	 * @param conn
+	 *            A connection to the database. The connection should not be in
+	 *            auto commit mode. (Not null)
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	public static void completeMigrations(Connection conn) throws SQLException {
+
+		for (MigrationStep step : steps) {
+
+			String name = CHECKPOINT + step.getVersion();
+			String position = DBManager.getCheckpoint(conn, name);
+
+			// Finished before, or never needed because the tables were new.
+			if (position == null) {
+				continue;
+			}
+
+			while (position != null) {
+
+				if (Thread.currentThread().isInterrupted()) {
+					return;
+				}
+
+				position = step.backfill(conn, position);
+
+				if (position != null) {
+					// Remember how far we got in case the program is stopped.
+					DBManager.setCheckpoint(conn, name, position);
+					conn.commit();
+
+					try {
+						Thread.sleep(BATCHPAUSE);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+
+			step.finish(conn);
+			DBManager.setCheckpoint(conn, name, null);
+			conn.commit();
+		}
+	}
+
+	/**
+	 * Version 1 stores the icons and resized images once per content, keyed
+	 * by the hash of the file, instead of once per path in the images table.
+	 * The old table is renamed and the new tables are created right away; the
+	 * files of the old rows are then hashed a batch at a time and their icons
+	 * and resized images moved under the hash. Rows of files that have
+	 * changed since they were stored are left behind, since they would be
+	 * created again anyway. Until a row has been moved, its icon is simply
+	 * created again if it is needed.
+	 */
+	static class ShareContent extends MigrationStep {
+
+		/**
+		 * The name the images table of version 0 is renamed to.
+		 */
+		static final String OLDIMAGES = "IMAGES_V0";
+
+		ShareContent() {
+			super(1);
+		}
+
+		@Override
+		public void alter(Connection conn) throws SQLException {
+
+			Statement st = conn.createStatement();
+
+			if (DBManager.tableExists(conn, "IMAGES")
+					&& !DBManager.columnExists(conn, "IMAGES", "CONTENTHASH")) {
+				st.execute("RENAME TABLE images TO " + OLDIMAGES);
+			}
+
+			if (!DBManager.tableExists(conn, "IMAGES")) {
+				DBManager.createImageTables(st);
+			}
+
+			if (!DBManager.tableExists(conn, "ICONS")) {
+				DBManager.createBlobTables(st);
+			}
+
+			st.close();
+		}
+
+		@Override
+		public String backfill(Connection conn, String position)
+				throws SQLException {
+
+			if (!DBManager.tableExists(conn, OLDIMAGES)) {
+				return null;
+			}
+
+			PreparedStatement ps = conn.prepareStatement("SELECT imgpath, "
+					+ "moddate FROM " + OLDIMAGES + " WHERE imgpath > ? ORDER BY imgpath "
+					+ "FETCH FIRST " + BATCHSIZE + " ROWS ONLY");
+			ps.setString(1, position);
+
+			ResultSet rs = ps.executeQuery();
+
+			List<String> paths = new ArrayList<String>();
+			List<Timestamp> moddates = new ArrayList<Timestamp>();
+
+			try {
+				while (rs.next()) {
+					paths.add(rs.getString(1));
+					moddates.add(rs.getTimestamp(2));
+				}
+			} finally {
+				rs.close();
+				ps.close();
+			}
+
+			if (paths.isEmpty()) {
+				return null;
+			}
+
+			for (int i = 0; i < paths.size(); i++) {
+				move(conn, paths.get(i), moddates.get(i));
+			}
+
+			return paths.get(paths.size() - 1);
+		}
+
+		/**
+		 * Moves the icon and resized image of one old row under the hash of
+		 * its file, unless the file has changed or the path has been stored
+		 * again since the upgrade.
+		 */
+		private void move(Connection conn, String filePath, Timestamp moddate)
+				throws SQLException {
+
+			File file = new File(filePath);
+
+			if (!file.isFile() || file.lastModified() != moddate.getTime()
+					|| DBManager.getContentHash(conn, filePath) != null) {
+				return;
+			}
+
+			String hash;
+
+			try {
+				hash = ContentHasher.hash(file);
+			} catch (IOException e) {
+				return;
+			}
+
+			PreparedStatement ps = conn.prepareStatement("INSERT INTO images "
+					+ "(imgpath, moddate, filesize, contenthash) "
+					+ "VALUES (?,?,?,?)");
+			ps.setString(1, filePath);
+			ps.setTimestamp(2, moddate);
+			ps.setLong(3, file.length());
+			ps.setString(4, hash);
+			ps.executeUpdate();
+			ps.close();
+
+			// Content that hasn't been used since the upgrade is evicted
+			// first.
+			ps = conn.prepareStatement("INSERT INTO content "
+					+ "(contenthash, originalWidth, originalHeight) "
+					+ "SELECT CAST(? AS CHAR(64)), originalWidth, "
+					+ "originalHeight FROM " + OLDIMAGES + " o "
+					+ "WHERE o.imgpath = ? AND NOT EXISTS "
+					+ "(SELECT contenthash FROM content c "
+					+ "WHERE c.contenthash = ?)");
+			ps.setString(1, hash);
+			ps.setString(2, filePath);
+			ps.setString(3, hash);
+			ps.executeUpdate();
+			ps.close();
+
+			copy(conn, "icons", "icon", hash, filePath);
+			copy(conn, "resized", "img", hash, filePath);
+		}
+
+		/**
+		 * Copies a blob of the given old row into the given table under the
+		 * given hash, unless the table already has one for the hash.
+		 */
+		private void copy(Connection conn, String table, String column,
+				String hash, String filePath) throws SQLException {
+
+			PreparedStatement ps = conn.prepareStatement("INSERT INTO "
+					+ table + " (contenthash, " + column + ") "
+					+ "SELECT CAST(? AS CHAR(64)), o." + column + " FROM "
+					+ OLDIMAGES + " o WHERE o.imgpath = ? AND o." + column
+					+ " IS NOT NULL AND NOT EXISTS "
+					+ "(SELECT contenthash FROM " + table + " t "
+					+ "WHERE t.contenthash = ?)");
+			ps.setString(1, hash);
+			ps.setString(2, filePath);
+			ps.setString(3, hash);
+
+			ps.executeUpdate();
+			ps.close();
+		}
+
+		@Override
+		public void finish(Connection conn) throws SQLException {
+
+			if (DBManager.tableExists(conn, OLDIMAGES)) {
+				Statement st = conn.createStatement();
+				st.execute("DROP TABLE " + OLDIMAGES);
+				st.close();
+			}
+		}
+	}
+
+	/**
+	 * Version 2 records the size of every file, so that files that were
+	 * changed without changing their modification date are noticed.
+	 */
+	static class AddFileSize extends MigrationStep {
+
+		AddFileSize() {
+			super(2);
+		}
+
+		@Override
+		public void alter(Connection conn) throws SQLException {
+
+			if (!DBManager.columnExists(conn, "IMAGES", "FILESIZE")) {
+
+				// Rows without a size are only validated by their
+				// modification date.
+				Statement st = conn.createStatement();
+				st.execute("ALTER TABLE images ADD COLUMN filesize BIGINT");
+				st.close();
+			}
+		}
+	}
+
+	/**
+	 * Version 3 moves the icons and resized images out of the content table
+	 * into tables of their own, so that they are only read when needed. Until
+	 * every row has been copied, icons that haven't been copied yet are
+	 * simply created again when they are needed.
+	 */
+	static class SplitBlobs extends MigrationStep {
+
+		SplitBlobs() {
+			super(3);
+		}
+
+		@Override
+		public void alter(Connection conn) throws SQLException {
+
+			if (!DBManager.tableExists(conn, "ICONS")) {
+				Statement st = conn.createStatement();
+				DBManager.createBlobTables(st);
+				st.close();
+			}
+		}
+
+		@Override
+		public String backfill(Connection conn, String position)
+				throws SQLException {
+
+			if (!DBManager.columnExists(conn, "CONTENT", "ICON")) {
+				return null;
+			}
+
+			PreparedStatement ps = conn.prepareStatement("SELECT "
+					+ "contenthash FROM content WHERE contenthash > ? "
+					+ "ORDER BY contenthash FETCH FIRST " + BATCHSIZE
+					+ " ROWS ONLY");
+			ps.setString(1, position);
+
+			ResultSet rs = ps.executeQuery();
+
+			String last = null;
+
+			while (rs.next()) {
+				last = rs.getString(1);
+			}
+
+			rs.close();
+
+			if (last == null) {
+				return null;
+			}
+
+			// Rows stored since the tables were split are kept.
+			copy(conn, "icons", "icon", position, last);
+			copy(conn, "resized", "img", position, last);
+
+			return last;
+		}
+
+		/**
+		 * Copies the blobs of the content between the given hashes into the
+		 * given table.
+		 */
+		private void copy(Connection conn, String table, String column,
+				String from, String to) throws SQLException {
+
+			PreparedStatement ps = conn.prepareStatement("INSERT INTO "
+					+ table + " (contenthash, " + column + ") "
+					+ "SELECT c.contenthash, c." + column + " FROM content c "
+					+ "WHERE c.contenthash > ? AND c.contenthash <= ? "
+					+ "AND c." + column + " IS NOT NULL AND NOT EXISTS "
+					+ "(SELECT contenthash FROM " + table + " t "
+					+ "WHERE t.contenthash = c.contenthash)");
+			ps.setString(1, from);
+			ps.setString(2, to);
+
+			ps.executeUpdate();
+		}
+
+		@Override
+		public void finish(Connection conn) throws SQLException {
+
+			Statement st = conn.createStatement();
+
+			if (DBManager.columnExists(conn, "CONTENT", "ICON")) {
+				st.execute("ALTER TABLE content DROP COLUMN icon");
+			}
+
+			if (DBManager.columnExists(conn, "CONTENT", "IMG")) {
+				st.execute("ALTER TABLE content DROP COLUMN img");
+			}
+
+			st.close();
+		}
+	}
+
+	/**
+	 * Version 4 records when the content was last used, so that the
+	 * {@link CacheEvictor} can remove the least recently used content first.
+	 * Content that hasn't been used since the upgrade is removed first.
+	 */
+	static class AddLastAccessed extends MigrationStep {
+
+		AddLastAccessed() {
+			super(4);
+		}
+
+		@Override
+		public void alter(Connection conn) throws SQLException {
+
+			if (!DBManager.columnExists(conn, "CONTENT", "LASTACCESSED")) {
+				Statement st = conn.createStatement();
+				st.execute("ALTER TABLE content "
+						+ "ADD COLUMN lastaccessed TIMESTAMP");
+				DBManager.createLastAccessedIndex(st);
+				st.close();
+			}
+		}
+	}
+
+	/**
+	 * Version 5 adds the levels of the {@link ThumbnailPyramid}. They are
+	 * created the first time an image is needed at a size other than its icon.
+	 */
+	static class AddPyramid extends MigrationStep {
+
+		AddPyramid() {
+			super(5);
+		}
+
+		@Override
+		public void alter(Connection conn) throws SQLException {
+
+			if (!DBManager.tableExists(conn, "PYRAMID")) {
+				Statement st = conn.createStatement();
+				DBManager.createPyramidTable(st);
+				st.close();
+			}
+		}
+	}
+
+	/**
+	 * Version 6 keeps the images written with each {@link ExportProfile}, so
+	 * zipping with different profiles doesn't replace each other's images.
+	 */
+	static class AddRenditions extends MigrationStep {
+
+		AddRenditions() {
+			super(6);
+		}
+
+		@Override
+		public void alter(Connection conn) throws SQLException {
+
+			if (!DBManager.tableExists(conn, "RENDITIONS")) {
+				Statement st = conn.createStatement();
+				DBManager.createRenditionsTable(st);
+				st.close();
+			}
+		}
+	}
+
+	/**
+	 * Version 7 keeps saved lists of images, so that a list and the rotations
+	 * of its images can be opened again after the program is restarted.
+	 */
+	static class AddProjects extends MigrationStep {
+
+		AddProjects() {
+			super(7);
+		}
+
+		@Override
+		public void alter(Connection conn) throws SQLException {
+
+			if (!DBManager.tableExists(conn, "PROJECTS")) {
+				Statement st = conn.createStatement();
+				DBManager.createProjectTables(st);
+				st.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads all work in the program runs on. Work is split by what it
+ * waits for:
+ * <ul>
+ * <li>{@link #io()} runs work that mostly waits for files and the database,
+ * such as looking up icons and writing zip files. It uses virtual threads
+ * when the Java platform has them, and otherwise a pool that grows as
+ * needed.</li>
+ * <li>{@link #cpu()} runs work that keeps a processor busy, such as decoding,
+ * scaling and encoding images, on one thread per processor.</li>
+ * <li>{@link #background()} runs the long running low priority services that
+ * keep the database in order.</li>
+ * </ul>
+ * Work started with {@link #run(ExecutorService, Runnable)} reports its
+ * errors when it fails, and can be canceled through the returned future,
+ * which interrupts it.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class TaskExecutors {
+
+	/**
+	 * Runs work that waits for files and the database.
+	 */
+	private static ExecutorService io;
+
+	/**
+	 * Runs work that keeps a processor busy.
+	 */
+	private static ExecutorService cpu;
+
+	/**
+	 * Runs the low priority background services.
+	 */
+	private static ExecutorService background;
+
+	/**
+	 * Returns the executor for work that mostly waits for files and the
+	 * database. Each task gets its own thread, so tasks never wait for each
+	 * other to finish.
+	 * 
+	 * @return The I/O executor. (Never null)
+	 */
+	public static synchronized ExecutorService io() {
+		if (io == null) {
+			io = newVirtualThreadExecutor();
+
+			if (io == null) {
+				io = Executors.newCachedThreadPool(new DaemonThreadFactory(
+						"4fb2-io", Thread.NORM_PRIORITY));
+			}
+		}
+		return io;
+	}
+
+	/**
+	 * Returns the executor for work that keeps a processor busy. It has one
+	 * thread for each processor unless the number is given by the system
+	 * property f2b2.cpuThreads; tasks beyond that wait their turn.
+	 * 
+	 * @return The CPU executor. (Never null)
+	 */
+	public static synchronized ExecutorService cpu() {
+		if (cpu == null) {
+			int threads = Integer.getInteger("f2b2.cpuThreads", Runtime
+					.getRuntime().availableProcessors());
+
+			cpu = Executors.newFixedThreadPool(Math.max(1, threads),
+					new DaemonThreadFactory("4fb2-cpu", Thread.NORM_PRIORITY));
+		}
+		return cpu;
+	}
+
+	/**
+	 * Returns the executor for services that run as long as the program and
+	 * shouldn't slow down the user's work.
+	 * 
+	 * @return The background executor. (Never null)
+	 */
+	public static synchronized ExecutorService background() {
+		if (background == null) {
+			background = Executors.newCachedThreadPool(new DaemonThreadFactory(
+					"4fb2-background", Thread.MIN_PRIORITY));
+		}
+		return background;
+	}
+
+	/**
+	 * Runs the given task on the given executor. If the task fails, its error
+	 * is printed; it can also be retrieved from the returned future.
+	 * Canceling the future interrupts the task.
+	 * 
+	 * @param executor
+	 *            One of the executors of this class. (Not null)
+	 * @param task
+	 *            The work to do. (Not null)
+	 * @return The future of the task. (Never null)
+	 */
+	public static Future<?> run(ExecutorService executor, Runnable task) {
+		ReportingTask<Object> future = new ReportingTask<Object>(
+				Executors.callable(task));
+		executor.execute(future);
+		return future;
+	}
+
+	/**
+	 * Returns the result of the given future, waiting for it if needed. An
+	 * error of the task is thrown as it was thrown by the task when it is
+	 * unchecked or one of the given type.
+	 * 
+	 * @param future
+	 *            The future of a task. (Not null)
+	 * @param type
+	 *            The type of checked exception the task throws. (Not null)
+	 * @return The result of the task.
+	 * @throws E
+	 *             The error of the task.
+	 * @throws InterruptedException
+	 *             Thrown if the thread is interrupted while waiting.
+	 */
+	public static <T, E extends Exception> T get(Future<T> future,
+			Class<E> type) throws E, InterruptedException {
+
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (type.isInstance(cause)) {
+				throw type.cast(cause);
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Creates an executor that starts a virtual thread for each task, if the
+	 * Java platform supports them. The method is looked up at run time so the
+	 * program still runs on older platforms.
+	 * 
+	 * @return The executor or null if virtual threads aren't supported.
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A task that prints its error when it fails.
+	 */
+	private static class ReportingTask<T> extends FutureTask<T> {
+
+		ReportingTask(Callable<T> callable) {
+			super(callable);
+		}
+
+		@Override
+		protected void done() {
+			try {
+				get();
+			} catch (CancellationException e) {
+				// Canceled on purpose
+			} catch (InterruptedException e) {
+				// Not possible, the task is done
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Creates named daemon threads of a given priority.
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		/**
+		 * The beginning of the names of the threads.
+		 */
+		private final String prefix;
+
+		/**
+		 * The priority of the threads.
+		 */
+		private final int priority;
+
+		/**
+		 * The number of threads created so far.
+		 */
+		private final AtomicInteger count = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix, int priority) {
+			this.prefix = prefix;
+			this.priority = priority;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + "-"
+					+ count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(priority);
+			return thread;
+		}
+	}
+}
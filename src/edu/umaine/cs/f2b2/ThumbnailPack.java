@@ -0,0 +1,553 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+
+import javax.swing.ImageIcon;
+
+/**
+ * An append-only file of icons keyed by the hash of the content of their
+ * images. The file is read through a memory mapped buffer, so reading an icon
+ * only copies its pixels out of the mapped file. The position of each icon is
+ * kept in an index outside of the Java heap, which is rebuilt from the file
+ * when it is opened.
+ *
+ * Each record in the file is the 32 byte content hash, the width and height of
+ * the icon, and its pixels as ARGB integers.
+ *
+ * @author Mark Royer
+ *
+ */
+public class ThumbnailPack {
+
+	/**
+	 * The number of bytes in a content hash.
+	 */
+	static final int HASHBYTES = ContentHasher.HASHLENGTH / 2;
+
+	/**
+	 * The number of bytes in front of the pixels of each record.
+	 */
+	static final int RECORDHEADER = HASHBYTES + 8;
+
+	/**
+	 * The name of the pack file in the database directory.
+	 */
+	static final String FILENAME = "thumbnails.pack";
+
+	/**
+	 * Singleton pattern; the program uses one pack file.
+	 */
+	private static ThumbnailPack thumbnailPack;
+
+	/**
+	 * The pack file.
+	 */
+	private File file;
+
+	/**
+	 * The open pack file.
+	 */
+	private RandomAccessFile raf;
+
+	/**
+	 * Channel used to append to and map the pack file.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * The pack file mapped into memory. May be shorter than the file if
+	 * records were appended since it was mapped.
+	 */
+	private MappedByteBuffer mapped;
+
+	/**
+	 * The length of the valid part of the pack file.
+	 */
+	private long length;
+
+	/**
+	 * The position of each record in the pack file.
+	 */
+	private Index index;
+
+	/**
+	 * Opens the pack file, creating it if it doesn't exist.
+	 *
+	 * @param file
+	 *            The pack file. (Not null)
+	 * @throws IOException
+	 *             Thrown if there is a problem reading the file.
+	 */
+	public ThumbnailPack(File file) throws IOException {
+		this.file = file;
+		open();
+	}
+
+	/**
+	 * Returns the pack file of the database, opening it the first time.
+	 *
+	 * @return The pack file. (Never null)
+	 * @throws IOException
+	 *             Thrown if there is a problem opening the file.
+	 */
+	public static synchronized ThumbnailPack getThumbnailPack()
+			throws IOException {
+		if (thumbnailPack == null) {
+			new File(DBManager.getDatabaseLocation()).mkdirs();
+			thumbnailPack = new ThumbnailPack(new File(
+					DBManager.getDatabaseLocation(), FILENAME));
+		}
+		return thumbnailPack;
+	}
+
+	/**
+	 * Opens the file and indexes its records. An incomplete record at the end
+	 * of the file, left by a crash, is cut off.
+	 *
+	 * @throws IOException
+	 *             Thrown if there is a problem reading the file.
+	 */
+	private void open() throws IOException {
+
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+
+		if (channel.size() > Integer.MAX_VALUE) {
+			throw new IOException(file + " is too large");
+		}
+
+		mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		index = new Index(1024);
+
+		byte[] hash = new byte[HASHBYTES];
+		int position = 0;
+
+		while (position + RECORDHEADER <= mapped.limit()) {
+
+			mapped.position(position);
+			mapped.get(hash);
+
+			int width = mapped.getInt();
+			int height = mapped.getInt();
+			long recordLength = RECORDHEADER + 4L * width * height;
+
+			if (width < 0 || height < 0
+					|| position + recordLength > mapped.limit()) {
+				break;
+			}
+
+			index.put(hash, position);
+			position += (int) recordLength;
+		}
+
+		length = position;
+
+		if (length < channel.size()) {
+			channel.truncate(length);
+		}
+	}
+
+	/**
+	 * Returns true iff there is an icon for the given content hash.
+	 *
+	 * @param hash
+	 *            The hash of the image's content. (Not null)
+	 * @return true iff the icon is in the pack.
+	 */
+	public synchronized boolean contains(String hash) {
+		return index.get(toBytes(hash)) >= 0;
+	}
+
+	/**
+	 * Returns the icon for the given content hash.
+	 *
+	 * @param hash
+	 *            The hash of the image's content. (Not null)
+	 * @return The icon or null if it isn't in the pack.
+	 * @throws IOException
+	 *             Thrown if there is a problem mapping the file.
+	 */
+	public synchronized ImageIcon get(String hash) throws IOException {
+
+		long position = index.get(toBytes(hash));
+
+		if (position < 0) {
+			return null;
+		}
+
+		if (position + RECORDHEADER > mapped.limit()) {
+			remap();
+		}
+
+		int width = mapped.getInt((int) position + HASHBYTES);
+		int height = mapped.getInt((int) position + HASHBYTES + 4);
+		int pixelStart = (int) position + RECORDHEADER;
+
+		if (pixelStart + 4L * width * height > mapped.limit()) {
+			remap();
+		}
+
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+				.getData();
+
+		ByteBuffer slice = mapped.duplicate();
+		slice.limit(pixelStart + 4 * pixels.length);
+		slice.position(pixelStart);
+		slice.slice().asIntBuffer().get(pixels);
+
+		return new ImageIcon(image);
+	}
+
+	/**
+	 * Appends the given icon to the pack unless there already is an icon for
+	 * the content hash.
+	 *
+	 * @param hash
+	 *            The hash of the image's content. (Not null)
+	 * @param icon
+	 *            The icon of the image. (Not null)
+	 * @throws IOException
+	 *             Thrown if there is a problem writing the file.
+	 */
+	public synchronized void put(String hash, ImageIcon icon)
+			throws IOException {
+
+		byte[] hashBytes = toBytes(hash);
+
+		if (index.get(hashBytes) >= 0) {
+			return;
+		}
+
+		int width = icon.getIconWidth();
+		int height = icon.getIconHeight();
+
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		g.drawImage(icon.getImage(), 0, 0, null);
+		g.dispose();
+
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+				.getData();
+
+		if (length + RECORDHEADER + 4L * pixels.length > Integer.MAX_VALUE) {
+			throw new IOException(file + " is full");
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(RECORDHEADER + 4
+				* pixels.length);
+		record.put(hashBytes);
+		record.putInt(width);
+		record.putInt(height);
+		record.asIntBuffer().put(pixels);
+
+		writeFully(record, length);
+
+		index.put(hashBytes, length);
+		length += record.capacity();
+	}
+
+	/**
+	 * Rewrites the pack so that it only contains the icons of the given
+	 * content hashes.
+	 *
+	 * @param liveHashes
+	 *            The hashes of the icons to keep. (Not null)
+	 * @throws IOException
+	 *             Thrown if there is a problem writing the file.
+	 */
+	public synchronized void compact(Collection<String> liveHashes)
+			throws IOException {
+
+		if (mapped.limit() < length) {
+			remap();
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+
+		try {
+			out.setLength(0);
+			FileChannel outChannel = out.getChannel();
+
+			for (String hash : liveHashes) {
+				long position = index.get(toBytes(hash));
+
+				if (position >= 0) {
+					long recordLength = RECORDHEADER + 4L
+							* mapped.getInt((int) position + HASHBYTES)
+							* mapped.getInt((int) position + HASHBYTES + 4);
+
+					channel.transferTo(position, recordLength, outChannel);
+				}
+			}
+
+			outChannel.force(true);
+		} finally {
+			out.close();
+		}
+
+		close();
+
+		Files.move(tmp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+
+		open();
+	}
+
+	/**
+	 * Returns the number of icons in the pack, including ones that are no
+	 * longer used.
+	 *
+	 * @return The number of records in the pack.
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * Closes the pack file.
+	 *
+	 * @throws IOException
+	 *             Thrown if there is a problem closing the file.
+	 */
+	public synchronized void close() throws IOException {
+		mapped = null;
+		channel.close();
+		raf.close();
+	}
+
+	/**
+	 * Maps the pack file again after records have been appended to it.
+	 *
+	 * @throws IOException
+	 *             Thrown if there is a problem mapping the file.
+	 */
+	private void remap() throws IOException {
+		mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+	}
+
+	/**
+	 * Writes the whole buffer to the pack file at the given position.
+	 *
+	 * @param buffer
+	 *            The bytes to write. (Not null)
+	 * @param position
+	 *            The position in the file.
+	 * @throws IOException
+	 *             Thrown if there is a problem writing the file.
+	 */
+	private void writeFully(ByteBuffer buffer, long position)
+			throws IOException {
+		buffer.rewind();
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Converts a hexadecimal content hash into bytes.
+	 *
+	 * @param hash
+	 *            The hash returned by {@link ContentHasher}. (Not null)
+	 * @return The bytes of the hash. (Never null)
+	 */
+	static byte[] toBytes(String hash) {
+		byte[] result = new byte[HASHBYTES];
+		for (int i = 0; i < HASHBYTES; i++) {
+			result[i] = (byte) Integer.parseInt(
+					hash.substring(2 * i, 2 * i + 2), 16);
+		}
+		return result;
+	}
+
+	/**
+	 * A hash table from content hashes to positions in the pack file. The
+	 * table is stored in a direct buffer using open addressing, so it doesn't
+	 * add objects to the Java heap for each icon.
+	 */
+	static class Index {
+
+		/**
+		 * The bytes used by each slot: the hash followed by the position plus
+		 * one, so that an empty slot is zero.
+		 */
+		private static final int SLOTBYTES = HASHBYTES + 8;
+
+		/**
+		 * The slots of the table.
+		 */
+		private ByteBuffer slots;
+
+		/**
+		 * The number of slots in the table. Always a power of two.
+		 */
+		private int capacity;
+
+		/**
+		 * The number of used slots.
+		 */
+		private int size;
+
+		/**
+		 * Create an index with room for the given number of slots.
+		 *
+		 * @param capacity
+		 *            The number of slots. Must be a power of two.
+		 */
+		Index(int capacity) {
+			this.capacity = capacity;
+			this.slots = ByteBuffer.allocateDirect(capacity * SLOTBYTES);
+		}
+
+		/**
+		 * Returns the position stored for the given hash.
+		 *
+		 * @param hash
+		 *            The bytes of a content hash. (Not null)
+		 * @return The position or -1 if the hash isn't in the index.
+		 */
+		long get(byte[] hash) {
+			int slot = find(hash);
+			long stored = slots.getLong(slot * SLOTBYTES + HASHBYTES);
+			return stored - 1;
+		}
+
+		/**
+		 * Stores the position for the given hash.
+		 *
+		 * @param hash
+		 *            The bytes of a content hash. (Not null)
+		 * @param position
+		 *            The position of the record in the pack file.
+		 */
+		void put(byte[] hash, long position) {
+
+			if ((size + 1) * 10 > capacity * 7) {
+				grow();
+			}
+
+			int slot = find(hash);
+			int offset = slot * SLOTBYTES;
+
+			if (slots.getLong(offset + HASHBYTES) == 0) {
+				size++;
+			}
+
+			for (int i = 0; i < HASHBYTES; i++) {
+				slots.put(offset + i, hash[i]);
+			}
+			slots.putLong(offset + HASHBYTES, position + 1);
+		}
+
+		/**
+		 * @return The number of hashes in the index.
+		 */
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the slot holding the given hash or the empty slot where it
+		 * belongs.
+		 *
+		 * @param hash
+		 *            The bytes of a content hash. (Not null)
+		 * @return The index of the slot.
+		 */
+		private int find(byte[] hash) {
+
+			// The hash is already uniformly distributed.
+			int slot = ((hash[0] & 0xFF) << 24 | (hash[1] & 0xFF) << 16
+					| (hash[2] & 0xFF) << 8 | (hash[3] & 0xFF))
+					& (capacity - 1);
+
+			while (true) {
+				int offset = slot * SLOTBYTES;
+
+				if (slots.getLong(offset + HASHBYTES) == 0
+						|| equalsHash(offset, hash)) {
+					return slot;
+				}
+
+				slot = (slot + 1) & (capacity - 1);
+			}
+		}
+
+		/**
+		 * Returns true iff the slot at the given offset holds the given hash.
+		 *
+		 * @param offset
+		 *            The offset of the slot in bytes.
+		 * @param hash
+		 *            The bytes of a content hash. (Not null)
+		 * @return true iff the hashes are the same.
+		 */
+		private boolean equalsHash(int offset, byte[] hash) {
+			for (int i = 0; i < HASHBYTES; i++) {
+				if (slots.get(offset + i) != hash[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Doubles the number of slots.
+		 */
+		private void grow() {
+
+			ByteBuffer old = slots;
+			int oldCapacity = capacity;
+
+			capacity *= 2;
+			slots = ByteBuffer.allocateDirect(capacity * SLOTBYTES);
+			size = 0;
+
+			byte[] hash = new byte[HASHBYTES];
+
+			for (int slot = 0; slot < oldCapacity; slot++) {
+				int offset = slot * SLOTBYTES;
+				long stored = old.getLong(offset + HASHBYTES);
+
+				if (stored != 0) {
+					for (int i = 0; i < HASHBYTES; i++) {
+						hash[i] = old.get(offset + i);
+					}
+					put(hash, stored - 1);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Creates copies of an image at a fixed set of sizes, each half the size of
+ * the next. Once the levels are stored, an image of any size up to the
+ * largest level is made by scaling down the nearest larger level instead of
+ * decoding the original file again.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ThumbnailPyramid {
+
+	/**
+	 * The largest width or height of the image at each level, smallest first.
+	 */
+	public static final int[] LEVELS = { 64, 128, 256, 512, 1024, 2048 };
+
+	/**
+	 * Returns the smallest level that is at least as large as the given size.
+	 * 
+	 * @param size
+	 *            The largest width or height that is needed.
+	 * @return The level or -1 if the size is larger than every level.
+	 */
+	public static int levelFor(int size) {
+
+		for (int level : LEVELS) {
+			if (level >= size) {
+				return level;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Creates every level of the given image. Each level is scaled from the
+	 * level above it, so the original is only scaled once. Images are never
+	 * scaled up; levels larger than the original hold an image of the
+	 * original's size.
+	 * 
+	 * @param original
+	 *            The decoded image. (Not null)
+	 * @return The images keyed by their level. (Never null)
+	 */
+	public static SortedMap<Integer, BufferedImage> build(BufferedImage original) {
+
+		SortedMap<Integer, BufferedImage> result = new TreeMap<Integer, BufferedImage>();
+
+		BufferedImage previous = original;
+
+		for (int i = LEVELS.length - 1; i >= 0; i--) {
+			previous = scaleToFit(previous, LEVELS[i]);
+			result.put(LEVELS[i], previous);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the given image scaled so that neither its width nor its height
+	 * is larger than the given size. The ratio of width to height is kept.
+	 * Images more than twice as large as the result are halved repeatedly
+	 * first, so that every pixel is averaged into the result.
+	 * 
+	 * @param image
+	 *            The image to scale. (Not null)
+	 * @param size
+	 *            The largest width or height of the result.
+	 * @return The scaled image, or the given image if it is small enough.
+	 *         (Never null)
+	 */
+	public static BufferedImage scaleToFit(BufferedImage image, int size) {
+
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		if (width <= size && height <= size) {
+			return image;
+		}
+
+		if (width >= height) {
+			height = Math.max(1, (int) ((height / (double) width) * size));
+			width = size;
+		} else {
+			width = Math.max(1, (int) ((width / (double) height) * size));
+			height = size;
+		}
+
+		BufferedImage result = image;
+
+		do {
+			result = scale(result, Math.max(width, result.getWidth() / 2),
+					Math.max(height, result.getHeight() / 2));
+		} while (result.getWidth() != width || result.getHeight() != height);
+
+		return result;
+	}
+
+	/**
+	 * Returns the given image scaled to the given size, which is at least
+	 * half of its size.
+	 * 
+	 * @param image
+	 *            The image to scale. (Not null)
+	 * @param width
+	 *            The width of the result.
+	 * @param height
+	 *            The height of the result.
+	 * @return The scaled image. (Never null)
+	 */
+	private static BufferedImage scale(BufferedImage image, int width,
+			int height) {
+
+		BufferedImage result = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+
+		Graphics2D g = result.createGraphics();
+
+		// The result is at least half the size of the image, so bilinear
+		// filtering, which reads two pixels in each direction, doesn't skip
+		// any.
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(image, 0, 0, width, height, null);
+		g.dispose();
+
+		return result;
+	}
+}
@@ -0,0 +1,322 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Gives out scaled and rotated images, the previews shown by the
+ * {@link ImageDialog} and the images written to zip files without blocking
+ * the caller. Each request returns a future that is completed on the
+ * service's executor, and requests for work that is already being done share
+ * it, so the work is only done once however many parts of the program ask for
+ * it. Every caller gets its own future, so canceling one doesn't affect the
+ * others; work that every caller has canceled before it starts is skipped.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ThumbnailService {
+
+	/**
+	 * Singleton pattern; the whole program shares one service.
+	 */
+	private static ThumbnailService thumbnailService;
+
+	/**
+	 * Runs the requests.
+	 */
+	private Executor executor;
+
+	/**
+	 * The requests that haven't completed yet, keyed by
+	 * {@link #getKey(ImageFile, int, String)}. Also guards the callers of
+	 * each request.
+	 */
+	private Map<String, Request<?>> pending;
+
+	/**
+	 * Create a service that runs its requests on the given executor.
+	 * 
+	 * @param executor
+	 *            Runs the requests. (Not null)
+	 */
+	public ThumbnailService(Executor executor) {
+		this.executor = executor;
+		this.pending = new HashMap<String, Request<?>>();
+	}
+
+	/**
+	 * Singleton pattern. The requests run on the CPU threads of
+	 * {@link TaskExecutors}; the {@link MemoryGovernor} keeps them from
+	 * decoding more than fits in memory.
+	 * 
+	 * @return The thumbnail service. (Never null)
+	 */
+	public static synchronized ThumbnailService getThumbnailService() {
+		if (thumbnailService == null) {
+			thumbnailService = new ThumbnailService(TaskExecutors.cpu());
+		}
+		return thumbnailService;
+	}
+
+	/**
+	 * Requests the given image, as it is currently rotated, scaled to fit in
+	 * a square of the given size. Images are never scaled up.
+	 * 
+	 * @param file
+	 *            The image. (Not null)
+	 * @param size
+	 *            The largest width or height of the result.
+	 * @return A future completed with the image, or exceptionally if it can't
+	 *         be read. The image is shared and must not be modified. (Never
+	 *         null)
+	 */
+	public CompletableFuture<BufferedImage> request(final ImageFile file,
+			final int size) {
+
+		final int degrees = file.getRotation();
+
+		return submit(getKey(file, degrees, "#" + size),
+				new Callable<BufferedImage>() {
+					@Override
+					public BufferedImage call() throws Exception {
+
+						BufferedImage image = file.getImage(size);
+
+						if (degrees != 0) {
+							image = file.getScaledInstance(image.getWidth(),
+									image.getHeight(), image, degrees);
+						}
+
+						return image;
+					}
+				});
+	}
+
+	/**
+	 * Requests the preview of the given image, as it is currently rotated,
+	 * that the {@link ImageDialog} shows. See
+	 * {@link ImageFile#getRotatedImage()}.
+	 * 
+	 * @param file
+	 *            The image. (Not null)
+	 * @return A future completed with the preview, or exceptionally if it
+	 *         can't be read. The preview is shared and must not be modified.
+	 *         (Never null)
+	 */
+	public CompletableFuture<BufferedImage> requestPreview(final ImageFile file) {
+
+		final int degrees = file.getRotation();
+
+		return submit(getKey(file, degrees, "#preview"),
+				new Callable<BufferedImage>() {
+					@Override
+					public BufferedImage call() throws Exception {
+						return file.getRotatedImage(degrees);
+					}
+				});
+	}
+
+	/**
+	 * Requests the given image, as it is currently rotated, written with the
+	 * given profile. See {@link ImageFile#getRendition(ExportProfile)}.
+	 * 
+	 * @param file
+	 *            The image. (Not null)
+	 * @param profile
+	 *            The profile the image is written with. (Not null)
+	 * @return A future completed with the bytes of the written image, or
+	 *         exceptionally with an IOException if it can't be written.
+	 *         (Never null)
+	 */
+	public CompletableFuture<byte[]> requestRendition(final ImageFile file,
+			final ExportProfile profile) {
+
+		return submit(getKey(file, file.getRotation(), "!"
+				+ profile.getCacheKey(file.getZipName())),
+				new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						try {
+							return file.getRendition(profile);
+						} catch (SQLException e) {
+							throw new IOException(e);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Runs the given work on the executor unless work with the same key is
+	 * pending, in which case the caller shares its result.
+	 * 
+	 * @param key
+	 *            Identifies the work. (Not null)
+	 * @param work
+	 *            The work to do. (Not null)
+	 * @return The caller's future of the result. (Never null)
+	 */
+	private <T> CompletableFuture<T> submit(final String key,
+			final Callable<T> work) {
+
+		final Request<T> request;
+		CompletableFuture<T> result;
+
+		synchronized (pending) {
+			@SuppressWarnings("unchecked")
+			Request<T> running = (Request<T>) pending.get(key);
+
+			if (running != null) {
+				return running.share();
+			}
+
+			request = new Request<T>();
+			pending.put(key, request);
+
+			result = request.share();
+		}
+
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+
+				synchronized (pending) {
+					if (request.isAbandoned()) {
+						pending.remove(key);
+						request.future.cancel(false);
+						return;
+					}
+				}
+
+				try {
+					T value = work.call();
+
+					done(key);
+					request.future.complete(value);
+
+				} catch (Throwable e) {
+					done(key);
+					request.future.completeExceptionally(e);
+				}
+			}
+		};
+
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			done(key);
+			request.future.completeExceptionally(e);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Forgets the request with the given key, so that later requests start
+	 * over. This is done before its future is completed.
+	 * 
+	 * @param key
+	 *            The key of the request. (Not null)
+	 */
+	private void done(String key) {
+		synchronized (pending) {
+			pending.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the number of requests that haven't completed.
+	 * 
+	 * @return The number of pending requests.
+	 */
+	public int getPendingCount() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	/**
+	 * Returns the key requests for the given image are shared under.
+	 * 
+	 * @param file
+	 *            The image. (Not null)
+	 * @param degrees
+	 *            The rotation of the image.
+	 * @param kind
+	 *            What is made of the image, such as its size. (Not null)
+	 * @return The key. (Never null)
+	 */
+	private static String getKey(ImageFile file, int degrees, String kind) {
+		return file.getAbsolutePath() + "@" + degrees + kind;
+	}
+
+	/**
+	 * Work that is pending and the futures given to its callers.
+	 */
+	private static class Request<T> {
+
+		/**
+		 * Completed when the work is done.
+		 */
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+
+		/**
+		 * The future given to each caller.
+		 */
+		final List<CompletableFuture<T>> callers = new ArrayList<CompletableFuture<T>>();
+
+		/**
+		 * Returns a new future for a caller that completes with the work.
+		 * 
+		 * @return The caller's future. (Never null)
+		 */
+		CompletableFuture<T> share() {
+			CompletableFuture<T> caller = future.thenApply(Function
+					.<T> identity());
+			callers.add(caller);
+			return caller;
+		}
+
+		/**
+		 * Returns true iff every caller has canceled its future.
+		 * 
+		 * @return True iff nobody waits for the work.
+		 */
+		boolean isAbandoned() {
+			for (CompletableFuture<T> caller : callers) {
+				if (!caller.isCancelled()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
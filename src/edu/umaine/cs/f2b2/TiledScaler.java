@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+
+/**
+ * Scales down images that are too large to decode at once, such as
+ * panoramas and scanned maps. The image is read one horizontal stripe at a
+ * time, every pixel of a stripe is added to the output pixel it falls in, and
+ * each output pixel becomes the average of its pixels. Memory use is
+ * proportional to the size of the output plus one stripe, not to the size of
+ * the image.
+ * <p>
+ * Readers decode an image from its start, so every stripe decodes the rows
+ * above it again. Stripes are read with source subsampling, which keeps them
+ * small in memory even when they cover many rows, so only a few are needed.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class TiledScaler {
+
+	/**
+	 * Images with more pixels than this are scaled a stripe at a time;
+	 * smaller images are decoded at once.
+	 */
+	static long THRESHOLD = 24L * 1000 * 1000;
+
+	/**
+	 * The number of decoded pixels in each stripe.
+	 */
+	static long STRIPEPIXELS = 4L * 1024 * 1024;
+
+	/**
+	 * Returns the image in the given file scaled so that neither its width
+	 * nor its height is larger than the given size.
+	 * 
+	 * @param file
+	 *            The image file. (Not null)
+	 * @param maxWidthOrHeight
+	 *            The largest width or height of the result.
+	 * @return The scaled image. (Never null)
+	 * @throws IOException
+	 *             Thrown if the file can't be read or isn't a supported image.
+	 */
+	public static BufferedImage scale(File file, final int maxWidthOrHeight)
+			throws IOException {
+
+		Dimension d = ImageDecoder.probe(file);
+
+		if ((long) d.width * d.height <= THRESHOLD) {
+			return ThumbnailPyramid.scaleToFit(ImageDecoder.read(file),
+					maxWidthOrHeight);
+		}
+
+		// The stripes are read with the thread's pooled reader.
+		return ImageDecoder.read(file,
+				new ImageDecoder.ReaderTask<BufferedImage>() {
+					@Override
+					public BufferedImage read(ImageReader reader)
+							throws IOException {
+						return scale(reader, maxWidthOrHeight);
+					}
+				});
+	}
+
+	/**
+	 * Scales the image of the given reader a stripe at a time.
+	 * 
+	 * @param reader
+	 *            A reader whose input has been set. (Not null)
+	 * @param maxWidthOrHeight
+	 *            The largest width or height of the result.
+	 * @return The scaled image. (Never null)
+	 * @throws IOException
+	 *             Thrown if the image can't be read.
+	 */
+	static BufferedImage scale(ImageReader reader, int maxWidthOrHeight)
+			throws IOException {
+
+		int width = reader.getWidth(0);
+		int height = reader.getHeight(0);
+
+		int outWidth = width;
+		int outHeight = height;
+
+		if (width > maxWidthOrHeight || height > maxWidthOrHeight) {
+			if (width >= height) {
+				outWidth = maxWidthOrHeight;
+				outHeight = Math.max(1,
+						(int) ((height / (double) width) * maxWidthOrHeight));
+			} else {
+				outHeight = maxWidthOrHeight;
+				outWidth = Math.max(1,
+						(int) ((width / (double) height) * maxWidthOrHeight));
+			}
+		}
+
+		// Reading every pixel isn't needed for a good average; two source
+		// pixels per output pixel in each direction are enough.
+		int subsampling = Math.max(1,
+				Math.min(width / (2 * outWidth), height / (2 * outHeight)));
+
+		int rowWidth = (width + subsampling - 1) / subsampling;
+
+		// A whole number of subsampled rows in each stripe.
+		int stripeRows = (int) Math.max(1,
+				Math.min(height, STRIPEPIXELS / rowWidth)) * subsampling;
+
+		// Both directions are scaled by the same factor, so each output
+		// pixel only sums a few subsampled pixels and ints can't overflow.
+		int[] red = new int[outWidth * outHeight];
+		int[] green = new int[outWidth * outHeight];
+		int[] blue = new int[outWidth * outHeight];
+		int[] counts = new int[outWidth * outHeight];
+
+		// Output column of each subsampled column.
+		int[] columns = new int[rowWidth];
+		for (int i = 0; i < rowWidth; i++) {
+			columns[i] = (int) ((long) i * subsampling * outWidth / width);
+		}
+
+		int[] row = new int[rowWidth];
+		BufferedImage stripe = null;
+
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+		for (int y = 0; y < height; y += stripeRows) {
+
+			int rows = Math.min(stripeRows, height - y);
+
+			param.setSourceRegion(new Rectangle(0, y, width, rows));
+
+			// Stripes of the same size are read into the same image.
+			int stripeHeight = (rows + subsampling - 1) / subsampling;
+			param.setDestination(stripe != null
+					&& stripe.getHeight() == stripeHeight ? stripe : null);
+
+			stripe = reader.read(0, param);
+
+			for (int j = 0; j < stripe.getHeight(); j++) {
+
+				int outRow = (int) ((long) (y + j * subsampling) * outHeight / height);
+				int offset = outRow * outWidth;
+
+				stripe.getRGB(0, j, rowWidth, 1, row, 0, rowWidth);
+
+				for (int i = 0; i < rowWidth; i++) {
+					int index = offset + columns[i];
+					int rgb = row[i];
+
+					red[index] += (rgb >> 16) & 0xFF;
+					green[index] += (rgb >> 8) & 0xFF;
+					blue[index] += rgb & 0xFF;
+					counts[index]++;
+				}
+			}
+		}
+
+		BufferedImage result = new BufferedImage(outWidth, outHeight,
+				BufferedImage.TYPE_INT_RGB);
+
+		int[] pixels = new int[outWidth * outHeight];
+
+		for (int i = 0; i < pixels.length; i++) {
+			int n = Math.max(counts[i], 1);
+
+			pixels[i] = (red[i] / n) << 16 | (green[i] / n) << 8 | blue[i] / n;
+		}
+
+		result.setRGB(0, 0, outWidth, outHeight, pixels, 0, outWidth);
+
+		return result;
+	}
+}
@@ -19,25 +19,26 @@
 package edu.umaine.cs.f2b2;
 
 import java.awt.event.ActionEvent;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.sql.SQLException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.zip.ZipEntry;
+import java.util.concurrent.Future;
 import java.util.zip.ZipOutputStream;
 
-import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.ProgressMonitor;
 
 /**
- * Create a zip file from all of the images in the image list.
+ * Create a zip file from all of the images in the image list. The export is
+ * journaled by an {@link ExportJournal}, so an export that was canceled or
+ * that crashed continues where it stopped when the images are zipped to the
+ * same file again.
  * 
  * @author Mark Royer
  * 
@@ -55,7 +56,8 @@ public class ZipImagesAction extends AbstractAction {
 	private FFB2 f2b2;
 
 	/**
-	 * The maximum width of the images that will be zipped.
+	 * The maximum width of the images that will be zipped with the
+	 * {@link ExportProfile#DEFAULT} profile.
 	 */
 	public static int MAXWIDTHORHEIGHT = 800;
 
@@ -100,7 +102,22 @@ public class ZipImagesAction extends AbstractAction {
 
 				File selectedFile = sf.getSelectedFile();
 
-				if (selectedFile.exists()
+				if (ExportJournal.isUnfinished(ensureExtension(selectedFile))) {
+					int answer2 = JOptionPane.showConfirmDialog(f2b2,
+							"Zipping to " + selectedFile.getAbsolutePath()
+									+ " didn't finish.\r\n"
+									+ "Do you want to continue it?");
+
+					if (answer2 == JOptionPane.YES_OPTION) {
+						canSaveFile = true;
+					} else if (answer2 == JOptionPane.NO_OPTION) {
+						// Start over.
+						ExportJournal.getJournalFile(
+								ensureExtension(selectedFile)).delete();
+						canSaveFile = true;
+					}
+
+				} else if (selectedFile.exists()
 						|| new File(selectedFile.getAbsolutePath() + ".zip")
 								.exists()) {
 					int answer2 = JOptionPane.showConfirmDialog(f2b2, "File "
@@ -116,20 +133,29 @@ public class ZipImagesAction extends AbstractAction {
 					canSaveFile = true;
 				}
 
+				final ExportProfile profile = canSaveFile ? chooseProfile()
+						: null;
+
+				// Canceling the choice of profile cancels the zip.
+				if (canSaveFile && profile == null) {
+					canSaveFile = false;
+					answer = JFileChooser.CANCEL_OPTION;
+				}
+
 				if (canSaveFile) {
 
 					/*
 					 * Perform the actual save in a seperate thread so that the
 					 * GUI doesn't lock up.
 					 */
-					new Thread(new Runnable() {
+					TaskExecutors.run(TaskExecutors.io(), new Runnable() {
 
 						public void run() {
 
-							saveFile(sf.getSelectedFile());
+							saveFile(sf.getSelectedFile(), profile);
 
 						}
-					}).start();
+					});
 				}
 
 			}
@@ -137,20 +163,62 @@ public class ZipImagesAction extends AbstractAction {
 
 	}
 
+	/**
+	 * Asks the user which profile the images should be zipped with.
+	 * 
+	 * @return The chosen profile or null if the user canceled.
+	 */
+	private ExportProfile chooseProfile() {
+
+		List<ExportProfile> profiles = ExportProfile.getProfiles();
+
+		ExportProfile selected = ExportProfile.DEFAULT;
+
+		// The profile the images were zipped with before, if any.
+		String previous = f2b2.getProfileName() != null ? f2b2
+				.getProfileName() : ExportProfile.DEFAULT.getName();
+
+		for (ExportProfile profile : profiles) {
+			if (profile.getName().equals(previous)) {
+				selected = profile;
+			}
+		}
+
+		ExportProfile result = (ExportProfile) JOptionPane.showInputDialog(
+				f2b2, "Size and quality of the zipped images:", "Zip Images",
+				JOptionPane.QUESTION_MESSAGE, null, profiles.toArray(),
+				selected);
+
+		if (result != null) {
+			f2b2.setProfileName(result.getName());
+		}
+
+		return result;
+	}
+
 	/**
 	 * Save the images to the given file.
 	 * 
 	 * @param file
 	 *            The file that the images will be zipped to. (Not null)
+	 * @param profile
+	 *            The profile the images are written with. (Not null)
 	 */
-	private void saveFile(File file) {
+	private void saveFile(File file, ExportProfile profile) {
 
 		try {
-			File savedFile = saveFilesTo(ensureExtension(file), f2b2.getFiles());
+			File savedFile = saveFilesTo(ensureExtension(file),
+					f2b2.getFiles(), profile);
 
 			JOptionPane.showMessageDialog(f2b2, "Successfully saved images to "
 					+ savedFile.getAbsolutePath());
 
+		} catch (InterruptedIOException e) {
+
+			JOptionPane.showMessageDialog(f2b2, "Zipping was canceled. Zip the "
+					+ "images to " + file.getAbsolutePath()
+					+ " again to continue.");
+
 		} catch (Exception e) {
 
 			JOptionPane.showMessageDialog(f2b2, "Unable to save images to "
@@ -163,24 +231,28 @@ public class ZipImagesAction extends AbstractAction {
 	}
 
 	/**
-	 * Save all of the given files to given zip file.
+	 * Save all of the given files to given zip file. If an earlier export to
+	 * the file with the same profile didn't finish, the images it zipped are
+	 * copied and the rest are added after them.
 	 * 
 	 * @param fileName
 	 *            The zip file. (Not null)
 	 * @param files
 	 *            The image files to save. (Not null)
+	 * @param profile
+	 *            The profile the images are written with. (Not null)
 	 * @return The file that the images were zipped to. (Never null)
+	 * @throws InterruptedIOException
+	 *             Thrown if zipping was canceled or interrupted. The journal is
+	 *             kept so that the export can be continued.
 	 * @throws IOException
 	 *             Thrown if there is a problem writing the zip file to the
-	 *             disk.
-	 * @throws SQLException
-	 *             Thrown if there is a problem accessing the images from the
-	 *             database.
+	 *             disk or accessing the images from the database.
 	 */
-	private File saveFilesTo(File fileName, List<ImageFile> files)
-			throws IOException, SQLException {
+	private File saveFilesTo(File fileName, List<ImageFile> files,
+			ExportProfile profile) throws IOException {
 
-		byte[] buf = new byte[1024];
+		ExportJournal journal = new ExportJournal(fileName, profile.getName());
 
 		ZipOutputStream out = new ZipOutputStream(
 				new FileOutputStream(fileName));
@@ -196,52 +268,113 @@ public class ZipImagesAction extends AbstractAction {
 		String subDirectory = str.toString();
 
 		int iCount = files.size();
+
+		List<String> names = new ArrayList<String>(iCount);
+		for (ImageFile file : files) {
+			names.add(subDirectory + "/"
+					+ profile.getEntryName(file.getZipName()));
+		}
+
+		int start;
+
+		try {
+			start = journal.resume(out, names);
+		} catch (IOException e) {
+			out.close();
+			journal.close();
+			throw e;
+		}
+
 		ProgressMonitor pm = new ProgressMonitor(null, "Saving to "
-				+ fileName.getName(), "Compressed 0/" + iCount, 0, iCount);
+				+ fileName.getName(), "Compressed " + start + "/" + iCount, 0,
+				iCount);
+		pm.setProgress(start);
 		pm.setMillisToDecideToPopup(0);
 
 		/*
-		 * Add each image to the zip file.
+		 * The images are written on the CPU threads, a few ahead of the one
+		 * being added to the zip file.
 		 */
-		for (int i = 0; i < iCount; i++) {
+		int ahead = Runtime.getRuntime().availableProcessors();
+		LinkedList<Future<byte[]>> renditions;
+		renditions = new LinkedList<Future<byte[]>>();
+		int next = start;
+		boolean finished = false;
+
+		try {
+			/*
+			 * Add each image to the zip file.
+			 */
+			for (int i = start; i < iCount; i++) {
+
+				while (next < iCount && next <= i + ahead) {
+					renditions.add(startRendition(files.get(next), profile));
+					next++;
+				}
+
+				byte[] data;
 
-			ImageFile file = files.get(i);
+				try {
+					data = TaskExecutors.get(renditions.removeFirst(),
+							IOException.class);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("Zipping was interrupted");
+				}
 
-			// Add ZIP entry to output stream.
-			out.putNextEntry(new ZipEntry(subDirectory + "/"
-					+ file.getZipName()));
+				ExportJournal.putStoredEntry(out, names.get(i), data);
 
-			ByteArrayOutputStream bas = new ByteArrayOutputStream();
-			BufferedImage image = file.getRotatedImage();
-			ImageIO.write(image, ImageFile.getExtension(file.getZipName()), bas);
-			byte[] data = bas.toByteArray();
+				// The entry has to be on the disk before it is recorded.
+				out.flush();
+				journal.entryWritten(names.get(i));
 
-			ByteArrayInputStream in = new ByteArrayInputStream(data);
+				pm.setProgress(i + 1);
+				pm.setNote("Compressed " + (i + 1) + "/" + iCount);
+				if (pm.isCanceled() && i + 1 < iCount) {
+					throw new InterruptedIOException("Zipping was canceled");
+				}
 
-			// Transfer bytes from the file to the ZIP file
-			int len;
-			while ((len = in.read(buf)) > 0) {
-				out.write(buf, 0, len);
 			}
 
-			// Complete the entry
-			out.closeEntry();
-			in.close();
+			finished = true;
 
-			pm.setProgress(i + 1);
-			pm.setNote("Compressed " + (i + 1) + "/" + iCount);
-			if (pm.isCanceled()) {
-				break;
+		} finally {
+			// Images that won't be zipped any more aren't written.
+			for (Future<byte[]> rendition : renditions) {
+				rendition.cancel(true);
 			}
 
-		}
+			// Complete the ZIP file
+			out.close();
 
-		// Complete the ZIP file
-		out.close();
+			if (finished) {
+				journal.finish();
+			} else {
+				journal.close();
+			}
+
+			pm.close();
+		}
 
 		return fileName;
 	}
 
+	/**
+	 * Starts writing the given image with the given profile through the
+	 * {@link ThumbnailService}, which runs it on a CPU thread.
+	 * 
+	 * @param file
+	 *            The image to write. (Not null)
+	 * @param profile
+	 *            The profile the image is written with. (Not null)
+	 * @return The future of the written image, which fails with an
+	 *         IOException if the image can't be written. (Never null)
+	 */
+	private Future<byte[]> startRendition(ImageFile file,
+			ExportProfile profile) {
+		return ThumbnailService.getThumbnailService().requestRendition(file,
+				profile);
+	}
+
 	/**
 	 * Ensures that the given file has the proper zip extension. If the file
 	 * does not have a zip extension then one is added.
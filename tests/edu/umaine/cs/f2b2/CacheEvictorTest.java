@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that the least recently used content is removed from the database.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class CacheEvictorTest {
+
+	/**
+	 * Connection to the database.
+	 */
+	private Connection conn;
+
+	/**
+	 * An image file to use for testing.
+	 */
+	private ImageFile imageFile = new ImageFile(this.getClass()
+			.getResource("meAtMtDesert.jpg").getPath());
+
+	/**
+	 * An image with different content than {@link #imageFile}.
+	 */
+	private File other;
+
+	/**
+	 * Make sure the database is ready for testing.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem setting up the database.
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		File f = new File(DBManager.getDatabaseLocation());
+
+		if (f.exists())
+			DBManagerTest.deleteDirectory(f);
+
+		conn = DBManager.getDerbyConnection();
+		DBManager.createTables(conn);
+		conn.setAutoCommit(false);
+
+		other = File.createTempFile("other", ".jpg");
+		other.deleteOnExit();
+		Files.copy(imageFile.toPath(), other.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+
+		// A trailing byte changes the hash but not the image.
+		FileOutputStream out = new FileOutputStream(other, true);
+		out.write(0);
+		out.close();
+
+		save(imageFile);
+		save(other);
+		conn.commit();
+	}
+
+	/**
+	 * Remove all of the test database directory.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem removing the database.
+	 */
+	@After
+	public void tearDown() throws Exception {
+		conn.setAutoCommit(true);
+		DBManager.destroyTables(conn);
+		conn.close();
+		DBManager.shutdownDatabase();
+		DBManagerTest.deleteDirectory(new File(DBManager.dbLocation));
+	}
+
+	/**
+	 * Make sure the content that was used least recently comes first.
+	 * 
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 * @throws InterruptedException
+	 *             Thrown if the test is interrupted.
+	 */
+	@Test
+	public void testLeastRecentlyUsed() throws SQLException,
+			InterruptedException {
+
+		Thread.sleep(10);
+		DBManager.getIcon(conn, imageFile.getAbsolutePath());
+		AccessTracker.getAccessTracker().flush(conn);
+
+		List<String> hashes = new ArrayList<String>();
+		List<Long> sizes = new ArrayList<Long>();
+
+		new CacheEvictor(0).leastRecentlyUsed(conn, hashes, sizes);
+
+		assertEquals(2, hashes.size());
+		assertEquals(DBManager.getContentHash(conn, other.getAbsolutePath()),
+				hashes.get(0));
+		assertEquals(
+				DBManager.getContentHash(conn, imageFile.getAbsolutePath()),
+				hashes.get(1));
+		assertTrue(sizes.get(0) > 0);
+	}
+
+	/**
+	 * Make sure content is removed until the database fits in the budget.
+	 * 
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	@Test
+	public void testEvict() throws SQLException {
+
+		long size = CacheEvictor.getDatabaseSize();
+
+		assertEquals(0, new CacheEvictor(size).evict(conn));
+		assertTrue(DBManager.fileIsInDB(conn, imageFile.getAbsolutePath()));
+
+		assertEquals(2, new CacheEvictor(0).evict(conn));
+		assertFalse(DBManager.fileIsInDB(conn, imageFile.getAbsolutePath()));
+		assertFalse(DBManager.fileIsInDB(conn, other.getAbsolutePath()));
+	}
+
+	/**
+	 * Stores an icon for the given file.
+	 */
+	private void save(File file) throws SQLException {
+		try {
+			DBManager.saveIcon(conn, file.getAbsolutePath(), new Timestamp(
+					file.lastModified()), imageFile.createImageIcon(),
+					imageFile.getOriginalWidth(), imageFile.getOriginalHeight());
+		} catch (IOException e) {
+			throw new SQLException(e);
+		}
+	}
+}
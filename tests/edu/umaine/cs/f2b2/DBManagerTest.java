@@ -20,14 +20,32 @@ package edu.umaine.cs.f2b2;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
@@ -84,6 +102,7 @@ public class DBManagerTest {
 	public void tearDown() throws Exception {
 		DBManager.destroyTables(conn);
 		conn.close();
+		DBManager.shutdownDatabase();
 		deleteDirectory(new File(DBManager.dbLocation));
 
 	}
@@ -147,6 +166,143 @@ public class DBManagerTest {
 
 	}
 
+	/**
+	 * Ensures that icons read from the database, by path or through a copy
+	 * with the same content, don't hold or give back decode memory.
+	 * 
+	 * @throws SQLException
+	 *             Thrown if there is a problem connecting to the database.
+	 * @throws IOException
+	 *             Thrown if there is a problem reading or copying the image.
+	 */
+	@Test
+	public void testStoredIconSkipsGovernor() throws SQLException,
+			IOException {
+
+		MemoryGovernor governor = MemoryGovernor.getMemoryGovernor();
+
+		imageFile.createImageIcon();
+
+		File copy = File.createTempFile("copy", ".jpg");
+		copy.deleteOnExit();
+		Files.copy(imageFile.toPath(), copy.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+
+		// Stored under the same path.
+		IconCache.getIconCache().remove(imageFile.getIconKey());
+		assertEquals(100, new ImageFile(imageFile.getAbsolutePath())
+				.createImageIcon().getIconWidth());
+
+		// Stored under another path with the same content.
+		assertEquals(100, new ImageFile(copy.getAbsolutePath())
+				.createImageIcon().getIconWidth());
+
+		// An unmatched release would have been rejected above.
+		assertEquals(0, governor.getInFlight());
+	}
+
+	/**
+	 * Ensures that the icons of many paths are read together, and that paths
+	 * without icons are skipped.
+	 * 
+	 * @throws SQLException
+	 *             Thrown if there is a problem connecting to the database.
+	 * @throws IOException
+	 *             Thrown if there is a problem reading the image.
+	 */
+	@Test
+	public void testGetIcons() throws SQLException, IOException {
+
+		DBManager.saveIcon(conn, imageFile.getAbsolutePath(), new Timestamp(
+				imageFile.lastModified()), imageFile.createImageIcon(),
+				imageFile.getOriginalWidth(), imageFile.getOriginalHeight());
+
+		final int width = imageFile.getOriginalWidth();
+		final List<String> found = new ArrayList<String>();
+
+		DBManager.getIcons(conn, Arrays.asList(imageFile.getAbsolutePath(),
+				imageFile.getAbsolutePath() + ".missing"),
+				new DBManager.IconHandler() {
+					@Override
+					public void iconLoaded(String filePath, ImageIcon icon,
+							int originalWidth, int originalHeight) {
+						assertEquals(100, icon.getIconWidth());
+						assertEquals(width, originalWidth);
+						found.add(filePath);
+					}
+				});
+
+		assertEquals(Arrays.asList(imageFile.getAbsolutePath()), found);
+	}
+
+	/**
+	 * Ensures that the stored data of a file is a miss on every read path
+	 * once the file's modification date or size changes, and that the row of
+	 * the file is removed.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem with the database or the file.
+	 */
+	@Test
+	public void testChangedFileIsAMiss() throws Exception {
+
+		File copy = File.createTempFile("changed", ".jpg");
+		copy.deleteOnExit();
+
+		for (int check = 0; check < 4; check++) {
+			for (boolean changeSize : new boolean[] { false, true }) {
+
+				Files.copy(imageFile.toPath(), copy.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+
+				String path = copy.getAbsolutePath();
+				long modified = copy.lastModified();
+
+				DBManager.saveResizedImage(conn, path, new Timestamp(modified),
+						new ImageIcon(new BufferedImage(10, 10,
+								BufferedImage.TYPE_INT_RGB)), "jpg",
+						new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB),
+						300, 225);
+
+				assertTrue(DBManager.fileIsInDB(conn, path));
+
+				if (changeSize) {
+					// Same modification date, different length.
+					FileOutputStream out = new FileOutputStream(copy, true);
+					out.write(0);
+					out.close();
+					copy.setLastModified(modified);
+				} else {
+					copy.setLastModified(modified + 2000);
+				}
+
+				switch (check) {
+				case 0:
+					assertNull(DBManager.getIcon(conn, path));
+					break;
+				case 1:
+					assertFalse(DBManager.fileIsInDB(conn, path));
+					break;
+				case 2:
+					assertFalse(DBManager.resizedImageIsInDB(conn, path));
+					break;
+				default:
+					DBManager.getIcons(conn, Arrays.asList(path),
+							new DBManager.IconHandler() {
+								@Override
+								public void iconLoaded(String filePath,
+										ImageIcon icon, int originalWidth,
+										int originalHeight) {
+									fail("Icon of a changed file was read");
+								}
+							});
+				}
+
+				assertNull(DBManager.getModificationDate(conn, path));
+			}
+		}
+	}
+
 	/**
 	 * Ensures that the image is properly resized from the database.
 	 * 
@@ -214,6 +370,355 @@ public class DBManagerTest {
 
 	}
 
+	/**
+	 * Ensures that a copy of an image reuses the data stored for the original.
+	 * 
+	 * @throws SQLException
+	 *             Thrown if there is a problem connecting to the database.
+	 * @throws IOException
+	 *             Thrown if there is a problem copying the image file.
+	 */
+	@Test
+	public void testDuplicateContentIsShared() throws SQLException,
+			IOException {
+
+		File copy = File.createTempFile("copy", ".jpg");
+		copy.deleteOnExit();
+		Files.copy(imageFile.toPath(), copy.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+
+		DBManager.saveIcon(conn, imageFile.getAbsolutePath(), new Timestamp(
+				imageFile.lastModified()), imageFile.createImageIcon(),
+				imageFile.getOriginalWidth(), imageFile.getOriginalHeight());
+
+		assertFalse(DBManager.fileIsInDB(conn, copy.getAbsolutePath()));
+		assertTrue(DBManager.linkToExistingContent(conn,
+				copy.getAbsolutePath(), new Timestamp(copy.lastModified())));
+		assertTrue(DBManager.fileIsInDB(conn, copy.getAbsolutePath()));
+
+		assertEquals(
+				DBManager.getContentHash(conn, imageFile.getAbsolutePath()),
+				DBManager.getContentHash(conn, copy.getAbsolutePath()));
+		assertEquals(100, DBManager.getIcon(conn, copy.getAbsolutePath())
+				.getIconWidth());
+
+		// The shared content stays as long as one of the paths refers to it.
+		DBManager.removeImageFile(conn, imageFile.getAbsolutePath());
+		assertTrue(DBManager.getIcon(conn, copy.getAbsolutePath()) != null);
+	}
+
+	/**
+	 * Ensures that images of other sizes are made from the stored levels of
+	 * the thumbnail pyramid.
+	 * 
+	 * @throws SQLException
+	 *             Thrown if there is a problem connecting to the database.
+	 * @throws IOException
+	 *             Thrown if there is a problem reading the image file.
+	 */
+	@Test
+	public void testGetImage() throws SQLException, IOException {
+
+		assertEquals(null, DBManager.getPyramidLevel(conn,
+				imageFile.getAbsolutePath(), 64, false));
+
+		BufferedImage image = imageFile.getImage(150);
+
+		assertEquals(150, image.getWidth());
+		assertEquals(116, image.getHeight());
+
+		// The 256 level was stored and is the nearest one larger than 150.
+		assertEquals(256, DBManager.getPyramidLevel(conn,
+				imageFile.getAbsolutePath(), 150, false).getWidth());
+
+		// Larger than the original, so the original's size is kept.
+		assertEquals(300, imageFile.getImage(1000).getWidth());
+	}
+
+	/**
+	 * Ensures that opaque levels of the pyramid are stored as JPEG close to
+	 * the original, and that levels with transparency are stored as PNG
+	 * without loss.
+	 * 
+	 * @throws SQLException
+	 *             Thrown if there is a problem connecting to the database.
+	 */
+	@Test
+	public void testPyramidLevelFormats() throws SQLException {
+
+		BufferedImage opaque = new BufferedImage(300, 200,
+				BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < opaque.getHeight(); y++) {
+			for (int x = 0; x < opaque.getWidth(); x++) {
+				opaque.setRGB(x, y, new Color(x * 255 / 300, y * 255 / 200,
+						(x + y) * 255 / 500).getRGB());
+			}
+		}
+
+		SortedMap<Integer, BufferedImage> levels = ThumbnailPyramid
+				.build(opaque);
+
+		DBManager.savePyramid(conn, imageFile.getAbsolutePath(),
+				new Timestamp(imageFile.lastModified()), levels, 300, 200);
+
+		assertEquals(ImageFormat.JPEG, getStoredFormat(64));
+
+		BufferedImage expected = levels.get(2048);
+		BufferedImage stored = DBManager.getPyramidLevel(conn,
+				imageFile.getAbsolutePath(), 2048, false);
+
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				for (int shift = 0; shift < 24; shift += 8) {
+					int difference = ((expected.getRGB(x, y) >> shift) & 0xff)
+							- ((stored.getRGB(x, y) >> shift) & 0xff);
+					assertTrue(Math.abs(difference) <= 8);
+				}
+			}
+		}
+
+		// Noise, including its transparency, which JPEG can't keep.
+		BufferedImage transparent = new BufferedImage(300, 200,
+				BufferedImage.TYPE_INT_ARGB);
+		Random random = new Random(1);
+		for (int y = 0; y < transparent.getHeight(); y++) {
+			for (int x = 0; x < transparent.getWidth(); x++) {
+				transparent.setRGB(x, y, random.nextInt());
+			}
+		}
+
+		// Pyramids scaled from a file are opaque, so transparent levels are
+		// stored directly.
+		levels = new TreeMap<Integer, BufferedImage>();
+		for (int level : ThumbnailPyramid.LEVELS) {
+			levels.put(level, transparent);
+		}
+
+		DBManager.savePyramid(conn, imageFile.getAbsolutePath(),
+				new Timestamp(imageFile.lastModified()), levels, 300, 200);
+
+		assertEquals(ImageFormat.PNG, getStoredFormat(64));
+
+		expected = levels.get(2048);
+		stored = DBManager.getPyramidLevel(conn, imageFile.getAbsolutePath(),
+				2048, false);
+
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertEquals(expected.getRGB(x, y), stored.getRGB(x, y));
+			}
+		}
+	}
+
+	/**
+	 * Returns the format the given level of the test image is stored in.
+	 * 
+	 * @param level
+	 *            The level of the pyramid.
+	 * @return The format of the stored level or null if it isn't recognized.
+	 * @throws SQLException
+	 *             Thrown if there is a problem connecting to the database.
+	 */
+	private ImageFormat getStoredFormat(int level) throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT img "
+				+ "FROM pyramid WHERE contenthash = ? AND level = ?");
+		ps.setString(1, DBManager.getContentHash(conn,
+				imageFile.getAbsolutePath()));
+		ps.setInt(2, level);
+
+		ResultSet rs = ps.executeQuery();
+		assertTrue(rs.next());
+
+		byte[] img = rs.getBytes(1);
+
+		rs.close();
+		ps.close();
+
+		return ImageFormat.forHeader(img, img.length);
+	}
+
+	/**
+	 * Ensures that images written with each profile are kept separately.
+	 * 
+	 * @throws SQLException
+	 *             Thrown if there is a problem connecting to the database.
+	 * @throws IOException
+	 *             Thrown if there is a problem reading the image file.
+	 */
+	@Test
+	public void testGetRendition() throws SQLException, IOException {
+
+		ExportProfile small = new ExportProfile("small", 100, "png", 1, true);
+
+		byte[] def = imageFile.getRendition(ExportProfile.DEFAULT);
+		byte[] png = imageFile.getRendition(small);
+
+		assertEquals(300, ImageIO.read(new ByteArrayInputStream(def))
+				.getWidth());
+		assertEquals(100, ImageIO.read(new ByteArrayInputStream(png))
+				.getWidth());
+
+		assertTrue(Arrays.equals(def, DBManager.getRendition(conn,
+				imageFile.getAbsolutePath(),
+				ExportProfile.DEFAULT.getCacheKey(imageFile.getZipName()), 0)));
+		assertTrue(Arrays.equals(png, imageFile.getRendition(small)));
+	}
+
+	/**
+	 * Ensures that icons stored in the content table by version 1 of the
+	 * database are moved to the icons table by the {@link SchemaMigrator}.
+	 * 
+	 * @throws SQLException
+	 *             Thrown if there is a problem connecting to the database.
+	 * @throws IOException
+	 *             Thrown if there is a problem reading the image file.
+	 */
+	@Test
+	public void testMigrateFromVersion1() throws SQLException, IOException {
+
+		DBManager.saveIcon(conn, imageFile.getAbsolutePath(), new Timestamp(
+				imageFile.lastModified()), imageFile.createImageIcon(),
+				imageFile.getOriginalWidth(), imageFile.getOriginalHeight());
+
+		// Put the database back into the version 1 layout.
+		Statement st = conn.createStatement();
+		st.execute("ALTER TABLE content ADD COLUMN icon BLOB(100K)");
+		st.execute("ALTER TABLE content ADD COLUMN img BLOB(1M)");
+		st.execute("UPDATE content SET icon = "
+				+ "(SELECT icon FROM icons WHERE "
+				+ "icons.contenthash = content.contenthash)");
+		st.execute("DROP TABLE icons");
+		st.execute("DROP TABLE resized");
+		st.execute("DROP TABLE schema_version");
+		st.close();
+
+		DBManager.createTables(conn);
+
+		// Only the new tables exist until the rows have been brought over.
+		assertEquals(DBManager.SCHEMAVERSION, DBManager.getSchemaVersion(conn));
+		assertTrue(DBManager.columnExists(conn, "CONTENT", "ICON"));
+
+		conn.setAutoCommit(false);
+		SchemaMigrator.completeMigrations(conn);
+		conn.setAutoCommit(true);
+
+		assertFalse(DBManager.columnExists(conn, "CONTENT", "ICON"));
+		assertFalse(DBManager.resizedImageIsInDB(conn,
+				imageFile.getAbsolutePath()));
+		assertEquals(100, DBManager.getIcon(conn, imageFile.getAbsolutePath())
+				.getIconWidth());
+	}
+
+	/**
+	 * Ensures that icons and resized images kept in the images table of the
+	 * original layout are still served after the upgrade, once the
+	 * {@link SchemaMigrator} has moved them under the hash of their file.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem with the database or the image.
+	 */
+	@Test
+	public void testMigrateFromBaseline() throws Exception {
+
+		String path = imageFile.getAbsolutePath();
+
+		// Put the database back into the original layout.
+		DBManager.destroyTables(conn);
+
+		Statement st = conn.createStatement();
+		st.execute("CREATE TABLE images "
+				+ "(imgpath VARCHAR(32672) PRIMARY KEY, "
+				+ "moddate TIMESTAMP NOT NULL, "
+				+ "originalWidth INTEGER NOT NULL, "
+				+ "originalHeight INTEGER NOT NULL,"
+				+ "icon BLOB(100K) NOT NULL, img BLOB(1M))");
+		st.close();
+
+		ByteArrayOutputStream icon = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(icon);
+		out.writeObject(new ImageIcon(new BufferedImage(100, 75,
+				BufferedImage.TYPE_INT_RGB)));
+		out.close();
+
+		ByteArrayOutputStream img = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(80, 60, BufferedImage.TYPE_INT_RGB),
+				"jpg", img);
+
+		PreparedStatement ps = conn.prepareStatement("INSERT INTO images "
+				+ "VALUES (?,?,?,?,?,?)");
+		ps.setString(1, path);
+		ps.setTimestamp(2, new Timestamp(imageFile.lastModified()));
+		ps.setInt(3, 300);
+		ps.setInt(4, 225);
+		ps.setBytes(5, icon.toByteArray());
+		ps.setBytes(6, img.toByteArray());
+		ps.executeUpdate();
+		ps.close();
+
+		DBManager.createTables(conn);
+
+		// The old rows wait in the renamed table until they are moved.
+		assertEquals(DBManager.SCHEMAVERSION, DBManager.getSchemaVersion(conn));
+		assertTrue(DBManager.tableExists(conn,
+				SchemaMigrator.ShareContent.OLDIMAGES));
+		assertFalse(DBManager.fileIsInDB(conn, path));
+
+		conn.setAutoCommit(false);
+		SchemaMigrator.completeMigrations(conn);
+		conn.setAutoCommit(true);
+
+		assertFalse(DBManager.tableExists(conn,
+				SchemaMigrator.ShareContent.OLDIMAGES));
+
+		assertTrue(DBManager.fileIsInDB(conn, path));
+		assertEquals(100, DBManager.getIcon(conn, path).getIconWidth());
+		assertEquals(80, DBManager.getResizedImage(conn, path).getWidth());
+		assertEquals(300, DBManager.getOriginalImageDimensions(conn, path)
+				.width);
+	}
+
+	/**
+	 * Ensures that a saved project is opened with the same order, names and
+	 * rotations.
+	 * 
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the database.
+	 */
+	@Test
+	public void testSaveAndLoadProject() throws SQLException {
+
+		ImageFile second = new ImageFile(imageFile.getParent()
+				+ File.separator + "other.jpg");
+
+		imageFile.setZipName("first.jpg");
+		imageFile.setRotation(-90);
+
+		DBManager.saveProject(conn, "trip", Arrays.asList(imageFile, second),
+				"web");
+
+		List<ImageFile> files = DBManager.loadProject(conn, "trip");
+
+		assertEquals(2, files.size());
+		assertEquals(imageFile.getAbsolutePath(), files.get(0)
+				.getAbsolutePath());
+		assertEquals("first.jpg", files.get(0).getZipName());
+		assertEquals(270, files.get(0).getRotation());
+		assertEquals("other.jpg", files.get(1).getZipName());
+		assertEquals(0, files.get(1).getRotation());
+		assertEquals("web", DBManager.getProjectProfile(conn, "trip"));
+
+		// Saving again replaces the project.
+		DBManager.saveProject(conn, "trip", Arrays.asList(second), null);
+
+		assertEquals(1, DBManager.loadProject(conn, "trip").size());
+		assertEquals(Arrays.asList("trip"), DBManager.getProjectNames(conn));
+
+		DBManager.removeProject(conn, "trip");
+
+		assertTrue(DBManager.loadProject(conn, "trip").isEmpty());
+	}
+
 	/**
 	 * Recursively deletes the given directory from the file system.
 	 * 
@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Test that exports that didn't finish continue from the entries they wrote.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ExportJournalTest {
+
+	/**
+	 * The entries of the test exports.
+	 */
+	private static final List<String> NAMES = Arrays.asList("a/1.jpg",
+			"a/2.jpg", "a/3.jpg", "a/4.jpg");
+
+	/**
+	 * Make sure a canceled export copies its entries and continues.
+	 */
+	@Test
+	public void testResumeCanceled() throws IOException {
+
+		File zip = File.createTempFile("canceled", ".zip");
+
+		// Write two entries and close the zip file, as canceling does.
+		ZipOutputStream out = start(zip, 0);
+		out.close();
+
+		checkResume(zip);
+	}
+
+	/**
+	 * Make sure an export that crashed, which left a zip file without a
+	 * central directory, copies its entries and continues.
+	 */
+	@Test
+	public void testResumeCrashed() throws IOException {
+
+		File zip = File.createTempFile("crashed", ".zip");
+
+		FileOutputStream file = new FileOutputStream(zip);
+		ZipOutputStream out = new ZipOutputStream(file);
+
+		ExportJournal journal = new ExportJournal(zip, "web");
+		assertEquals(0, journal.resume(out, NAMES));
+		write(out, journal, 0);
+		write(out, journal, 1);
+
+		// Half of an entry that wasn't recorded.
+		out.putNextEntry(new ZipEntry(NAMES.get(2)));
+		out.write(new byte[100]);
+		out.flush();
+
+		// Crash without completing the zip file.
+		file.close();
+		journal.close();
+
+		checkResume(zip);
+	}
+
+	/**
+	 * Make sure an export with another profile starts over.
+	 */
+	@Test
+	public void testOtherProfile() throws IOException {
+
+		File zip = File.createTempFile("profile", ".zip");
+
+		start(zip, 0).close();
+
+		ExportJournal journal = new ExportJournal(zip, "print");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+
+		assertEquals(0, journal.resume(out, NAMES));
+
+		out.close();
+		journal.finish();
+
+		assertFalse(ExportJournal.isUnfinished(zip));
+		zip.delete();
+	}
+
+	/**
+	 * Starts an export that writes the first two entries.
+	 * 
+	 * @param zip
+	 *            The zip file. (Not null)
+	 * @param expected
+	 *            The number of entries that should be copied.
+	 * @return The open zip file. (Never null)
+	 */
+	private ZipOutputStream start(File zip, int expected) throws IOException {
+
+		ExportJournal journal = new ExportJournal(zip, "web");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+
+		assertEquals(expected, journal.resume(out, NAMES));
+
+		write(out, journal, 0);
+		write(out, journal, 1);
+
+		journal.close();
+
+		assertTrue(ExportJournal.isUnfinished(zip));
+
+		return out;
+	}
+
+	/**
+	 * Resumes the export of the given zip file, which has the first two
+	 * entries, and finishes it.
+	 * 
+	 * @param zip
+	 *            The zip file. (Not null)
+	 */
+	private void checkResume(File zip) throws IOException {
+
+		ExportJournal journal = new ExportJournal(zip, "web");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+
+		assertEquals(2, journal.resume(out, NAMES));
+
+		write(out, journal, 2);
+		write(out, journal, 3);
+
+		out.close();
+		journal.finish();
+
+		assertFalse(ExportJournal.isUnfinished(zip));
+		assertFalse(new File(zip.getAbsolutePath()
+				+ ExportJournal.PARTIALSUFFIX).exists());
+
+		ZipFile result = new ZipFile(zip);
+
+		try {
+			assertEquals(NAMES.size(), result.size());
+
+			for (int i = 0; i < NAMES.size(); i++) {
+				ZipEntry entry = result.getEntry(NAMES.get(i));
+
+				assertEquals(ZipEntry.STORED, entry.getMethod());
+				assertArrayEquals(data(i), result.getInputStream(entry)
+						.readAllBytes());
+			}
+		} finally {
+			result.close();
+		}
+
+		zip.delete();
+	}
+
+	/**
+	 * Writes and records the entry with the given index.
+	 */
+	private void write(ZipOutputStream out, ExportJournal journal, int i)
+			throws IOException {
+
+		ExportJournal.putStoredEntry(out, NAMES.get(i), data(i));
+		out.flush();
+		journal.entryWritten(NAMES.get(i));
+	}
+
+	/**
+	 * Returns the content of the entry with the given index.
+	 */
+	private byte[] data(int i) {
+
+		byte[] result = new byte[1000 + i];
+		Arrays.fill(result, (byte) i);
+
+		return result;
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Test that export profiles are read and write images as configured.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ExportProfileTest {
+
+	/**
+	 * Make sure the extension follows the format of the profile.
+	 */
+	@Test
+	public void testGetEntryName() {
+
+		ExportProfile web = new ExportProfile("web", 640, "jpg", 0.8f, true);
+
+		assertEquals("a.jpg", web.getEntryName("a.png"));
+		assertEquals("a.JPEG", web.getEntryName("a.JPEG"));
+		assertEquals("a.jpg", web.getEntryName("a"));
+		assertEquals("a.png", ExportProfile.DEFAULT.getEntryName("a.png"));
+	}
+
+	/**
+	 * Make sure profiles are read from a properties file.
+	 * 
+	 * @throws IOException
+	 *             Thrown if there is a problem writing the temporary file.
+	 */
+	@Test
+	public void testReadProfiles() throws IOException {
+
+		File file = File.createTempFile("profiles", ".properties");
+		file.deleteOnExit();
+
+		FileWriter out = new FileWriter(file);
+		out.write("profile.large.maxDimension = 1200\n"
+				+ "profile.large.format = jpg\n"
+				+ "profile.large.subsampling = false\n"
+				+ "profile.small.maxDimension = 320\n");
+		out.close();
+
+		List<ExportProfile> profiles = ExportProfile.readProfiles(file);
+
+		assertEquals(2, profiles.size());
+
+		ExportProfile large = profiles.get(0);
+		assertEquals("large", large.getName());
+		assertEquals(1200, large.getMaxDimension());
+		assertEquals("jpg", large.getFormat("a.png"));
+		assertFalse(large.isSubsampling());
+
+		ExportProfile small = profiles.get(1);
+		assertEquals(320, small.getMaxDimension());
+		assertEquals("png", small.getFormat("a.png"));
+		assertTrue(small.isSubsampling());
+	}
+
+	/**
+	 * Make sure images written with a profile can be read again.
+	 * 
+	 * @throws IOException
+	 *             Thrown if there is a problem writing the image.
+	 */
+	@Test
+	public void testEncode() throws IOException {
+
+		BufferedImage image = new BufferedImage(40, 30,
+				BufferedImage.TYPE_INT_RGB);
+
+		for (ExportProfile profile : ExportProfile.getProfiles()) {
+			BufferedImage read = ImageIO.read(new ByteArrayInputStream(
+					profile.encode(image, "a.jpg")));
+
+			assertEquals(40, read.getWidth());
+			assertEquals(30, read.getHeight());
+		}
+	}
+}
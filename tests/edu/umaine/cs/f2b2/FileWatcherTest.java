@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.Future;
+
+import javax.swing.ImageIcon;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that images changed while they are in the list are removed from the
+ * database, and that folders stop being watched.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class FileWatcherTest {
+
+	/**
+	 * The longest time to wait for the watcher to notice a change.
+	 * (milliseconds)
+	 */
+	private static final long TIMEOUT = 10000;
+
+	/**
+	 * Connection to the database.
+	 */
+	private Connection conn;
+
+	/**
+	 * The watched folder.
+	 */
+	private File folder;
+
+	/**
+	 * The list of images that is watched.
+	 */
+	private ImageJListModel model;
+
+	/**
+	 * The watcher being tested.
+	 */
+	private FileWatcher watcher;
+
+	/**
+	 * The future of the running watcher.
+	 */
+	private Future<?> watching;
+
+	/**
+	 * Make sure the database is ready and the watcher is running.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem setting up the test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		File f = new File(DBManager.getDatabaseLocation());
+
+		if (f.exists())
+			DBManagerTest.deleteDirectory(f);
+
+		conn = DBManager.getDerbyConnection();
+		DBManager.createTables(conn);
+
+		folder = Files.createTempDirectory("watched").toFile();
+
+		model = new ImageJListModel();
+		watcher = new FileWatcher(model);
+		model.addListDataListener(watcher);
+
+		watching = TaskExecutors.run(TaskExecutors.background(), watcher);
+	}
+
+	/**
+	 * Stop the watcher and remove the test database and folder.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem removing the database.
+	 */
+	@After
+	public void tearDown() throws Exception {
+		watching.cancel(true);
+
+		DBManager.destroyTables(conn);
+		conn.close();
+		DBManager.shutdownDatabase();
+		DBManagerTest.deleteDirectory(new File(DBManager.dbLocation));
+		DBManagerTest.deleteDirectory(folder);
+	}
+
+	/**
+	 * Make sure the rows of listed images are removed once the images are
+	 * modified or deleted.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem with the files or database.
+	 */
+	@Test
+	public void testModifyAndDelete() throws Exception {
+
+		ImageFile modified = store("modified.jpg");
+		ImageFile deleted = store("deleted.jpg");
+
+		model.addImage(modified);
+		model.addImage(deleted);
+
+		FileOutputStream out = new FileOutputStream(modified, true);
+		out.write(0);
+		out.close();
+		modified.setLastModified(modified.lastModified() + 2000);
+
+		waitUntilRemoved(modified);
+		assertNotNull(DBManager.getModificationDate(conn,
+				deleted.getAbsolutePath()));
+
+		deleted.delete();
+
+		waitUntilRemoved(deleted);
+	}
+
+	/**
+	 * Make sure a folder is no longer watched once the last of its images
+	 * leaves the list.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem with the files.
+	 */
+	@Test
+	public void testUnregister() throws Exception {
+
+		File other = Files.createTempDirectory(folder.toPath(), "other")
+				.toFile();
+
+		ImageFile a = new ImageFile(new File(folder, "a.jpg").getPath());
+		ImageFile b = new ImageFile(new File(folder, "b.jpg").getPath());
+		ImageFile c = new ImageFile(new File(other, "c.jpg").getPath());
+
+		model.addImage(a);
+		model.addImage(b);
+		model.addImage(c);
+
+		assertEquals(2, watcher.getFolderCount());
+
+		model.removeElement(a);
+		assertEquals(2, watcher.getFolderCount());
+
+		model.removeElement(b);
+		assertEquals(1, watcher.getFolderCount());
+
+		model.clear();
+		assertEquals(0, watcher.getFolderCount());
+	}
+
+	/**
+	 * Copies the test image into the watched folder and stores its icon.
+	 * 
+	 * @param name
+	 *            The name of the copy. (Not null)
+	 * @return The copy. (Never null)
+	 */
+	private ImageFile store(String name) throws Exception {
+
+		ImageFile file = new ImageFile(new File(folder, name).getPath());
+
+		Files.copy(new File(this.getClass().getResource("meAtMtDesert.jpg")
+				.getPath()).toPath(), file.toPath());
+
+		DBManager.saveIcon(conn, file.getAbsolutePath(), new Timestamp(file
+				.lastModified()), new ImageIcon(new BufferedImage(10, 10,
+				BufferedImage.TYPE_INT_RGB)), 300, 225);
+
+		return file;
+	}
+
+	/**
+	 * Waits until the row of the given image has been removed.
+	 * 
+	 * @param file
+	 *            A listed image. (Not null)
+	 */
+	private void waitUntilRemoved(ImageFile file) throws SQLException,
+			InterruptedException {
+
+		long end = System.currentTimeMillis() + TIMEOUT;
+
+		while (DBManager.getModificationDate(conn, file.getAbsolutePath()) != null
+				&& System.currentTimeMillis() < end) {
+			Thread.sleep(100);
+		}
+
+		assertNull(DBManager.getModificationDate(conn, file.getAbsolutePath()));
+	}
+}
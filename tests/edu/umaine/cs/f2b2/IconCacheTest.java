@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+
+import javax.swing.ImageIcon;
+
+import org.junit.Test;
+
+/**
+ * Test that the icon cache stays within its budget.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class IconCacheTest {
+
+	/**
+	 * Make sure the least recently used icons are evicted first.
+	 */
+	@Test
+	public void testEviction() {
+
+		ImageIcon icon = createIcon();
+		long size = IconCache.sizeOf(icon);
+
+		IconCache cache = new IconCache(2 * size, false);
+
+		cache.put("a", icon);
+		cache.put("b", createIcon());
+
+		// Makes "b" the least recently used icon
+		assertSame(icon, cache.get("a"));
+
+		cache.put("c", createIcon());
+
+		assertEquals(2 * size, cache.getBytes());
+		assertSame(icon, cache.get("a"));
+		assertNull(cache.get("b"));
+
+		cache.remove("a");
+		assertEquals(size, cache.getBytes());
+		assertNull(cache.get("a"));
+	}
+
+	/**
+	 * Make sure evicted icons can still be found in the soft reference tier.
+	 */
+	@Test
+	public void testSoftReferences() {
+
+		ImageIcon icon = createIcon();
+
+		IconCache cache = new IconCache(IconCache.sizeOf(icon), true);
+
+		cache.put("a", icon);
+		cache.put("b", createIcon());
+
+		assertEquals(IconCache.sizeOf(icon), cache.getBytes());
+
+		// The icon is still strongly referenced here, so it can't be cleared.
+		assertSame(icon, cache.get("a"));
+	}
+
+	/**
+	 * @return A new icon of 10 by 10 pixels. (Never null)
+	 */
+	private ImageIcon createIcon() {
+		return new ImageIcon(new BufferedImage(10, 10,
+				BufferedImage.TYPE_INT_RGB));
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import javax.swing.ImageIcon;
+
+import org.junit.Test;
+
+/**
+ * Test that icons are rotated by moving their pixels, and that a selection
+ * is rotated as one job.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class IconRotatorTest {
+
+	/**
+	 * Make sure each pixel moves to the right place for every rotation.
+	 */
+	@Test
+	public void testRotate() {
+
+		// 3 wide and 2 high:
+		// 1 2 3
+		// 4 5 6
+		int[] src = { 1, 2, 3, 4, 5, 6 };
+		int[] dst = new int[6];
+
+		IconRotator.rotate(src, 3, 2, 90, dst);
+		assertEquals(Arrays.toString(new int[] { 4, 1, 5, 2, 6, 3 }),
+				Arrays.toString(dst));
+
+		IconRotator.rotate(src, 3, 2, 180, dst);
+		assertEquals(Arrays.toString(new int[] { 6, 5, 4, 3, 2, 1 }),
+				Arrays.toString(dst));
+
+		IconRotator.rotate(src, 3, 2, 270, dst);
+		assertEquals(Arrays.toString(new int[] { 3, 6, 2, 5, 1, 4 }),
+				Arrays.toString(dst));
+
+		assertEquals(270, IconRotator.normalize(-90));
+	}
+
+	/**
+	 * Make sure icons are rotated from the icons in memory and their images
+	 * are set to the new rotation.
+	 */
+	@Test
+	public void testBatchRotate() {
+
+		ImageJListModel model = new ImageJListModel();
+
+		ImageFile file = new ImageFile("/not/on/disk/batch.jpg");
+		model.addImage(file);
+
+		BufferedImage image = new BufferedImage(40, 30,
+				BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, 0xff0000);
+
+		IconCache.getIconCache().put(file.getIconKey(), new ImageIcon(image));
+
+		new BatchRotateJob(model, Arrays.asList(file), -90).run();
+
+		assertEquals(270, file.getRotation());
+
+		ImageIcon rotated = IconCache.getIconCache().get(file.getIconKey());
+
+		assertNotNull(rotated);
+		assertEquals(30, rotated.getIconWidth());
+		assertEquals(40, rotated.getIconHeight());
+
+		// The top left corner is now the bottom left corner.
+		assertEquals(0xff0000, ((BufferedImage) rotated.getImage()).getRGB(
+				0, 39) & 0xffffff);
+	}
+
+	/**
+	 * Make sure rotating an image back and forth reuses the same buffers.
+	 */
+	@Test
+	public void testRotateInMemoryReusesBuffers() {
+
+		ImageFile file = new ImageFile("/not/on/disk/reuse.jpg");
+
+		BufferedImage image = new BufferedImage(40, 30,
+				BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, 0x00ff00);
+
+		IconCache.getIconCache().put(file.getIconKey(), new ImageIcon(image));
+
+		assertTrue(file.rotateInMemory(90));
+		ImageIcon right = IconCache.getIconCache().get(file.getIconKey());
+
+		assertTrue(file.rotateInMemory(180));
+		ImageIcon down = IconCache.getIconCache().get(file.getIconKey());
+
+		assertTrue(file.rotateInMemory(270));
+		assertSame(right, IconCache.getIconCache().get(file.getIconKey()));
+		assertEquals(270, file.getRotation());
+
+		// The top left corner is now the bottom left corner.
+		assertEquals(0x00ff00, ((BufferedImage) right.getImage()).getRGB(0,
+				39) & 0xffffff);
+
+		assertTrue(file.rotateInMemory(0));
+		assertTrue(file.rotateInMemory(180));
+		assertSame(down, IconCache.getIconCache().get(file.getIconKey()));
+		assertEquals(0x00ff00, ((BufferedImage) down.getImage()).getRGB(39,
+				29) & 0xffffff);
+
+		file.invalidate();
+		assertEquals(-1, file.getRotationInMemory());
+	}
+
+	/**
+	 * Make sure a rotation never writes into the icon that is shown, and that
+	 * transparent pixels stay transparent.
+	 */
+	@Test
+	public void testRotateInMemoryKeepsShownIcon() {
+
+		ImageFile file = new ImageFile("/not/on/disk/shown.png");
+
+		BufferedImage image = new BufferedImage(40, 30,
+				BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, 0xff0000ff);
+
+		IconCache.getIconCache().put(file.getIconKey(), new ImageIcon(image));
+
+		assertTrue(file.rotateInMemory(180));
+		ImageIcon down = IconCache.getIconCache().get(file.getIconKey());
+
+		// The original icon is gone, so 0 degrees is made from the icon
+		// that is shown.
+		IconCache.getIconCache().remove(file.getIconKey(0));
+
+		assertTrue(file.rotateInMemory(0));
+		ImageIcon up = IconCache.getIconCache().get(file.getIconKey());
+
+		assertNotSame(down, up);
+		assertEquals(0xff0000ff, ((BufferedImage) down.getImage()).getRGB(
+				39, 29));
+		assertEquals(0xff0000ff, ((BufferedImage) up.getImage())
+				.getRGB(0, 0));
+		assertEquals(0, ((BufferedImage) up.getImage()).getRGB(39, 29));
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Test that images are read correctly by the pooled readers.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ImageDecoderTest {
+
+	/**
+	 * A photograph to read.
+	 */
+	private File jpg = new File(this.getClass().getResource(
+			"meAtMtDesert.jpg").getPath());
+
+	/**
+	 * Make sure the pooled readers decode the same pixels as ImageIO.
+	 * 
+	 * @throws IOException
+	 *             Thrown if there is a problem reading the image.
+	 */
+	@Test
+	public void testRead() throws IOException {
+
+		BufferedImage expected = ImageIO.read(jpg);
+
+		for (int i = 0; i < 2; i++) {
+			BufferedImage image = ImageDecoder.read(jpg);
+
+			assertEquals(expected.getWidth(), image.getWidth());
+			assertEquals(expected.getHeight(), image.getHeight());
+			assertEquals(expected.getRGB(150, 100), image.getRGB(150, 100));
+		}
+
+		assertEquals(new Dimension(expected.getWidth(), expected.getHeight()),
+				ImageDecoder.probe(jpg));
+	}
+
+	/**
+	 * Make sure images of the same size are decoded into the same buffer and
+	 * copies are not affected.
+	 * 
+	 * @throws IOException
+	 *             Thrown if there is a problem reading or writing an image.
+	 */
+	@Test
+	public void testReadInto() throws IOException {
+
+		BufferedImage black = new BufferedImage(20, 10,
+				BufferedImage.TYPE_INT_RGB);
+		BufferedImage white = new BufferedImage(20, 10,
+				BufferedImage.TYPE_INT_RGB);
+		white.getGraphics().fillRect(0, 0, 20, 10);
+
+		byte[] blackBytes = ImageEncoder.encode(black, "png",
+				ImageEncoder.DEFAULT);
+		byte[] whiteBytes = ImageEncoder.encode(white, "png",
+				ImageEncoder.DEFAULT);
+
+		BufferedImage first = ImageDecoder.readInto(new ByteArrayInputStream(
+				blackBytes));
+		BufferedImage kept = ImageDecoder.copy(first);
+
+		BufferedImage second = ImageDecoder.readInto(new ByteArrayInputStream(
+				whiteBytes));
+
+		assertSame(first, second);
+		assertEquals(white.getRGB(5, 5), second.getRGB(5, 5));
+		assertEquals(black.getRGB(5, 5), kept.getRGB(5, 5));
+
+		assertNotSame(second,
+				ImageDecoder.read(new ByteArrayInputStream(whiteBytes)));
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Test that images are written correctly by the pooled writers.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ImageEncoderTest {
+
+	/**
+	 * A photograph to write.
+	 */
+	private File jpg = new File(this.getClass().getResource(
+			"meAtMtDesert.jpg").getPath());
+
+	/**
+	 * Make sure the writers and stream of a thread can be used over and over
+	 * for different formats.
+	 * 
+	 * @throws IOException
+	 *             Thrown if there is a problem writing an image.
+	 */
+	@Test
+	public void testReuse() throws IOException {
+
+		BufferedImage image = ImageIO.read(jpg);
+
+		for (int i = 0; i < 3; i++) {
+			for (String format : new String[] { "jpg", "png", "gif", "JPEG" }) {
+				BufferedImage read = ImageIO.read(new ByteArrayInputStream(
+						ImageEncoder.encode(image, format,
+								ImageEncoder.DEFAULT)));
+
+				assertEquals(image.getWidth(), read.getWidth());
+				assertEquals(image.getHeight(), read.getHeight());
+			}
+		}
+	}
+
+	/**
+	 * Make sure the JPEG settings change the written image.
+	 * 
+	 * @throws IOException
+	 *             Thrown if there is a problem writing an image.
+	 */
+	@Test
+	public void testSettings() throws IOException {
+
+		BufferedImage image = ImageIO.read(jpg);
+
+		int low = ImageEncoder.encode(image, "jpg",
+				new ImageEncoder.Settings(0.3f, true, false, false)).length;
+		int high = ImageEncoder.encode(image, "jpg",
+				new ImageEncoder.Settings(0.95f, true, false, false)).length;
+		int full = ImageEncoder.encode(image, "jpg",
+				new ImageEncoder.Settings(0.95f, false, false, false)).length;
+		int optimized = ImageEncoder.encode(image, "jpg",
+				new ImageEncoder.Settings(0.95f, true, false, true)).length;
+
+		assertTrue(low < high);
+		assertTrue(high < full);
+		assertTrue(optimized < high);
+
+		byte[] progressive = ImageEncoder.encode(image, "jpg",
+				new ImageEncoder.Settings(0.75f, true, true, false));
+
+		assertEquals(image.getWidth(),
+				ImageIO.read(new ByteArrayInputStream(progressive)).getWidth());
+	}
+}
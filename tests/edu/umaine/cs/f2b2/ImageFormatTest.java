@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Test that image formats are recognized by name and by content.
+ *
+ * @author Mark Royer
+ *
+ */
+public class ImageFormatTest {
+
+	/**
+	 * Make sure extensions are matched regardless of case.
+	 */
+	@Test
+	public void testForFileName() {
+
+		assertEquals(ImageFormat.JPEG, ImageFormat.forFileName("a.jpg"));
+		assertEquals(ImageFormat.JPEG, ImageFormat.forFileName("a.b.JPEG"));
+		assertEquals(ImageFormat.PNG, ImageFormat.forFileName("a.Png"));
+		assertEquals(ImageFormat.GIF, ImageFormat.forFileName("a.gif"));
+
+		assertNull(ImageFormat.forFileName("a"));
+		assertNull(ImageFormat.forFileName("a.jp"));
+		assertNull(ImageFormat.forFileName("a.jpgx"));
+		assertNull(ImageFormat.forFileName("a.txt"));
+		assertNull(ImageFormat.forFileName("jpg"));
+	}
+
+	/**
+	 * Make sure the extension is the text after the last period, and that a
+	 * name ending with a period has no extension.
+	 */
+	@Test
+	public void testGetExtension() {
+
+		assertEquals("jpg", ImageFile.getExtension("a.jpg"));
+		assertEquals("JPEG", ImageFile.getExtension("a.b.JPEG"));
+		assertEquals("jpg", ImageFile.getExtension(".jpg"));
+		assertEquals("", ImageFile.getExtension("a"));
+		assertEquals("", ImageFile.getExtension("a."));
+		assertEquals("", ImageFile.getExtension("a.jpg."));
+		assertEquals("", ImageFile.getExtension("."));
+
+		assertNull(ImageFormat.forFileName("a.jpg."));
+	}
+
+	/**
+	 * Make sure the content of a file decides its format.
+	 *
+	 * @throws IOException
+	 *             Thrown if there is a problem writing the temporary file.
+	 */
+	@Test
+	public void testDetect() throws IOException {
+
+		File jpg = new File(this.getClass().getResource("meAtMtDesert.jpg")
+				.getPath());
+
+		assertEquals(ImageFormat.JPEG, ImageFormat.detect(jpg));
+
+		File fake = File.createTempFile("fake", ".jpg");
+		fake.deleteOnExit();
+
+		FileOutputStream out = new FileOutputStream(fake);
+		out.write("Not really an image".getBytes());
+		out.close();
+
+		assertNull(ImageFormat.detect(fake));
+
+		out = new FileOutputStream(fake);
+		out.write("GIF89a and then some".getBytes());
+		out.close();
+		fake.setLastModified(fake.lastModified() + 2000);
+
+		assertEquals(ImageFormat.GIF, ImageFormat.detect(fake));
+	}
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Test that decodes are only admitted while they fit in the budget.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class MemoryGovernorTest {
+
+	/**
+	 * Make sure a decode waits until there is room for it.
+	 */
+	@Test(timeout = 10000)
+	public void testWaitsForRoom() throws Exception {
+
+		final MemoryGovernor governor = new MemoryGovernor(100);
+
+		governor.acquire(60);
+
+		final boolean[] admitted = new boolean[1];
+
+		Thread other = new Thread() {
+			@Override
+			public void run() {
+				try {
+					governor.acquire(60);
+					synchronized (admitted) {
+						admitted[0] = true;
+					}
+					governor.release(60);
+				} catch (InterruptedException e) {
+					// Test fails below
+				}
+			}
+		};
+		other.start();
+
+		other.join(200);
+
+		synchronized (admitted) {
+			assertFalse(admitted[0]);
+		}
+
+		governor.release(60);
+		other.join();
+
+		assertTrue(admitted[0]);
+		assertEquals(0, governor.getInFlight());
+	}
+
+	/**
+	 * Make sure a decode larger than the budget runs when nothing else does,
+	 * and that a thread holding memory can acquire more.
+	 */
+	@Test(timeout = 10000)
+	public void testOversizedAndNested() throws Exception {
+
+		MemoryGovernor governor = new MemoryGovernor(100);
+
+		governor.acquire(500);
+		governor.acquire(50);
+
+		assertEquals(550, governor.getInFlight());
+
+		governor.release(50);
+		governor.release(500);
+
+		assertEquals(0, governor.getInFlight());
+	}
+
+	/**
+	 * Make sure a release without a matching acquire is rejected and leaves
+	 * the budget in force.
+	 */
+	@Test(timeout = 10000)
+	public void testUnmatchedRelease() throws Exception {
+
+		final MemoryGovernor governor = new MemoryGovernor(100);
+
+		try {
+			governor.release(0);
+			fail("A release without an acquire should be rejected");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+
+		governor.acquire(60);
+
+		Thread other = new Thread() {
+			@Override
+			public void run() {
+				try {
+					governor.acquire(60);
+					governor.release(60);
+				} catch (InterruptedException e) {
+					// Test fails below
+				}
+			}
+		};
+		other.start();
+
+		other.join(200);
+
+		assertTrue(other.isAlive());
+		assertEquals(60, governor.getInFlight());
+
+		governor.release(60);
+		other.join();
+
+		assertEquals(0, governor.getInFlight());
+	}
+
+	/**
+	 * Make sure very large images are estimated by their stripes.
+	 */
+	@Test
+	public void testEstimate() {
+
+		assertEquals(4L * 1000 * 500 + 4L * 800 * 500,
+				MemoryGovernor.estimate(1000, 500, 800));
+
+		// The first halving step of a large photo is counted.
+		assertEquals(5L * 6000 * 4000 + 4L * 2048 * 2048,
+				MemoryGovernor.estimate(6000, 4000, 2048));
+
+		long tiled = MemoryGovernor.estimate(20000, 20000, 2048);
+
+		assertTrue(tiled < 4L * 20000 * 20000);
+		assertTrue(tiled >= 4L * TiledScaler.STRIPEPIXELS);
+	}
+}
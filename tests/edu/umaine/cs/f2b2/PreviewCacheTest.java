@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+/**
+ * Test that the preview cache stays within its budget.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class PreviewCacheTest {
+
+	/**
+	 * Make sure the least recently used previews are dropped first.
+	 */
+	@Test
+	public void testEviction() {
+
+		BufferedImage preview = createPreview();
+		long size = PreviewCache.sizeOf(preview);
+
+		PreviewCache cache = new PreviewCache(2 * size);
+
+		cache.put("a@0", preview);
+		cache.put("a@90", createPreview());
+
+		// Makes "a@90" the least recently used preview
+		assertSame(preview, cache.get("a@0"));
+
+		cache.put("b@0", createPreview());
+
+		assertEquals(2 * size, cache.getBytes());
+		assertSame(preview, cache.get("a@0"));
+		assertNull(cache.get("a@90"));
+
+		cache.remove("a@0");
+
+		assertEquals(size, cache.getBytes());
+		assertNull(cache.get("a@0"));
+	}
+
+	/**
+	 * Returns a small preview for testing.
+	 * 
+	 * @return A new preview. (Never null)
+	 */
+	private BufferedImage createPreview() {
+		return new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that previews are loaded in the background and ahead of the user.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class PreviewLoaderTest {
+
+	/**
+	 * Connection to the database.
+	 */
+	private Connection conn;
+
+	/**
+	 * The images to preview.
+	 */
+	private ImageJListModel model;
+
+	/**
+	 * Make sure the database is ready for testing.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem setting up the database.
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		File f = new File(DBManager.getDatabaseLocation());
+
+		if (f.exists())
+			DBManagerTest.deleteDirectory(f);
+
+		conn = DBManager.getDerbyConnection();
+		DBManager.createTables(conn);
+
+		File original = new File(this.getClass()
+				.getResource("meAtMtDesert.jpg").getPath());
+
+		model = new ImageJListModel();
+
+		for (int i = 0; i < 4; i++) {
+			File copy = File.createTempFile("preview", ".jpg");
+			copy.deleteOnExit();
+			Files.copy(original.toPath(), copy.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			model.addImage(new ImageFile(copy.getPath()));
+		}
+	}
+
+	/**
+	 * Remove all of the test database directory.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem removing the database.
+	 */
+	@After
+	public void tearDown() throws Exception {
+		DBManager.destroyTables(conn);
+		conn.close();
+		DBManager.shutdownDatabase();
+		DBManagerTest.deleteDirectory(new File(DBManager.dbLocation));
+	}
+
+	/**
+	 * Make sure a requested preview is delivered and the next image is loaded
+	 * ahead of time.
+	 */
+	@Test(timeout = 60000)
+	public void testRequestAndPrefetch() throws Exception {
+
+		final CountDownLatch loaded = new CountDownLatch(1);
+		final ImageFile[] delivered = new ImageFile[1];
+
+		PreviewLoader loader = new PreviewLoader(model,
+				new PreviewLoader.Listener() {
+					@Override
+					public void previewLoaded(ImageFile file,
+							BufferedImage preview) {
+						delivered[0] = file;
+						loaded.countDown();
+					}
+				});
+
+		try {
+			assertNull(loader.request(0, 1));
+
+			loaded.await(30, TimeUnit.SECONDS);
+
+			assertSame(model.get(0), delivered[0]);
+
+			// The next image is loaded without being requested.
+			BufferedImage next = null;
+
+			while (next == null) {
+				Thread.sleep(50);
+				next = loader.request(1, 1);
+			}
+
+			// The test image is smaller than a preview, so it isn't resized.
+			assertEquals(model.get(1).getOriginalWidth(), next.getWidth());
+			assertNotNull(loader.request(0, -1));
+		} finally {
+			loader.stop();
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.ImageIcon;
+
+/**
+ * Compares how long rotating a list of icons pauses the program when each
+ * rotation allocates a new icon and forces a garbage collection, as rotating
+ * used to, with rotating into the reusable buffers of each image. This isn't
+ * a unit test; run it with the main method.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class RotateBenchmark {
+
+	/**
+	 * The number of images in the list.
+	 */
+	private static final int IMAGES = 200;
+
+	/**
+	 * The number of times every image is rotated.
+	 */
+	private static final int ROTATIONS = 20;
+
+	/**
+	 * Runs both kinds of rotation and prints the mean and longest pause.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(String[] args) {
+
+		List<ImageFile> files = new ArrayList<ImageFile>();
+
+		for (int i = 0; i < IMAGES; i++) {
+			ImageFile file = new ImageFile("/not/on/disk/bench" + i + ".jpg");
+
+			IconCache.getIconCache().put(
+					file.getIconKey(),
+					new ImageIcon(new BufferedImage(ImageFile.ICONWIDTH,
+							ImageFile.ICONHEIGHT, BufferedImage.TYPE_INT_RGB)));
+
+			files.add(file);
+		}
+
+		// Warm up both paths before measuring.
+		allocating(files);
+		inMemory(files);
+
+		report("new icon + System.gc()", allocating(files));
+		report("reusable buffers", inMemory(files));
+	}
+
+	/**
+	 * Rotates every image by allocating a new icon and forcing a collection
+	 * after each rotation.
+	 * 
+	 * @param files
+	 *            The images. (Not null)
+	 * @return The pause of each rotation in nanoseconds. (Never null)
+	 */
+	private static long[] allocating(List<ImageFile> files) {
+
+		long[] pauses = new long[files.size() * ROTATIONS];
+		int n = 0;
+
+		for (int r = 1; r <= ROTATIONS; r++) {
+			for (ImageFile file : files) {
+				long start = System.nanoTime();
+
+				ImageIcon icon = IconCache.getIconCache().get(
+						file.getIconKey(0));
+				IconRotator.rotate(icon, 90 * r);
+				System.gc();
+
+				pauses[n++] = System.nanoTime() - start;
+			}
+		}
+
+		return pauses;
+	}
+
+	/**
+	 * Rotates every image into its reusable buffers.
+	 * 
+	 * @param files
+	 *            The images. (Not null)
+	 * @return The pause of each rotation in nanoseconds. (Never null)
+	 */
+	private static long[] inMemory(List<ImageFile> files) {
+
+		long[] pauses = new long[files.size() * ROTATIONS];
+		int n = 0;
+
+		for (int r = 1; r <= ROTATIONS; r++) {
+			for (ImageFile file : files) {
+				long start = System.nanoTime();
+
+				file.rotateInMemory(90 * r);
+
+				pauses[n++] = System.nanoTime() - start;
+			}
+		}
+
+		return pauses;
+	}
+
+	/**
+	 * Prints the mean and longest of the given pauses.
+	 * 
+	 * @param name
+	 *            The kind of rotation. (Not null)
+	 * @param pauses
+	 *            The pauses in nanoseconds. (Not null)
+	 */
+	private static void report(String name, long[] pauses) {
+
+		long total = 0;
+		long max = 0;
+
+		for (long pause : pauses) {
+			total += pause;
+			max = Math.max(max, pause);
+		}
+
+		System.out.printf("%-24s mean %8.3f ms  max %8.3f ms%n", name, total
+				/ 1e6 / pauses.length, max / 1e6);
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that the database is checked a chunk at a time and that the check
+ * continues where it stopped.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class SanityCheckerTest {
+
+	/**
+	 * Connection to the database.
+	 */
+	private Connection conn;
+
+	/**
+	 * Folder holding the files referred to by the rows.
+	 */
+	private File folder;
+
+	/**
+	 * The chunk size before the test changed it.
+	 */
+	private int chunkSize;
+
+	/**
+	 * Make sure the database is ready for testing.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem setting up the database.
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		File f = new File(DBManager.getDatabaseLocation());
+
+		if (f.exists())
+			DBManagerTest.deleteDirectory(f);
+
+		conn = DBManager.getDerbyConnection();
+		DBManager.createTables(conn);
+		conn.setAutoCommit(false);
+
+		folder = Files.createTempDirectory("sanity").toFile();
+
+		chunkSize = SanityChecker.CHUNKSIZE;
+		SanityChecker.CHUNKSIZE = 2;
+	}
+
+	/**
+	 * Remove all of the test database directory.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem removing the database.
+	 */
+	@After
+	public void tearDown() throws Exception {
+		SanityChecker.CHUNKSIZE = chunkSize;
+
+		conn.setAutoCommit(true);
+		DBManager.destroyTables(conn);
+		conn.close();
+		DBManager.shutdownDatabase();
+		DBManagerTest.deleteDirectory(new File(DBManager.dbLocation));
+		DBManagerTest.deleteDirectory(folder);
+	}
+
+	/**
+	 * Make sure one chunk is checked and remembered, and that resuming checks
+	 * only the rows after it, removing the rows of missing files.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem with the database or the files.
+	 */
+	@Test
+	public void testResume() throws Exception {
+
+		String a = seed("a", true);
+		String b = seed("b", false);
+		String c = seed("c", true);
+		String d = seed("d", false);
+		String e = seed("e", true);
+		conn.commit();
+
+		SanityChecker checker = new SanityChecker();
+
+		// The first chunk is a and b.
+		assertTrue(checker.checkNextChunk(conn));
+		assertEquals(b, DBManager.getCheckpoint(conn,
+				SanityChecker.CHECKPOINT));
+		assertEquals(Arrays.asList(a, c, d, e), getPaths());
+
+		// Already checked, so resuming doesn't notice.
+		new File(a).delete();
+
+		checker.checkDatabaseFileReferences(conn);
+
+		assertNull(DBManager.getCheckpoint(conn, SanityChecker.CHECKPOINT));
+		assertEquals(Arrays.asList(a, c, e), getPaths());
+	}
+
+	/**
+	 * Adds a row for a file in the test folder.
+	 * 
+	 * @param name
+	 *            The name of the file. (Not null)
+	 * @param exists
+	 *            true iff the file should exist.
+	 * @return The path of the file. (Never null)
+	 */
+	private String seed(String name, boolean exists) throws IOException,
+			SQLException {
+
+		File file = new File(folder, name + ".jpg");
+
+		if (exists) {
+			file.createNewFile();
+		}
+
+		String hash = name + "0000000000000000000000000000000000000000000"
+				+ "00000000000000000000";
+
+		PreparedStatement ps = conn.prepareStatement("INSERT INTO content "
+				+ "(contenthash, originalWidth, originalHeight) "
+				+ "VALUES (?,1,1)");
+		ps.setString(1, hash);
+		ps.executeUpdate();
+		ps.close();
+
+		ps = conn.prepareStatement("INSERT INTO images "
+				+ "(imgpath, moddate, filesize, contenthash) "
+				+ "VALUES (?,?,0,?)");
+		ps.setString(1, file.getAbsolutePath());
+		ps.setTimestamp(2, new Timestamp(file.lastModified()));
+		ps.setString(3, hash);
+		ps.executeUpdate();
+		ps.close();
+
+		return file.getAbsolutePath();
+	}
+
+	/**
+	 * Returns the paths in the images table in order.
+	 */
+	private List<String> getPaths() throws SQLException {
+
+		PreparedStatement ps = conn.prepareStatement("SELECT imgpath "
+				+ "FROM images ORDER BY imgpath");
+
+		ResultSet rs = ps.executeQuery();
+
+		List<String> result = new ArrayList<String>();
+
+		while (rs.next()) {
+			result.add(rs.getString(1));
+		}
+
+		rs.close();
+		ps.close();
+
+		return result;
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test that tasks report their errors and can be canceled.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class TaskExecutorsTest {
+
+	/**
+	 * Make sure the error of a task is thrown by the thread waiting for it.
+	 */
+	@Test(timeout = 10000, expected = IOException.class)
+	public void testErrorIsPropagated() throws Exception {
+
+		Future<Object> future = TaskExecutors.cpu().submit(
+				new Callable<Object>() {
+					@Override
+					public Object call() throws IOException {
+						throw new IOException("Unreadable");
+					}
+				});
+
+		TaskExecutors.get(future, IOException.class);
+	}
+
+	/**
+	 * Make sure canceling a task interrupts it.
+	 */
+	@Test(timeout = 10000)
+	public void testCancelInterrupts() throws Exception {
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+
+		Future<?> future = TaskExecutors.run(TaskExecutors.io(),
+				new Runnable() {
+					@Override
+					public void run() {
+						started.countDown();
+						try {
+							Thread.sleep(60000);
+						} catch (InterruptedException e) {
+							interrupted.countDown();
+						}
+					}
+				});
+
+		started.await();
+		future.cancel(true);
+
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		assertTrue(future.isCancelled());
+	}
+
+	/**
+	 * Make sure the background threads have a low priority.
+	 */
+	@Test(timeout = 10000)
+	public void testBackgroundPriority() throws Exception {
+
+		final int[] priority = new int[1];
+
+		Future<?> future = TaskExecutors.run(TaskExecutors.background(),
+				new Runnable() {
+					@Override
+					public void run() {
+						priority[0] = Thread.currentThread().getPriority();
+					}
+				});
+
+		assertNotNull(future);
+		future.get();
+
+		assertEquals(Thread.MIN_PRIORITY, priority[0]);
+	}
+}
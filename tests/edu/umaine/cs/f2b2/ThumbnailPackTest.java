@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import javax.swing.ImageIcon;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that icons can be stored in and read from a pack file.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ThumbnailPackTest {
+
+	/**
+	 * The pack file used for testing.
+	 */
+	private File file;
+
+	/**
+	 * Create an empty pack file.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the file can't be created.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("thumbnails", ".pack");
+	}
+
+	/**
+	 * Remove the pack file.
+	 */
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * Make sure icons survive reopening the pack, even after a crash left an
+	 * incomplete record at its end.
+	 * 
+	 * @throws IOException
+	 *             Thrown if there is a problem with the pack file.
+	 */
+	@Test
+	public void testPutAndGet() throws IOException {
+
+		ThumbnailPack pack = new ThumbnailPack(file);
+
+		pack.put(hash(1), createIcon(3, 2, 0xFF112233));
+		pack.put(hash(2), createIcon(2, 5, 0xFF445566));
+
+		assertEquals(0xFF112233, pixel(pack.get(hash(1))));
+		assertEquals(5, pack.get(hash(2)).getIconHeight());
+		assertNull(pack.get(hash(3)));
+
+		long length = file.length();
+		pack.close();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(length + 10);
+		raf.close();
+
+		pack = new ThumbnailPack(file);
+
+		assertEquals(length, file.length());
+		assertEquals(2, pack.size());
+		assertEquals(0xFF445566, pixel(pack.get(hash(2))));
+
+		pack.close();
+	}
+
+	/**
+	 * Make sure compacting only keeps the given icons.
+	 * 
+	 * @throws IOException
+	 *             Thrown if there is a problem with the pack file.
+	 */
+	@Test
+	public void testCompact() throws IOException {
+
+		ThumbnailPack pack = new ThumbnailPack(file);
+
+		// Enough icons to make the index grow
+		for (int i = 0; i < 2000; i++) {
+			pack.put(hash(i), createIcon(1, 1, 0xFF000000 | i));
+		}
+
+		assertEquals(2000, pack.size());
+
+		pack.compact(Arrays.asList(hash(7), hash(1999)));
+
+		assertEquals(2, pack.size());
+		assertTrue(pack.contains(hash(7)));
+		assertFalse(pack.contains(hash(8)));
+		assertEquals(0xFF000000 | 1999, pixel(pack.get(hash(1999))));
+
+		pack.close();
+	}
+
+	/**
+	 * Returns a content hash for the given number.
+	 * 
+	 * @param n
+	 *            The number to create a hash for.
+	 * @return A hash of {@link ContentHasher#HASHLENGTH} hexadecimal digits.
+	 *         (Never null)
+	 */
+	private String hash(int n) {
+		// Spread the numbers over the whole index
+		return String.format("%08x%056x", n * 0x9E3779B9, n);
+	}
+
+	/**
+	 * Create an icon filled with one color.
+	 * 
+	 * @param width
+	 *            The width of the icon.
+	 * @param height
+	 *            The height of the icon.
+	 * @param argb
+	 *            The color of the icon.
+	 * @return The icon. (Never null)
+	 */
+	private ImageIcon createIcon(int width, int height, int argb) {
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_ARGB);
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				image.setRGB(x, y, argb);
+			}
+		}
+		return new ImageIcon(image);
+	}
+
+	/**
+	 * @param icon
+	 *            An icon backed by a buffered image. (Not null)
+	 * @return The color of the top left pixel.
+	 */
+	private int pixel(ImageIcon icon) {
+		return ((BufferedImage) icon.getImage()).getRGB(0, 0);
+	}
+}
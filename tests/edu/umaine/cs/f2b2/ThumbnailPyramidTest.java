@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+/**
+ * Test that the levels of a thumbnail pyramid have the right sizes.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ThumbnailPyramidTest {
+
+	/**
+	 * Make sure sizes are served by the nearest larger level.
+	 */
+	@Test
+	public void testLevelFor() {
+		assertEquals(64, ThumbnailPyramid.levelFor(1));
+		assertEquals(64, ThumbnailPyramid.levelFor(64));
+		assertEquals(128, ThumbnailPyramid.levelFor(65));
+		assertEquals(1024, ThumbnailPyramid.levelFor(800));
+		assertEquals(2048, ThumbnailPyramid.levelFor(2048));
+		assertEquals(-1, ThumbnailPyramid.levelFor(2049));
+	}
+
+	/**
+	 * Make sure every level fits its size and images are never scaled up.
+	 */
+	@Test
+	public void testBuild() {
+
+		BufferedImage original = new BufferedImage(1000, 500,
+				BufferedImage.TYPE_INT_RGB);
+
+		SortedMap<Integer, BufferedImage> levels = ThumbnailPyramid
+				.build(original);
+
+		assertEquals(ThumbnailPyramid.LEVELS.length, levels.size());
+
+		assertEquals(64, levels.get(64).getWidth());
+		assertEquals(32, levels.get(64).getHeight());
+		assertEquals(512, levels.get(512).getWidth());
+		assertEquals(256, levels.get(512).getHeight());
+
+		assertSame(original, levels.get(1024));
+		assertSame(original, levels.get(2048));
+	}
+
+	/**
+	 * Make sure the ratio of a tall image is kept.
+	 */
+	@Test
+	public void testScaleToFit() {
+
+		BufferedImage image = ThumbnailPyramid.scaleToFit(new BufferedImage(
+				300, 900, BufferedImage.TYPE_INT_RGB), 90);
+
+		assertEquals(30, image.getWidth());
+		assertEquals(90, image.getHeight());
+	}
+
+	/**
+	 * Make sure an image that is scaled down a lot averages all of its pixels
+	 * instead of sampling a few of them.
+	 */
+	@Test
+	public void testScaleToFitDoesNotAlias() {
+
+		// Every eighth column is white, so the average is an eighth of white.
+		BufferedImage image = new BufferedImage(4096, 8,
+				BufferedImage.TYPE_INT_RGB);
+
+		for (int x = 0; x < image.getWidth(); x += 8) {
+			for (int y = 0; y < image.getHeight(); y++) {
+				image.setRGB(x, y, 0xFFFFFF);
+			}
+		}
+
+		BufferedImage result = ThumbnailPyramid.scaleToFit(image, 512);
+
+		assertEquals(512, result.getWidth());
+		assertEquals(1, result.getHeight());
+
+		for (int x = 0; x < result.getWidth(); x++) {
+			int gray = result.getRGB(x, 0) & 0xFF;
+			assertTrue("Column " + x + " is " + gray, Math.abs(gray - 32) <= 4);
+		}
+	}
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that thumbnail requests are shared and completed asynchronously.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class ThumbnailServiceTest {
+
+	/**
+	 * Connection to the database.
+	 */
+	private Connection conn;
+
+	/**
+	 * An image file to use for testing.
+	 */
+	private ImageFile imageFile = new ImageFile(this.getClass()
+			.getResource("meAtMtDesert.jpg").getPath());
+
+	/**
+	 * Make sure the database is ready for testing.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem setting up the database.
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		File f = new File(DBManager.getDatabaseLocation());
+
+		if (f.exists())
+			DBManagerTest.deleteDirectory(f);
+
+		conn = DBManager.getDerbyConnection();
+		DBManager.createTables(conn);
+	}
+
+	/**
+	 * Remove all of the test database directory.
+	 * 
+	 * @throws Exception
+	 *             Thrown if there is a problem removing the database.
+	 */
+	@After
+	public void tearDown() throws Exception {
+		DBManager.destroyTables(conn);
+		conn.close();
+		DBManager.shutdownDatabase();
+		DBManagerTest.deleteDirectory(new File(DBManager.dbLocation));
+	}
+
+	/**
+	 * Make sure concurrent requests for the same image and size share one
+	 * piece of work, each through its own future, and that the image is
+	 * scaled and rotated.
+	 */
+	@Test(timeout = 60000)
+	public void testRequestsAreShared() throws Exception {
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			ThumbnailService service = new ThumbnailService(executor);
+
+			// Keeps the requests from running until both have been made.
+			final CountDownLatch start = new CountDownLatch(1);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						// Test fails below
+					}
+				}
+			});
+
+			CompletableFuture<BufferedImage> first = service.request(
+					imageFile, 128);
+			CompletableFuture<BufferedImage> second = service.request(
+					imageFile, 128);
+			CompletableFuture<BufferedImage> other = service.request(
+					imageFile, 64);
+
+			assertNotSame(first, second);
+			assertEquals(2, service.getPendingCount());
+
+			start.countDown();
+
+			BufferedImage image = first.get();
+
+			assertSame(image, second.get());
+
+			assertEquals(128, Math.max(image.getWidth(), image.getHeight()));
+			assertTrue(image.getWidth() > image.getHeight());
+			assertEquals(64, Math.max(other.get().getWidth(), other.get()
+					.getHeight()));
+
+			imageFile.setRotation(90);
+
+			BufferedImage rotated = service.request(imageFile, 128).get();
+
+			assertEquals(image.getWidth(), rotated.getHeight());
+			assertEquals(0, service.getPendingCount());
+
+		} finally {
+			imageFile.setRotation(0);
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Make sure canceling one caller's future leaves the others alone, and
+	 * that work every caller canceled is skipped.
+	 */
+	@Test(timeout = 60000)
+	public void testCancelIsPerCaller() throws Exception {
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		final int[] decodes = new int[1];
+
+		ImageFile counting = new ImageFile(imageFile.getAbsolutePath()) {
+			@Override
+			public synchronized BufferedImage getImage(int maxWidthOrHeight)
+					throws SQLException, IOException {
+				decodes[0]++;
+				return super.getImage(maxWidthOrHeight);
+			}
+		};
+
+		try {
+			ThumbnailService service = new ThumbnailService(executor);
+
+			final CountDownLatch start = new CountDownLatch(1);
+			Runnable wait = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						// Test fails below
+					}
+				}
+			};
+
+			executor.execute(wait);
+
+			CompletableFuture<BufferedImage> canceled = service.request(
+					counting, 128);
+			CompletableFuture<BufferedImage> kept = service.request(counting,
+					128);
+
+			canceled.cancel(true);
+
+			start.countDown();
+
+			assertEquals(128, kept.get().getWidth());
+			assertTrue(canceled.isCancelled());
+			assertEquals(1, decodes[0]);
+
+			final CountDownLatch again = new CountDownLatch(1);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						again.await();
+					} catch (InterruptedException e) {
+						// Test fails below
+					}
+				}
+			});
+
+			service.request(counting, 64).cancel(true);
+			service.request(counting, 64).cancel(true);
+
+			again.countDown();
+
+			// Waits for the skipped work to be run.
+			executor.submit(wait).get();
+
+			assertEquals(1, decodes[0]);
+			assertEquals(0, service.getPendingCount());
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Make sure previews and written images are the ones the image gives
+	 * out itself.
+	 */
+	@Test(timeout = 60000)
+	public void testPreviewAndRendition() throws Exception {
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			ThumbnailService service = new ThumbnailService(executor);
+
+			assertSame(imageFile.getRotatedImage(), service.requestPreview(
+					imageFile).get());
+
+			assertArrayEquals(imageFile.getRendition(ExportProfile.DEFAULT),
+					service.requestRendition(imageFile, ExportProfile.DEFAULT)
+							.get());
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Make sure a request for an image that can't be read completes
+	 * exceptionally.
+	 */
+	@Test(timeout = 60000, expected = ExecutionException.class)
+	public void testMissingImage() throws Exception {
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			new ThumbnailService(executor).request(
+					new ImageFile(imageFile.getAbsolutePath() + ".missing"),
+					64).get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
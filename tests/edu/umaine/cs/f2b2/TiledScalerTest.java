@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) Mar 31, 2010 Mark Royer
+ *
+ * This file is part of 4fb2.
+ *
+ * 4fb2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * 4fb2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with 4fb2.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.umaine.cs.f2b2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test that images scaled a stripe at a time look like the original.
+ * 
+ * @author Mark Royer
+ * 
+ */
+public class TiledScalerTest {
+
+	/**
+	 * The settings before the test changed them.
+	 */
+	private long threshold = TiledScaler.THRESHOLD,
+			stripePixels = TiledScaler.STRIPEPIXELS;
+
+	/**
+	 * Put the settings back.
+	 */
+	@After
+	public void tearDown() {
+		TiledScaler.THRESHOLD = threshold;
+		TiledScaler.STRIPEPIXELS = stripePixels;
+	}
+
+	/**
+	 * Make sure every stripe ends up in the right place of the output.
+	 * 
+	 * @throws IOException
+	 *             Thrown if there is a problem writing the temporary file.
+	 */
+	@Test
+	public void testScale() throws IOException {
+
+		BufferedImage image = new BufferedImage(3000, 1500,
+				BufferedImage.TYPE_INT_RGB);
+
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.RED);
+		g.fillRect(0, 0, 1500, 750);
+		g.setColor(Color.BLUE);
+		g.fillRect(1500, 750, 1500, 750);
+		g.dispose();
+
+		File file = File.createTempFile("large", ".png");
+		file.deleteOnExit();
+		ImageIO.write(image, "png", file);
+
+		// Force many small stripes.
+		TiledScaler.THRESHOLD = 0;
+		TiledScaler.STRIPEPIXELS = 10000;
+
+		BufferedImage scaled = TiledScaler.scale(file, 300);
+
+		assertEquals(300, scaled.getWidth());
+		assertEquals(150, scaled.getHeight());
+
+		assertEquals(Color.RED.getRGB(), scaled.getRGB(10, 10));
+		assertEquals(Color.BLACK.getRGB(), scaled.getRGB(290, 10));
+		assertEquals(Color.BLACK.getRGB(), scaled.getRGB(10, 140));
+		assertEquals(Color.BLUE.getRGB(), scaled.getRGB(290, 140));
+
+		// The edges between the quarters are averaged, not smeared.
+		assertEquals(Color.RED.getRGB(), scaled.getRGB(149, 74));
+		assertEquals(Color.BLUE.getRGB(), scaled.getRGB(150, 75));
+	}
+}